@@ -0,0 +1,30 @@
+package com.angaza.nexus.keycode.benchmarks;
+
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Per-thread position within a {@link KeyFleet}.
+ * <p>
+ * Each invocation advances to the next device and message ID, so consecutive
+ * operations never reuse the same key and MAC inputs.
+ */
+@State(Scope.Thread)
+public class FleetCursor {
+    private static final int MAX_MESSAGE_ID = 65534;
+
+    private int deviceIndex;
+    private int messageId;
+
+    byte[] nextKey(KeyFleet fleet) {
+        byte[] key = fleet.secretKeys[deviceIndex];
+        deviceIndex = (deviceIndex + 1) % fleet.fleetSize;
+        return key;
+    }
+
+    int nextMessageId() {
+        messageId = (messageId + 1) % (MAX_MESSAGE_ID + 1);
+        return messageId;
+    }
+}
@@ -0,0 +1,37 @@
+package com.angaza.nexus.keycode.benchmarks;
+
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * Fleet of synthetic device secret keys shared by all benchmark threads.
+ * <p>
+ * Keys are generated from a fixed seed so runs are comparable, and the fleet
+ * size is parameterized so results reflect a realistic mix of keys rather than
+ * one hot key sitting in L1.
+ */
+@State(Scope.Benchmark)
+public class KeyFleet {
+    private static final long SEED = 0x6e657875734b6579L;
+
+    @Param({"1", "1024", "262144"})
+    public int fleetSize;
+
+    byte[][] secretKeys;
+
+    @Setup(Level.Trial)
+    public void generateKeys() {
+        Random random = new Random(SEED);
+        secretKeys = new byte[fleetSize][];
+        for (int i = 0; i < fleetSize; i++) {
+            secretKeys[i] = new byte[16];
+            random.nextBytes(secretKeys[i]);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.angaza.nexus.keycode.benchmarks;
+
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import com.angaza.nexus.keycode.CreditMetadata;
+import com.angaza.nexus.keycode.KeycodeFactory;
+import com.angaza.nexus.keycode.KeycodeMetadata;
+import com.angaza.nexus.keycode.KeycodeProtocol;
+
+/**
+ * End-to-end keycode generation through the public {@link KeycodeFactory} entry points.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class KeycodeFactoryBenchmark {
+    private static final long SEVEN_DAYS_SECONDS = TimeUnit.DAYS.toSeconds(7);
+
+    private final Date clampedTime = new Date(1581552000000L);
+
+    @Benchmark
+    public KeycodeMetadata addCreditSmall(KeyFleet fleet, FleetCursor cursor) throws Exception {
+        return KeycodeFactory.addCredit(
+                clampedTime,
+                cursor.nextMessageId(),
+                cursor.nextKey(fleet),
+                KeycodeProtocol.SMALL,
+                SEVEN_DAYS_SECONDS);
+    }
+
+    @Benchmark
+    public KeycodeMetadata addCreditFull(KeyFleet fleet, FleetCursor cursor) throws Exception {
+        return KeycodeFactory.addCredit(
+                clampedTime,
+                cursor.nextMessageId(),
+                cursor.nextKey(fleet),
+                KeycodeProtocol.FULL,
+                SEVEN_DAYS_SECONDS);
+    }
+
+    @Benchmark
+    public CreditMetadata addCreditSmallMillis(KeyFleet fleet, FleetCursor cursor)
+            throws Exception {
+        return KeycodeFactory.addCredit(
+                clampedTime.getTime(),
+                cursor.nextMessageId(),
+                cursor.nextKey(fleet),
+                KeycodeProtocol.SMALL,
+                SEVEN_DAYS_SECONDS);
+    }
+
+    @Benchmark
+    public CreditMetadata addCreditFullMillis(KeyFleet fleet, FleetCursor cursor)
+            throws Exception {
+        return KeycodeFactory.addCredit(
+                clampedTime.getTime(),
+                cursor.nextMessageId(),
+                cursor.nextKey(fleet),
+                KeycodeProtocol.FULL,
+                SEVEN_DAYS_SECONDS);
+    }
+
+    @Benchmark
+    public KeycodeMetadata unlockSmall(KeyFleet fleet, FleetCursor cursor) throws Exception {
+        return KeycodeFactory.unlock(
+                cursor.nextMessageId(),
+                cursor.nextKey(fleet),
+                KeycodeProtocol.SMALL);
+    }
+
+    @Benchmark
+    public KeycodeMetadata unlockFull(KeyFleet fleet, FleetCursor cursor) throws Exception {
+        return KeycodeFactory.unlock(
+                cursor.nextMessageId(),
+                cursor.nextKey(fleet),
+                KeycodeProtocol.FULL);
+    }
+}
@@ -0,0 +1,45 @@
+package com.angaza.nexus.keycode.benchmarks;
+
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import com.angaza.nexus.keycode.full.FullMessage;
+import com.angaza.nexus.keycode.small.AddCreditSmallMessage;
+
+/**
+ * Message construction (MAC computation) plus rendering, without the factory's
+ * protocol dispatch and disabled-time arithmetic.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageBenchmark {
+    private static final int HOURS = 7 * 24;
+    private static final int DAYS = 7;
+
+    @Benchmark
+    public String fullAddCreditToKeycode(KeyFleet fleet, FleetCursor cursor) throws Exception {
+        return FullMessage.addCredit(
+                cursor.nextMessageId(),
+                HOURS,
+                cursor.nextKey(fleet)).toKeycode();
+    }
+
+    @Benchmark
+    public String smallAddCreditToKeycode(KeyFleet fleet, FleetCursor cursor) throws Exception {
+        return new AddCreditSmallMessage(
+                cursor.nextMessageId(),
+                DAYS,
+                cursor.nextKey(fleet)).toKeycode();
+    }
+}
@@ -0,0 +1,88 @@
+package com.angaza.nexus.keycode.benchmarks;
+
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.angaza.nexus.keycode.full.BaseFullMessage;
+import com.angaza.nexus.keycode.small.BaseSmallMessage;
+import com.angaza.nexus.keycode.util.BitUtils;
+
+/**
+ * Pseudorandom bit generation and the two protocol obscuring steps, driven by
+ * a rotating set of MAC seeds so that no single seed dominates.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ObscureBenchmark {
+    private static final int SEED_COUNT = 4096;
+
+    private byte[][] smallMacBits;
+    private byte[][] smallBodyBits;
+    private byte[][] fullMacBits;
+    private String[] fullDigits;
+    private int index;
+
+    @Setup
+    public void generateSeeds() {
+        Random random = new Random(SEED_COUNT);
+        smallMacBits = new byte[SEED_COUNT][];
+        smallBodyBits = new byte[SEED_COUNT][];
+        fullMacBits = new byte[SEED_COUNT][];
+        fullDigits = new String[SEED_COUNT];
+        for (int i = 0; i < SEED_COUNT; i++) {
+            smallMacBits[i] = new byte[]{(byte) i, (byte) ((i >> 8) & 0x0f)};
+            smallBodyBits[i] = new byte[]{(byte) random.nextInt(), (byte) random.nextInt()};
+            int mac = random.nextInt(1000000);
+            fullMacBits[i] = new byte[]{
+                    (byte) (mac >>> 24), (byte) (mac >>> 16), (byte) (mac >>> 8), (byte) mac};
+            fullDigits[i] = String.format(
+                    Locale.ENGLISH,
+                    "%08d%06d",
+                    random.nextInt(100000000),
+                    mac);
+        }
+    }
+
+    private int next() {
+        index = (index + 1) & (SEED_COUNT - 1);
+        return index;
+    }
+
+    @Benchmark
+    public byte[] pseudorandomBits16() throws Exception {
+        return BitUtils.pseudorandomBits(smallMacBits[next()], 16);
+    }
+
+    @Benchmark
+    public byte[] pseudorandomBits64() throws Exception {
+        return BitUtils.pseudorandomBits(fullMacBits[next()], 64);
+    }
+
+    @Benchmark
+    public String fullObscure() throws Exception {
+        return BaseFullMessage.obscure(fullDigits[next()], 1);
+    }
+
+    @Benchmark
+    public byte[] smallObscure() throws Exception {
+        int i = next();
+        return BaseSmallMessage.obscure(smallBodyBits[i], smallMacBits[i]);
+    }
+}
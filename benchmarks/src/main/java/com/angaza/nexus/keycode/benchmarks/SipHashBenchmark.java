@@ -0,0 +1,44 @@
+package com.angaza.nexus.keycode.benchmarks;
+
+
+import com.github.emboss.siphash.SipHash;
+import com.github.emboss.siphash.SipKey;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SipHash-2-4 over the two fixed message sizes used by the keycode MACs:
+ * 6 bytes for the small protocol and 9 bytes for the full protocol.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SipHashBenchmark {
+    private final byte[] smallMacInput = new byte[6];
+    private final byte[] fullMacInput = new byte[9];
+
+    @Benchmark
+    public long digestSmallMacInput(KeyFleet fleet, FleetCursor cursor) {
+        smallMacInput[0] = (byte) cursor.nextMessageId();
+        return SipHash.digest(new SipKey(cursor.nextKey(fleet)), smallMacInput);
+    }
+
+    @Benchmark
+    public long digestFullMacInput(KeyFleet fleet, FleetCursor cursor) {
+        fullMacInput[0] = (byte) cursor.nextMessageId();
+        return SipHash.digest(new SipKey(cursor.nextKey(fleet)), fullMacInput);
+    }
+}
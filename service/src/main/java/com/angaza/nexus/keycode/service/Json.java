@@ -0,0 +1,198 @@
+package com.angaza.nexus.keycode.service;
+
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Just enough JSON for the keycode endpoint, so the module needs no dependencies: parsing of a
+ * flat object of strings, integers, booleans and nulls, and escaping of strings for output.
+ */
+final class Json {
+    private final String text;
+    private int position;
+
+    private Json(String text) {
+        this.text = text;
+    }
+
+    /**
+     * @param text a JSON object whose values are all strings, integers, booleans or null
+     * @return its members in order; integers as {@link Long}, strings as {@link String}
+     * @throws IllegalArgumentException when the text is not such an object
+     */
+    static Map<String, Object> parseFlatObject(String text) {
+        Json json = new Json(text);
+        Map<String, Object> members = new LinkedHashMap<>();
+        json.expect('{');
+        if (json.peek() != '}') {
+            do {
+                String name = json.parseString();
+                json.expect(':');
+                if (members.put(name, json.parseValue()) != null) {
+                    throw new IllegalArgumentException("duplicate member " + name);
+                }
+            } while (json.consume(','));
+        }
+        json.expect('}');
+        if (json.peek() != -1) {
+            throw json.error("unexpected content after object");
+        }
+        return members;
+    }
+
+    /**
+     * Append {@code value} as a JSON string literal.
+     */
+    static StringBuilder appendString(StringBuilder out, String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        return out.append('"');
+    }
+
+    // Next non-whitespace character without consuming it, or -1 at the end
+    private int peek() {
+        while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+            position++;
+        }
+        return position < text.length() ? text.charAt(position) : -1;
+    }
+
+    private boolean consume(char c) {
+        if (peek() == c) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(char c) {
+        if (!consume(c)) {
+            throw error("expected '" + c + "'");
+        }
+    }
+
+    private Object parseValue() {
+        int c = peek();
+        if (c == '"') {
+            return parseString();
+        } else if (c == '-' || (c >= '0' && c <= '9')) {
+            return parseInteger();
+        } else if (text.startsWith("true", position)) {
+            position += 4;
+            return Boolean.TRUE;
+        } else if (text.startsWith("false", position)) {
+            position += 5;
+            return Boolean.FALSE;
+        } else if (text.startsWith("null", position)) {
+            position += 4;
+            return null;
+        }
+        throw error("expected a string, integer, boolean or null");
+    }
+
+    private Long parseInteger() {
+        int start = position;
+        if (text.charAt(position) == '-') {
+            position++;
+        }
+        while (position < text.length() && Character.isDigit(text.charAt(position))) {
+            position++;
+        }
+        if (position < text.length() && ".eE".indexOf(text.charAt(position)) >= 0) {
+            throw error("expected an integer");
+        }
+        try {
+            return Long.valueOf(text.substring(start, position));
+        } catch (NumberFormatException e) {
+            throw error("invalid integer");
+        }
+    }
+
+    private String parseString() {
+        expect('"');
+        StringBuilder value = new StringBuilder();
+        while (true) {
+            if (position >= text.length()) {
+                throw error("unterminated string");
+            }
+            char c = text.charAt(position++);
+            if (c == '"') {
+                return value.toString();
+            }
+            if (c != '\\') {
+                value.append(c);
+                continue;
+            }
+            if (position >= text.length()) {
+                throw error("unterminated string");
+            }
+            char escaped = text.charAt(position++);
+            switch (escaped) {
+                case '"':
+                case '\\':
+                case '/':
+                    value.append(escaped);
+                    break;
+                case 'b':
+                    value.append('\b');
+                    break;
+                case 'f':
+                    value.append('\f');
+                    break;
+                case 'n':
+                    value.append('\n');
+                    break;
+                case 'r':
+                    value.append('\r');
+                    break;
+                case 't':
+                    value.append('\t');
+                    break;
+                case 'u':
+                    if (position + 4 > text.length()) {
+                        throw error("invalid unicode escape");
+                    }
+                    try {
+                        value.append((char) Integer.parseInt(
+                                text.substring(position, position + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw error("invalid unicode escape");
+                    }
+                    position += 4;
+                    break;
+                default:
+                    throw error("invalid escape");
+            }
+        }
+    }
+
+    private IllegalArgumentException error(String reason) {
+        return new IllegalArgumentException(reason + " at offset " + position);
+    }
+}
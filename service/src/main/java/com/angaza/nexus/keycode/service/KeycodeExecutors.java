@@ -0,0 +1,114 @@
+package com.angaza.nexus.keycode.service;
+
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors for running keycode work off request threads.
+ * <p>
+ * On Java 21 and later the default is a virtual-thread-per-task executor, so blocking key
+ * lookups or persistence in a chain cost no platform thread. It is found reflectively, so this
+ * module builds and runs on Java 11; older runtimes get a bounded pool of daemon threads
+ * instead, one per processor, which runs tasks on the submitting thread once its queue is full.
+ */
+public final class KeycodeExecutors {
+    private static final int QUEUED_TASKS_PER_THREAD = 1024;
+    private static final Method VIRTUAL_THREAD_FACTORY = findVirtualThreadFactory();
+
+    private KeycodeExecutors() {
+    }
+
+    private static Method findVirtualThreadFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return a new virtual-thread-per-task executor on Java 21+, otherwise a new
+     *         {@link #newBoundedExecutor(int, int) bounded pool} sized to the processors
+     */
+    public static ExecutorService newDefaultExecutor() {
+        ExecutorService virtual = newVirtualThreadExecutor();
+        if (virtual != null) {
+            return virtual;
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+        return newBoundedExecutor(threads, threads * QUEUED_TASKS_PER_THREAD);
+    }
+
+    /**
+     * An executor for work that must never run on the submitting thread, e.g. when the submitter
+     * is an event loop. Its queue is unbounded, so callers must bound the work they submit.
+     *
+     * @return a new virtual-thread-per-task executor on Java 21+, otherwise a new pool of
+     *         daemon threads, one per processor
+     */
+    public static ExecutorService newHandoffExecutor() {
+        ExecutorService virtual = newVirtualThreadExecutor();
+        if (virtual != null) {
+            return virtual;
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+        return new ThreadPoolExecutor(
+                threads, threads,
+                0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new DaemonThreadFactory());
+    }
+
+    /**
+     * @return a new virtual-thread-per-task executor, or null when the runtime has no virtual
+     *         threads (before Java 21, or Java 19-20 without preview features)
+     */
+    public static ExecutorService newVirtualThreadExecutor() {
+        if (VIRTUAL_THREAD_FACTORY == null) {
+            return null;
+        }
+        try {
+            return (ExecutorService) VIRTUAL_THREAD_FACTORY.invoke(null);
+        } catch (InvocationTargetException e) {
+            // Preview API not enabled
+            return null;
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param threads       number of daemon worker threads
+     * @param queueCapacity tasks queued beyond the busy workers before submitting threads run
+     *                      tasks themselves, which slows submitters down
+     * @return a new fixed-size pool
+     */
+    public static ExecutorService newBoundedExecutor(int threads, int queueCapacity) {
+        return new ThreadPoolExecutor(
+                threads, threads,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity),
+                new DaemonThreadFactory(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    private static final class DaemonThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, "nexus-keycode-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.angaza.nexus.keycode.service;
+
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.angaza.nexus.keycode.KeycodeBatch;
+import com.angaza.nexus.keycode.KeycodeData;
+import com.angaza.nexus.keycode.KeycodeMetadata;
+import com.angaza.nexus.keycode.util.HexToByteArray;
+
+/**
+ * Keycode generation over HTTP/JSON on the JDK's built-in HTTP server, with no other
+ * dependencies.
+ * <p>
+ * {@code POST /keycodes} takes one request object, with the fields of a
+ * {@link KeycodeBatch.Request}:
+ * <pre>
+ *     {"type": "ADD", "messageId": 42, "secretKey": "abab...ab", "keycodeProtocol": "FULL",
+ *      "seconds": 86400, "clampedTime": 1581552000000}
+ * </pre>
+ * where {@code type} is {@code ADD} (the default) or {@code UNLOCK}, {@code secretKey} is 32 hex
+ * digits and {@code clampedTime} is in epoch milliseconds. It answers with the
+ * {@link KeycodeMetadata} fields, {@code newDisabledWhen} again in epoch milliseconds or null:
+ * <pre>
+ *     {"type": "ADD", "keycode": "*123 456 789 012 34#", "messageId": 42, "seconds": 86400,
+ *      "newDisabledWhen": 1581638400000}
+ * </pre>
+ * Malformed requests get status 400 and keycodes that cannot be generated 422, each with an
+ * {@code error} message; 503 means the server is saturated. Concurrent requests are coalesced
+ * by a {@link KeycodeMicroBatcher} and encoded together on the server's own pool. Once a batch
+ * completes, its responses are handed to a separate responder executor (see
+ * {@link KeycodeExecutors#newHandoffExecutor()}), which never runs them on the batcher's thread,
+ * so no handler thread waits on encoding and the batcher never waits on a slow client.
+ */
+public final class KeycodeHttpServer implements AutoCloseable {
+    /**
+     * Path of the keycode endpoint.
+     */
+    public static final String PATH = "/keycodes";
+
+    private static final int MAX_BODY_BYTES = 16 * 1024;
+    private static final int QUEUED_REQUESTS_PER_BATCH = 64;
+
+    private final HttpServer server;
+    private final ExecutorService handlers;
+    private final ExecutorService responders;
+    private final ForkJoinPool encoders;
+    private final KeycodeMicroBatcher batcher;
+
+    /**
+     * Start a server.
+     *
+     * @param address      address to listen on; port 0 picks a free port
+     * @param maxBatchSize most requests encoded together
+     * @param maxWait      longest time a request waits for its batch to fill
+     * @param unit         unit of {@code maxWait}
+     * @throws IOException when the address cannot be bound
+     */
+    public KeycodeHttpServer(InetSocketAddress address, int maxBatchSize, long maxWait,
+                             TimeUnit unit) throws IOException {
+        this.encoders = new ForkJoinPool();
+        this.batcher = new KeycodeMicroBatcher(
+                new KeycodeBatch(encoders), maxBatchSize, maxWait, unit,
+                maxBatchSize * QUEUED_REQUESTS_PER_BATCH);
+        this.handlers = KeycodeExecutors.newDefaultExecutor();
+        // At most the batcher's capacity of responses are pending, so unbounded is safe here
+        this.responders = KeycodeExecutors.newHandoffExecutor();
+        this.server = HttpServer.create(address, 0);
+        server.createContext(PATH, this::handle);
+        server.setExecutor(handlers);
+        server.start();
+    }
+
+    /**
+     * @return the port the server listens on
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().set("Allow", "POST");
+            respondError(exchange, 405, "use POST");
+            return;
+        }
+        final KeycodeBatch.Request request;
+        try {
+            request = parseRequest(readBody(exchange.getRequestBody()));
+        } catch (IllegalArgumentException e) {
+            respondError(exchange, 400, e.getMessage());
+            return;
+        }
+        batcher.submit(request).whenComplete((result, failure) -> {
+            // Respond on a responder thread, never the batcher's dispatcher thread
+            try {
+                responders.execute(() -> sendResult(exchange, result, failure));
+            } catch (RejectedExecutionException e) {
+                // Server closing
+                exchange.close();
+            }
+        });
+    }
+
+    private static void sendResult(
+            HttpExchange exchange, KeycodeBatch.Result result, Throwable failure) {
+        try {
+            if (failure instanceof RejectedExecutionException) {
+                respondError(exchange, 503, failure.getMessage());
+            } else if (failure != null) {
+                respondError(exchange, 500, String.valueOf(failure));
+            } else if (!result.isSuccess()) {
+                respondError(exchange, 422, String.valueOf(result.getError()));
+            } else {
+                respond(exchange, 200, toJson(result.getKeycodeMetadata()));
+            }
+        } catch (IOException | RuntimeException e) {
+            // Client went away, or no response could be written; release the connection
+            exchange.close();
+        }
+    }
+
+    private static String readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            body.write(buffer, 0, read);
+            if (body.size() > MAX_BODY_BYTES) {
+                throw new IllegalArgumentException("request too large");
+            }
+        }
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    static KeycodeBatch.Request parseRequest(String body) {
+        Map<String, Object> fields = Json.parseFlatObject(body);
+        String type = optionalString(fields, "type", KeycodeData.ADD);
+        int messageId = (int) requiredLong(fields, "messageId", Integer.MIN_VALUE,
+                Integer.MAX_VALUE);
+        byte[] secretKey = new HexToByteArray().convert(requiredString(fields, "secretKey"));
+        if (secretKey == null || secretKey.length != 16) {
+            throw new IllegalArgumentException("secretKey must be 32 hex digits");
+        }
+        String keycodeProtocol = requiredString(fields, "keycodeProtocol");
+        switch (type) {
+            case KeycodeData.ADD:
+                return KeycodeBatch.Request.addCredit(
+                        new Date(requiredLong(fields, "clampedTime", Long.MIN_VALUE,
+                                Long.MAX_VALUE)),
+                        messageId,
+                        secretKey,
+                        keycodeProtocol,
+                        requiredLong(fields, "seconds", 0, Long.MAX_VALUE));
+            case KeycodeData.UNLOCK:
+                return KeycodeBatch.Request.unlock(messageId, secretKey, keycodeProtocol);
+            default:
+                throw new IllegalArgumentException("type must be ADD or UNLOCK");
+        }
+    }
+
+    private static String requiredString(Map<String, Object> fields, String name) {
+        Object value = fields.get(name);
+        if (!(value instanceof String)) {
+            throw new IllegalArgumentException(name + " must be a string");
+        }
+        return (String) value;
+    }
+
+    private static String optionalString(
+            Map<String, Object> fields, String name, String defaultValue) {
+        return fields.get(name) == null ? defaultValue : requiredString(fields, name);
+    }
+
+    private static long requiredLong(Map<String, Object> fields, String name, long min, long max) {
+        Object value = fields.get(name);
+        if (!(value instanceof Long) || (Long) value < min || (Long) value > max) {
+            throw new IllegalArgumentException(name + " must be an integer in range");
+        }
+        return (Long) value;
+    }
+
+    static String toJson(KeycodeMetadata metadata) {
+        KeycodeData data = metadata.getKeycodeData();
+        StringBuilder json = new StringBuilder(128);
+        json.append("{\"type\":");
+        Json.appendString(json, data.getType());
+        json.append(",\"keycode\":");
+        Json.appendString(json, data.getKeycode());
+        json.append(",\"messageId\":").append(data.getMessageId());
+        json.append(",\"seconds\":").append(data.getSeconds());
+        json.append(",\"newDisabledWhen\":");
+        if (metadata.getNewDisabledWhen() == null) {
+            json.append("null");
+        } else {
+            json.append(metadata.getNewDisabledWhen().getTime());
+        }
+        return json.append('}').toString();
+    }
+
+    private static void respondError(HttpExchange exchange, int status, String message)
+            throws IOException {
+        StringBuilder json = new StringBuilder("{\"error\":");
+        Json.appendString(json, message == null ? "" : message);
+        respond(exchange, status, json.append('}').toString());
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json)
+            throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Stop the server, letting in-flight requests finish for up to a second.
+     */
+    @Override
+    public void close() {
+        server.stop(1);
+        batcher.close();
+        encoders.shutdown();
+        responders.shutdown();
+        handlers.shutdown();
+    }
+
+    /**
+     * Run a server for local testing: {@code [port [maxBatchSize [maxWaitMicros]]]}.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        int maxBatchSize = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+        long maxWaitMicros = args.length > 2 ? Long.parseLong(args[2]) : 500;
+        KeycodeHttpServer server = new KeycodeHttpServer(
+                new InetSocketAddress(port), maxBatchSize, maxWaitMicros, TimeUnit.MICROSECONDS);
+        System.out.println("Listening on http://localhost:" + server.getPort() + PATH);
+    }
+}
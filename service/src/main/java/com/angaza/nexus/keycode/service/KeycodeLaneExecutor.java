@@ -0,0 +1,214 @@
+package com.angaza.nexus.keycode.service;
+
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import com.angaza.nexus.keycode.KeycodeBatch;
+
+/**
+ * Runs keycode work in order per device and in parallel across devices; thread-safe.
+ * <p>
+ * Each device identifier hashes to one of a fixed number of lanes. A lane is a bounded
+ * lock-free {@link MpscRingQueue} drained by its own thread, so work for one device runs
+ * strictly in submission order, e.g. keycodes with increasing message IDs, while lanes run
+ * fully in parallel without locks. When a lane is full, {@link #submit} waits for room rather
+ * than queueing without bound.
+ * <pre>
+ *     {@code
+ *     try (KeycodeLaneExecutor<Long> lanes = new KeycodeLaneExecutor<>()) {
+ *         for (Payment payment : backlog) {
+ *             lanes.submit(payment.deviceId, () -> encoders.get(payment.deviceId)
+ *                     .addCredit(payment.time, payment.messageId, payment.seconds));
+ *         }
+ *     }
+ *     }
+ * </pre>
+ *
+ * @param <K> device identifier type
+ */
+public final class KeycodeLaneExecutor<K> implements AutoCloseable {
+    private static final int DEFAULT_LANE_CAPACITY = 1024;
+    private static final int IDLE_SPINS = 100;
+    private static final long FULL_BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final Lane[] lanes;
+    private final AtomicInteger submitting = new AtomicInteger();
+    private volatile boolean running = true;
+
+    /**
+     * One lane per available processor, each holding up to 1024 tasks.
+     */
+    public KeycodeLaneExecutor() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_LANE_CAPACITY);
+    }
+
+    /**
+     * @param laneCount    number of lanes, each with its own thread
+     * @param laneCapacity most tasks waiting in a lane; rounded up to a power of two
+     */
+    public KeycodeLaneExecutor(int laneCount, int laneCapacity) {
+        if (laneCount < 1 || laneCapacity < 1) {
+            throw new IllegalArgumentException("invalid lane count or capacity");
+        }
+        this.lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new Lane(laneCapacity, "nexus-keycode-lane-" + i);
+        }
+        for (Lane lane : lanes) {
+            lane.thread.start();
+        }
+    }
+
+    /**
+     * @return number of lanes
+     */
+    public int getLaneCount() {
+        return lanes.length;
+    }
+
+    /**
+     * @return the lane that work for {@code deviceId} runs on
+     */
+    public int laneOf(K deviceId) {
+        int hash = deviceId.hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), lanes.length);
+    }
+
+    /**
+     * Run {@code task} after all work submitted earlier for the same device; waits while the
+     * device's lane is full.
+     *
+     * @param deviceId identifies the device
+     * @param task     the work, e.g. encoding a keycode; its exceptions, checked or not,
+     *                 complete the future exceptionally
+     * @return the task's result
+     * @throws RejectedExecutionException when the executor is closed
+     */
+    public <T> CompletableFuture<T> submit(K deviceId, Callable<T> task) {
+        if (task == null) {
+            throw new NullPointerException("task");
+        }
+        Lane lane = lanes[laneOf(deviceId)];
+        Task<T> queued = new Task<>(task);
+        submitting.incrementAndGet();
+        try {
+            if (!running) {
+                throw new RejectedExecutionException("keycode lane executor closed");
+            }
+            while (!lane.queue.offer(queued)) {
+                LockSupport.parkNanos(FULL_BACKOFF_NANOS);
+            }
+        } finally {
+            submitting.decrementAndGet();
+        }
+        lane.wake();
+        return queued.result;
+    }
+
+    /**
+     * Encode {@code request} after all work submitted earlier for the same device.
+     *
+     * @see #submit(Object, Callable)
+     */
+    public CompletableFuture<KeycodeBatch.Result> submit(
+            K deviceId, final KeycodeBatch.Request request) {
+        return submit(deviceId, () -> KeycodeBatch.generate(request));
+    }
+
+    /**
+     * Stop accepting work and wait for the work already submitted to finish.
+     */
+    @Override
+    public void close() {
+        running = false;
+        // Let submissions that passed the running check finish queueing
+        while (submitting.get() > 0) {
+            Thread.yield();
+        }
+        boolean interrupted = false;
+        for (Lane lane : lanes) {
+            lane.closed = true;
+            LockSupport.unpark(lane.thread);
+            while (true) {
+                try {
+                    lane.thread.join();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Lane implements Runnable {
+        final MpscRingQueue<Task<?>> queue;
+        final Thread thread;
+        volatile boolean parked;
+        volatile boolean closed;
+
+        Lane(int capacity, String name) {
+            this.queue = new MpscRingQueue<>(capacity);
+            this.thread = new Thread(this, name);
+            thread.setDaemon(true);
+        }
+
+        void wake() {
+            if (parked) {
+                parked = false;
+                LockSupport.unpark(thread);
+            }
+        }
+
+        @Override
+        public void run() {
+            int idle = 0;
+            while (true) {
+                Task<?> task = queue.poll();
+                if (task != null) {
+                    task.run();
+                    idle = 0;
+                } else if (closed) {
+                    // No more submissions can arrive; finish what is queued
+                    while ((task = queue.poll()) != null) {
+                        task.run();
+                    }
+                    return;
+                } else if (++idle < IDLE_SPINS) {
+                    Thread.yield();
+                } else {
+                    // Producers unpark us after queueing; recheck once the flag is visible
+                    parked = true;
+                    if (queue.isEmpty() && !closed) {
+                        LockSupport.park(this);
+                    }
+                    parked = false;
+                }
+            }
+        }
+    }
+
+    private static final class Task<T> {
+        final Callable<T> callable;
+        final CompletableFuture<T> result = new CompletableFuture<>();
+
+        Task(Callable<T> callable) {
+            this.callable = callable;
+        }
+
+        void run() {
+            try {
+                result.complete(callable.call());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.angaza.nexus.keycode.service;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.angaza.nexus.keycode.KeycodeBatch;
+
+/**
+ * Coalesces keycode requests submitted concurrently into batches for {@link KeycodeBatch};
+ * thread-safe.
+ * <p>
+ * A single dispatcher thread takes the first waiting request, gathers whatever else is queued,
+ * and encodes the batch on the {@link KeycodeBatch} pool. Batching adapts to load: while
+ * requests arrive one at a time, each is encoded at once without waiting; once batches of more
+ * than one request form, the dispatcher lingers up to the maximum wait for a batch to fill, so
+ * under peak traffic requests are encoded in large parallel batches for at most that much
+ * added latency.
+ * <p>
+ * The queue is bounded; when it is full, submissions fail fast rather than queueing unbounded
+ * work.
+ */
+public final class KeycodeMicroBatcher implements AutoCloseable {
+    private static final long IDLE_POLL_MILLIS = 100;
+
+    private final KeycodeBatch batch;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+    private final BlockingQueue<Pending> queue;
+    private final Thread dispatcher;
+    private volatile boolean running = true;
+
+    /**
+     * @param batch         encodes each batch
+     * @param maxBatchSize  most requests encoded together
+     * @param maxWait       longest time a request waits for its batch to fill
+     * @param unit          unit of {@code maxWait}
+     * @param queueCapacity most requests waiting to be batched
+     */
+    public KeycodeMicroBatcher(
+            KeycodeBatch batch, int maxBatchSize, long maxWait, TimeUnit unit, int queueCapacity) {
+        if (maxBatchSize < 1 || maxWait < 0 || queueCapacity < 1) {
+            throw new IllegalArgumentException("invalid batching limits");
+        }
+        this.batch = batch;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = unit.toNanos(maxWait);
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.dispatcher = new Thread(this::dispatch, "nexus-keycode-batcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /**
+     * @param request keycode to generate
+     * @return its result once its batch is encoded; fails with
+     *         {@link RejectedExecutionException} when the queue is full or the batcher closed
+     */
+    public CompletableFuture<KeycodeBatch.Result> submit(KeycodeBatch.Request request) {
+        Pending pending = new Pending(request);
+        if (!running) {
+            pending.reject("keycode batcher closed");
+        } else if (!queue.offer(pending)) {
+            pending.reject("keycode queue full");
+        } else if (!running && queue.remove(pending)) {
+            // Closed while queueing, possibly after the dispatcher's last drain
+            pending.reject("keycode batcher closed");
+        }
+        return pending.result;
+    }
+
+    private void dispatch() {
+        List<Pending> pending = new ArrayList<>(maxBatchSize);
+        int lastBatchSize = 0;
+        while (running || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    lastBatchSize = 0;
+                    continue;
+                }
+                pending.add(first);
+                gather(pending, lastBatchSize > 1 ? maxWaitNanos : 0);
+            } catch (InterruptedException e) {
+                // Closing; encode what was gathered and drain the rest
+            }
+            if (pending.isEmpty()) {
+                continue;
+            }
+            encode(pending);
+            lastBatchSize = pending.size();
+            pending.clear();
+        }
+    }
+
+    private void gather(List<Pending> pending, long lingerNanos) throws InterruptedException {
+        long deadline = System.nanoTime() + lingerNanos;
+        while (pending.size() < maxBatchSize) {
+            queue.drainTo(pending, maxBatchSize - pending.size());
+            long remaining = deadline - System.nanoTime();
+            if (pending.size() >= maxBatchSize || remaining <= 0) {
+                return;
+            }
+            Pending next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            pending.add(next);
+        }
+    }
+
+    private void encode(List<Pending> pending) {
+        KeycodeBatch.Request[] requests = new KeycodeBatch.Request[pending.size()];
+        for (int i = 0; i < requests.length; i++) {
+            requests[i] = pending.get(i).request;
+        }
+        try {
+            KeycodeBatch.Result[] results = batch.generate(requests);
+            for (int i = 0; i < results.length; i++) {
+                pending.get(i).result.complete(results[i]);
+            }
+        } catch (RuntimeException e) {
+            for (Pending p : pending) {
+                p.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Stop accepting requests; those already queued are still encoded.
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            dispatcher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Pending pending;
+        while ((pending = queue.poll()) != null) {
+            pending.reject("keycode batcher closed");
+        }
+    }
+
+    private static final class Pending {
+        final KeycodeBatch.Request request;
+        final CompletableFuture<KeycodeBatch.Result> result = new CompletableFuture<>();
+
+        Pending(KeycodeBatch.Request request) {
+            this.request = request;
+        }
+
+        void reject(String reason) {
+            result.completeExceptionally(new RejectedExecutionException(reason));
+        }
+    }
+}
@@ -0,0 +1,386 @@
+package com.angaza.nexus.keycode.service;
+
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.angaza.nexus.keycode.KeycodeBatch;
+import com.angaza.nexus.keycode.KeycodeMetadata;
+
+/**
+ * Reactive-streams stage that encodes a stream of keycode requests; thread-safe.
+ * <p>
+ * Requests are encoded in parallel, at most {@code parallelism} at a time, with
+ * {@link KeycodeBatch#generate(KeycodeBatch.Request)}. Requests for the same device are encoded
+ * one after another and published in the order they arrived; results for different devices
+ * may be published in any order. A request that cannot be encoded is published as a failed
+ * {@link Result} rather than ending the stream.
+ * <p>
+ * Demand flows from the subscriber upstream: at most {@code bufferSize} requests are ever
+ * requested but not yet published, so a slow subscriber slows the publisher instead of growing
+ * queues. A single subscriber is supported.
+ *
+ * @param <K> device identifier type
+ */
+public final class KeycodeProcessor<K>
+        implements Flow.Processor<KeycodeProcessor.Request<K>, KeycodeProcessor.Result<K>> {
+    private final Executor executor;
+    private final int parallelism;
+    private final int bufferSize;
+    private final int replenishThreshold;
+
+    // All state below is guarded by this
+    private final Map<K, ArrayDeque<Request<K>>> waitingByDevice = new HashMap<>();
+    private final ArrayDeque<Request<K>> ready = new ArrayDeque<>();
+    private final ArrayDeque<Result<K>> encoded = new ArrayDeque<>();
+    private Flow.Subscription upstream;
+    private Flow.Subscriber<? super Result<K>> downstream;
+    // Set once downstream's onSubscribe has returned; nothing is signalled to it before then
+    private boolean subscribed;
+    private long demand;
+    private int encoding;
+    private int published;
+    private boolean upstreamDone;
+    private Throwable upstreamError;
+    // Signalled to downstream by the emitting thread, ahead of any further results
+    private Throwable downstreamError;
+    private boolean emitting;
+    private boolean terminated;
+
+    /**
+     * Encode on the common fork/join pool.
+     *
+     * @param parallelism most requests encoded at once
+     * @param bufferSize  most requests held, encoding or waiting to be published
+     */
+    public KeycodeProcessor(int parallelism, int bufferSize) {
+        this(ForkJoinPool.commonPool(), parallelism, bufferSize);
+    }
+
+    /**
+     * @param executor    runs the encoding
+     * @param parallelism most requests encoded at once
+     * @param bufferSize  most requests held, encoding or waiting to be published
+     */
+    public KeycodeProcessor(Executor executor, int parallelism, int bufferSize) {
+        if (executor == null) {
+            throw new NullPointerException("executor");
+        }
+        if (parallelism < 1 || bufferSize < 1) {
+            throw new IllegalArgumentException("invalid parallelism or buffer size");
+        }
+        this.executor = executor;
+        this.parallelism = parallelism;
+        this.bufferSize = bufferSize;
+        this.replenishThreshold = Math.max(1, bufferSize / 2);
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        synchronized (this) {
+            if (upstream != null || terminated) {
+                subscription.cancel();
+                return;
+            }
+            upstream = subscription;
+        }
+        subscription.request(bufferSize);
+    }
+
+    @Override
+    public void onNext(Request<K> request) {
+        if (request == null) {
+            throw new NullPointerException("request");
+        }
+        List<Request<K>> toStart;
+        synchronized (this) {
+            if (terminated) {
+                return;
+            }
+            ArrayDeque<Request<K>> waiting = waitingByDevice.get(request.deviceId);
+            if (waiting != null) {
+                // An earlier request for the device is still queued or encoding
+                waiting.add(request);
+                return;
+            }
+            waitingByDevice.put(request.deviceId, new ArrayDeque<Request<K>>());
+            ready.add(request);
+            toStart = takeStartable();
+        }
+        start(toStart);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        synchronized (this) {
+            upstreamDone = true;
+            upstreamError = throwable;
+        }
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        synchronized (this) {
+            upstreamDone = true;
+        }
+        drain();
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Result<K>> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+        boolean accepted;
+        synchronized (this) {
+            accepted = downstream == null;
+            if (accepted) {
+                downstream = subscriber;
+            }
+        }
+        if (!accepted) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("already subscribed"));
+            return;
+        }
+        subscriber.onSubscribe(new Downstream());
+        synchronized (this) {
+            subscribed = true;
+        }
+        // Publish whatever arrived, or completed, while onSubscribe ran
+        drain();
+    }
+
+    // Move ready requests into encoding while below the parallelism limit
+    private List<Request<K>> takeStartable() {
+        List<Request<K>> toStart = new ArrayList<>();
+        while (encoding < parallelism && !ready.isEmpty()) {
+            encoding++;
+            toStart.add(ready.poll());
+        }
+        return toStart;
+    }
+
+    private void start(List<Request<K>> toStart) {
+        for (Request<K> request : toStart) {
+            try {
+                executor.execute(() -> finish(request, KeycodeBatch.generate(request.request)));
+            } catch (RejectedExecutionException e) {
+                // Saturated or shut down executor; encode on the caller instead
+                finish(request, KeycodeBatch.generate(request.request));
+            }
+        }
+    }
+
+    private void finish(Request<K> request, KeycodeBatch.Result result) {
+        List<Request<K>> toStart;
+        synchronized (this) {
+            encoding--;
+            if (terminated) {
+                return;
+            }
+            encoded.add(new Result<>(request, result));
+            Request<K> next = waitingByDevice.get(request.deviceId).poll();
+            if (next == null) {
+                waitingByDevice.remove(request.deviceId);
+            } else {
+                ready.add(next);
+            }
+            toStart = takeStartable();
+        }
+        start(toStart);
+        drain();
+    }
+
+    // Publish encoded results while there is demand; one thread publishes at a time
+    private void drain() {
+        synchronized (this) {
+            if (emitting) {
+                return;
+            }
+            emitting = true;
+        }
+        while (true) {
+            Flow.Subscriber<? super Result<K>> subscriber;
+            Result<K> next = null;
+            long replenish = 0;
+            boolean complete = false;
+            Throwable error = null;
+            Flow.Subscription subscription;
+            synchronized (this) {
+                subscriber = downstream;
+                subscription = upstream;
+                if (terminated || !subscribed) {
+                    emitting = false;
+                    return;
+                }
+                if (downstreamError != null) {
+                    clear();
+                    complete = true;
+                    error = downstreamError;
+                    emitting = false;
+                } else if (demand > 0 && !encoded.isEmpty()) {
+                    next = encoded.poll();
+                    demand--;
+                    if (++published >= replenishThreshold && !upstreamDone) {
+                        replenish = published;
+                        published = 0;
+                    }
+                } else if (upstreamDone && encoded.isEmpty() && waitingByDevice.isEmpty()) {
+                    terminated = true;
+                    complete = true;
+                    error = upstreamError;
+                    emitting = false;
+                } else {
+                    emitting = false;
+                    return;
+                }
+            }
+            if (complete) {
+                if (error == null) {
+                    subscriber.onComplete();
+                } else {
+                    subscriber.onError(error);
+                }
+                return;
+            }
+            subscriber.onNext(next);
+            if (replenish > 0) {
+                subscription.request(replenish);
+            }
+        }
+    }
+
+    // Stop for good, dropping everything held; guarded by this
+    private void clear() {
+        terminated = true;
+        waitingByDevice.clear();
+        ready.clear();
+        encoded.clear();
+    }
+
+    private final class Downstream implements Flow.Subscription {
+        @Override
+        public void request(long n) {
+            Flow.Subscription subscription;
+            synchronized (KeycodeProcessor.this) {
+                if (terminated) {
+                    return;
+                }
+                if (n > 0) {
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                    subscription = null;
+                } else {
+                    // Another thread may be in onNext, so leave onError to the emitting thread
+                    if (downstreamError == null) {
+                        downstreamError = new IllegalArgumentException(
+                                "non-positive request " + n);
+                    }
+                    subscription = upstream;
+                }
+            }
+            if (subscription != null) {
+                subscription.cancel();
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            Flow.Subscription subscription;
+            synchronized (KeycodeProcessor.this) {
+                if (terminated) {
+                    return;
+                }
+                clear();
+                subscription = upstream;
+            }
+            if (subscription != null) {
+                subscription.cancel();
+            }
+        }
+    }
+
+    /**
+     * A keycode to generate for a device; immutable.
+     */
+    public static final class Request<K> {
+        private final K deviceId;
+        private final KeycodeBatch.Request request;
+
+        /**
+         * @param deviceId identifies the device; requests with equal identifiers stay in order
+         * @param request  keycode to generate
+         */
+        public Request(K deviceId, KeycodeBatch.Request request) {
+            if (deviceId == null || request == null) {
+                throw new NullPointerException("deviceId and request are required");
+            }
+            this.deviceId = deviceId;
+            this.request = request;
+        }
+
+        public K getDeviceId() {
+            return deviceId;
+        }
+
+        public KeycodeBatch.Request getRequest() {
+            return request;
+        }
+    }
+
+    /**
+     * Outcome of one request: either its keycode metadata or the reason it failed.
+     */
+    public static final class Result<K> {
+        private final Request<K> request;
+        private final KeycodeBatch.Result result;
+
+        Result(Request<K> request, KeycodeBatch.Result result) {
+            this.request = request;
+            this.result = result;
+        }
+
+        public K getDeviceId() {
+            return request.deviceId;
+        }
+
+        public KeycodeBatch.Request getRequest() {
+            return request.request;
+        }
+
+        public boolean isSuccess() {
+            return result.isSuccess();
+        }
+
+        /**
+         * @return the generated keycode, or null if the request failed
+         */
+        public KeycodeMetadata getKeycodeMetadata() {
+            return result.getKeycodeMetadata();
+        }
+
+        /**
+         * @return why the request failed, or null if it succeeded
+         */
+        public Exception getError() {
+            return result.getError();
+        }
+    }
+}
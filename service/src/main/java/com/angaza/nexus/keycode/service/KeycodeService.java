@@ -0,0 +1,196 @@
+package com.angaza.nexus.keycode.service;
+
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+
+import com.angaza.nexus.keycode.DeviceKeycodeEncoder;
+import com.angaza.nexus.keycode.KeycodeFactory;
+import com.angaza.nexus.keycode.KeycodeMetadata;
+import com.angaza.nexus.keycode.exceptions.BaseException;
+
+/**
+ * Asynchronous keycode generation; thread-safe.
+ * <p>
+ * Every call returns at once with a {@link CompletableFuture}; the encoding runs on the
+ * service's executor, so request threads, e.g. of a payment webhook, never block on it. Keycodes
+ * for a device identifier are produced by one non-blocking chain: the {@link KeyLookup}
+ * resolves the device, the keycode is encoded on the executor, and the {@link KeycodeSink}
+ * persists it before the future completes. A failure at any step completes the future
+ * exceptionally with the original exception (e.g. an
+ * {@link com.angaza.nexus.keycode.exceptions.UnsupportedMessageIdException}) as its cause.
+ * <p>
+ * <pre>
+ *     {@code
+ *     KeycodeService<Long> service = new KeycodeService<>(
+ *             deviceId -> devices.findAsync(deviceId).thenApply(
+ *                     device -> new DeviceKeycodeEncoder(device.secretKey, device.protocol)),
+ *             (deviceId, metadata) -> keycodes.saveAsync(deviceId, metadata));
+ *     service.addCredit(deviceId, clampedTime, messageId, seconds)
+ *             .thenAccept(metadata -> sms.send(phone, metadata.getKeycodeData().getKeycode()));
+ *     }
+ * </pre>
+ *
+ * @param <K> device identifier type
+ */
+public class KeycodeService<K> implements AutoCloseable {
+    /**
+     * Resolves a device to an encoder holding its secret key and protocol, e.g. from a
+     * database or a {@link com.angaza.nexus.keycode.DeviceKeycodeEncoderCache}.
+     */
+    public interface KeyLookup<K> {
+        CompletionStage<DeviceKeycodeEncoder> lookup(K deviceId);
+    }
+
+    /**
+     * Persists a generated keycode, e.g. recording the message ID and new disabled time.
+     */
+    public interface KeycodeSink<K> {
+        CompletionStage<Void> persist(K deviceId, KeycodeMetadata metadata);
+    }
+
+    // Encoding step of a chain; may throw the library's checked exceptions
+    private interface Encoding<T> {
+        KeycodeMetadata encode(T input) throws IOException, BaseException;
+    }
+
+    private final KeyLookup<K> keyLookup;
+    private final KeycodeSink<K> sink;
+    private final Executor executor;
+    private final boolean ownsExecutor;
+
+    /**
+     * Service for {@link KeycodeFactory}-style calls only, on a new
+     * {@link KeycodeExecutors#newDefaultExecutor() default executor}.
+     */
+    public KeycodeService() {
+        this(null, null);
+    }
+
+    /**
+     * @param keyLookup resolves device identifiers, or null for {@link KeycodeFactory}-style
+     *                  calls only
+     * @param sink      persists keycodes generated for device identifiers, or null for none
+     */
+    public KeycodeService(KeyLookup<K> keyLookup, KeycodeSink<K> sink) {
+        this(keyLookup, sink, KeycodeExecutors.newDefaultExecutor(), true);
+    }
+
+    /**
+     * @param keyLookup resolves device identifiers, or null for {@link KeycodeFactory}-style
+     *                  calls only
+     * @param sink      persists keycodes generated for device identifiers, or null for none
+     * @param executor  runs the encoding; not shut down by {@link #close()}
+     */
+    public KeycodeService(KeyLookup<K> keyLookup, KeycodeSink<K> sink, Executor executor) {
+        this(keyLookup, sink, executor, false);
+    }
+
+    private KeycodeService(
+            KeyLookup<K> keyLookup, KeycodeSink<K> sink, Executor executor, boolean ownsExecutor) {
+        if (executor == null) {
+            throw new NullPointerException("executor");
+        }
+        this.keyLookup = keyLookup;
+        this.sink = sink;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    /**
+     * @return executor the encoding runs on
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * @see KeycodeFactory#addCredit(Date, int, byte[], String, long)
+     */
+    public CompletableFuture<KeycodeMetadata> addCredit(
+            Date clampedTime, int messageId, byte[] secretKey, String keycodeProtocol,
+            long seconds) {
+        return CompletableFuture.supplyAsync(() -> encode(
+                ignored -> KeycodeFactory.addCredit(
+                        clampedTime, messageId, secretKey, keycodeProtocol, seconds),
+                null), executor);
+    }
+
+    /**
+     * @see KeycodeFactory#unlock(int, byte[], String)
+     */
+    public CompletableFuture<KeycodeMetadata> unlock(
+            int messageId, byte[] secretKey, String keycodeProtocol) {
+        return CompletableFuture.supplyAsync(() -> encode(
+                ignored -> KeycodeFactory.unlock(messageId, secretKey, keycodeProtocol),
+                null), executor);
+    }
+
+    /**
+     * Look up a device, add credit and persist the keycode.
+     *
+     * @see DeviceKeycodeEncoder#addCredit(Date, int, long)
+     */
+    public CompletableFuture<KeycodeMetadata> addCredit(
+            K deviceId, Date clampedTime, int messageId, long seconds) {
+        return forDevice(
+                deviceId, encoder -> encoder.addCredit(clampedTime, messageId, seconds));
+    }
+
+    /**
+     * Look up a device, set its credit and persist the keycode.
+     *
+     * @see DeviceKeycodeEncoder#setCredit(Date, int, long)
+     */
+    public CompletableFuture<KeycodeMetadata> setCredit(
+            K deviceId, Date now, int messageId, long seconds) {
+        return forDevice(deviceId, encoder -> encoder.setCredit(now, messageId, seconds));
+    }
+
+    /**
+     * Look up a device, unlock it and persist the keycode.
+     *
+     * @see DeviceKeycodeEncoder#unlock(int)
+     */
+    public CompletableFuture<KeycodeMetadata> unlock(K deviceId, int messageId) {
+        return forDevice(deviceId, encoder -> encoder.unlock(messageId));
+    }
+
+    private CompletableFuture<KeycodeMetadata> forDevice(
+            K deviceId, Encoding<DeviceKeycodeEncoder> encoding) {
+        if (keyLookup == null) {
+            throw new IllegalStateException("no key lookup configured");
+        }
+        CompletableFuture<KeycodeMetadata> encoded = keyLookup.lookup(deviceId)
+                .toCompletableFuture()
+                .thenApplyAsync(encoder -> encode(encoding, encoder), executor);
+        if (sink == null) {
+            return encoded;
+        }
+        return encoded.thenCompose(
+                metadata -> sink.persist(deviceId, metadata).thenApply(ignored -> metadata));
+    }
+
+    private static <T> KeycodeMetadata encode(Encoding<T> encoding, T input) {
+        try {
+            return encoding.encode(input);
+        } catch (IOException | BaseException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * Shut down the executor if the service created it; pending work still completes.
+     */
+    @Override
+    public void close() {
+        if (ownsExecutor) {
+            ((ExecutorService) executor).shutdown();
+        }
+    }
+}
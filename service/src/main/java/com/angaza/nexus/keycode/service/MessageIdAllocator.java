@@ -0,0 +1,371 @@
+package com.angaza.nexus.keycode.service;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.zip.CRC32;
+
+import com.angaza.nexus.keycode.exceptions.UnsupportedMessageIdException;
+
+/**
+ * Hands out increasing message IDs per device, durably; thread-safe.
+ * <p>
+ * Devices are indexed by a dense ordinal, as in a
+ * {@link com.angaza.nexus.keycode.SecretKeyStore}. The next ID of every device lives in one
+ * counter table and is claimed with a compare-and-set, so devices never contend on a lock for
+ * their counters. Each claim is then queued for a write-ahead log (a blocking queue, whose
+ * brief lock is the only one an allocation takes); a single writer thread gathers whatever
+ * claims are waiting, writes them together and syncs the file once, so under load many
+ * allocations share one fsync. The future returned by {@link #allocate(int)} completes only
+ * once its claim is on disk, so an ID must not be used before then.
+ * <p>
+ * Opening an existing log recovers every device's next ID and rewrites the log compactly. A
+ * crash can leave garbage anywhere in the last, unsynced write, so that write is discarded as a
+ * whole; damage to any earlier write is reported as corruption. IDs whose claims were never
+ * synced were never handed out, so recovery may skip IDs but never reissues one.
+ * <p>
+ * Log layout, little-endian: the header "NXID", version and device count as ints, then one
+ * batch per write. A batch is its record count and a CRC-32 of the count and records, followed
+ * by 8-byte records of device ordinal and message ID.
+ */
+public final class MessageIdAllocator implements AutoCloseable {
+    /**
+     * Highest message ID the keycode protocols accept.
+     */
+    public static final int MAX_MESSAGE_ID = 65534;
+
+    private static final byte[] MAGIC = {'N', 'X', 'I', 'D'};
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 12;
+    private static final int BATCH_HEADER_BYTES = 8;
+    private static final int RECORD_BYTES = 8;
+    private static final int MAX_RECORDS_PER_WRITE = 4096;
+    private static final int MAX_BATCH_BYTES =
+            BATCH_HEADER_BYTES + MAX_RECORDS_PER_WRITE * RECORD_BYTES;
+
+    private final AtomicIntegerArray nextIds;
+    private final FileChannel log;
+    private final BlockingQueue<Claim> claims = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private final AtomicInteger allocating = new AtomicInteger();
+    private volatile boolean running = true;
+    private volatile IOException failure;
+
+    private MessageIdAllocator(AtomicIntegerArray nextIds, FileChannel log) {
+        this.nextIds = nextIds;
+        this.log = log;
+        this.writer = new Thread(this::writeClaims, "nexus-message-id-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Open an allocator, creating its log or recovering from an existing one.
+     *
+     * @param logFile     write-ahead log
+     * @param deviceCount number of devices; must match an existing log
+     * @return the allocator
+     * @throws IOException when the log cannot be read or written, or is corrupt
+     */
+    public static MessageIdAllocator open(File logFile, int deviceCount) throws IOException {
+        if (deviceCount < 1) {
+            throw new IllegalArgumentException("invalid device count");
+        }
+        AtomicIntegerArray nextIds = new AtomicIntegerArray(deviceCount);
+        if (logFile.exists()) {
+            recover(logFile, nextIds);
+        }
+        // Write the recovered state as a fresh log, replacing the old one atomically
+        File compacted = new File(logFile.getPath() + ".tmp");
+        try (FileChannel out = FileChannel.open(compacted.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = newBuffer(HEADER_BYTES + MAX_BATCH_BYTES);
+            buffer.put(MAGIC).putInt(VERSION).putInt(deviceCount);
+            int batchStart = -1;
+            for (int device = 0; device < deviceCount; device++) {
+                if (nextIds.get(device) == 0) {
+                    continue;
+                }
+                if (batchStart < 0) {
+                    batchStart = startBatch(buffer);
+                }
+                putRecord(buffer, device, nextIds.get(device) - 1);
+                if (recordCount(buffer, batchStart) == MAX_RECORDS_PER_WRITE) {
+                    endBatch(buffer, batchStart);
+                    writeFully(out, buffer);
+                    batchStart = -1;
+                }
+            }
+            if (batchStart >= 0) {
+                endBatch(buffer, batchStart);
+            }
+            writeFully(out, buffer);
+            out.force(true);
+        }
+        Files.move(compacted.toPath(), logFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // The rename is only durable once the directory is synced; do so before any ID is
+        // claimed against the new log, or a crash could bring back the old one
+        syncDirectory(logFile.getAbsoluteFile().getParentFile());
+        FileChannel log = FileChannel.open(logFile.toPath(), StandardOpenOption.WRITE);
+        log.position(log.size());
+        return new MessageIdAllocator(nextIds, log);
+    }
+
+    private static void syncDirectory(File directory) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ);
+        } catch (IOException e) {
+            // Windows cannot open a directory as a channel, so there is nothing to sync; NTFS
+            // journals the rename itself
+            return;
+        }
+        try (FileChannel dir = channel) {
+            dir.force(true);
+        }
+    }
+
+    private static void recover(File logFile, AtomicIntegerArray nextIds) throws IOException {
+        byte[] bytes = Files.readAllBytes(logFile.toPath());
+        ByteBuffer data = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        if (bytes.length < HEADER_BYTES) {
+            throw new IOException("not a message ID log: " + logFile);
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (data.get(i) != MAGIC[i]) {
+                throw new IOException("not a message ID log: " + logFile);
+            }
+        }
+        if (data.getInt(4) != VERSION) {
+            throw new IOException("unsupported message ID log version " + data.getInt(4));
+        }
+        if (data.getInt(8) != nextIds.length()) {
+            throw new IOException("message ID log is for " + data.getInt(8) + " devices");
+        }
+        CRC32 crc = new CRC32();
+        int offset = HEADER_BYTES;
+        while (offset < bytes.length) {
+            int count = offset + BATCH_HEADER_BYTES <= bytes.length ? data.getInt(offset) : 0;
+            int end = offset + BATCH_HEADER_BYTES + count * RECORD_BYTES;
+            boolean plausible = count > 0 && count <= MAX_RECORDS_PER_WRITE;
+            boolean complete = plausible && end <= bytes.length;
+            if (complete) {
+                crc.reset();
+                crc.update(bytes, offset, 4);
+                crc.update(bytes, offset + BATCH_HEADER_BYTES, end - offset - BATCH_HEADER_BYTES);
+                complete = (int) crc.getValue() == data.getInt(offset + 4);
+            }
+            if (!complete) {
+                // Only the last write can be torn: anything after a whole but damaged batch,
+                // or more than one write's worth of bytes, means a synced batch was damaged
+                if ((plausible && end < bytes.length)
+                        || bytes.length - offset > MAX_BATCH_BYTES) {
+                    throw new IOException("corrupt message ID log batch at " + offset);
+                }
+                break;
+            }
+            for (int record = offset + BATCH_HEADER_BYTES; record < end;
+                    record += RECORD_BYTES) {
+                int device = data.getInt(record);
+                int messageId = data.getInt(record + 4);
+                if (device < 0 || device >= nextIds.length() || messageId < 0
+                        || messageId > MAX_MESSAGE_ID) {
+                    throw new IOException("invalid message ID log record at " + record);
+                }
+                if (messageId >= nextIds.get(device)) {
+                    nextIds.set(device, messageId + 1);
+                }
+            }
+            offset = end;
+        }
+    }
+
+    /**
+     * @return number of devices
+     */
+    public int getDeviceCount() {
+        return nextIds.length();
+    }
+
+    /**
+     * @param device device ordinal
+     * @return the ID {@link #allocate(int)} would hand out next; may exceed
+     *         {@link #MAX_MESSAGE_ID} once the device's IDs are exhausted
+     */
+    public int peekNextId(int device) {
+        return nextIds.get(device);
+    }
+
+    /**
+     * Claim the device's next message ID.
+     *
+     * @param device device ordinal
+     * @return the ID once its claim is durable; fails with
+     *         {@link UnsupportedMessageIdException} once all IDs are used, or with an
+     *         {@link IOException} when the log cannot be written
+     */
+    public CompletableFuture<Integer> allocate(int device) {
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        allocating.incrementAndGet();
+        try {
+            if (!running || failure != null) {
+                result.completeExceptionally(failure != null
+                        ? failure : new IOException("message ID allocator closed"));
+                return result;
+            }
+            int messageId;
+            do {
+                messageId = nextIds.get(device);
+                if (messageId > MAX_MESSAGE_ID) {
+                    result.completeExceptionally(new UnsupportedMessageIdException(
+                            "no message IDs left for device " + device));
+                    return result;
+                }
+            } while (!nextIds.compareAndSet(device, messageId, messageId + 1));
+            claims.add(new Claim(device, messageId, result));
+            return result;
+        } finally {
+            allocating.decrementAndGet();
+        }
+    }
+
+    private void writeClaims() {
+        List<Claim> batch = new ArrayList<>(MAX_RECORDS_PER_WRITE);
+        ByteBuffer buffer = newBuffer(MAX_BATCH_BYTES);
+        while (running || !claims.isEmpty()) {
+            try {
+                Claim first = claims.take();
+                if (first == Claim.CLOSE) {
+                    continue;
+                }
+                batch.add(first);
+            } catch (InterruptedException e) {
+                continue;
+            }
+            claims.drainTo(batch, MAX_RECORDS_PER_WRITE - 1);
+            buffer.clear();
+            int batchStart = startBatch(buffer);
+            for (Claim claim : batch) {
+                if (claim != Claim.CLOSE) {
+                    putRecord(buffer, claim.device, claim.messageId);
+                }
+            }
+            endBatch(buffer, batchStart);
+            try {
+                if (failure != null) {
+                    throw failure;
+                }
+                writeFully(log, buffer);
+                log.force(false);
+                for (Claim claim : batch) {
+                    if (claim != Claim.CLOSE) {
+                        claim.result.complete(claim.messageId);
+                    }
+                }
+            } catch (IOException e) {
+                // The log's state is unknown; refuse all further allocations
+                failure = e;
+                for (Claim claim : batch) {
+                    if (claim != Claim.CLOSE) {
+                        claim.result.completeExceptionally(e);
+                    }
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Stop allocating, wait for pending claims to be synced and close the log.
+     *
+     * @throws IOException when the log cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        // Let allocations that passed the running check queue their claims
+        while (allocating.get() > 0) {
+            Thread.yield();
+        }
+        claims.add(Claim.CLOSE);
+        boolean interrupted = false;
+        while (true) {
+            try {
+                writer.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        log.close();
+    }
+
+    private static ByteBuffer newBuffer(int capacity) {
+        return ByteBuffer.allocateDirect(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    // Leave room for a batch header; returns where the batch starts
+    private static int startBatch(ByteBuffer buffer) {
+        int start = buffer.position();
+        buffer.position(start + BATCH_HEADER_BYTES);
+        return start;
+    }
+
+    private static int recordCount(ByteBuffer buffer, int batchStart) {
+        return (buffer.position() - batchStart - BATCH_HEADER_BYTES) / RECORD_BYTES;
+    }
+
+    // Fill in the header of the batch of records put since startBatch
+    private static void endBatch(ByteBuffer buffer, int batchStart) {
+        int recordsStart = batchStart + BATCH_HEADER_BYTES;
+        buffer.putInt(batchStart, recordCount(buffer, batchStart));
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate().position(batchStart).limit(batchStart + 4));
+        crc.update(buffer.duplicate().position(recordsStart).limit(buffer.position()));
+        buffer.putInt(batchStart + 4, (int) crc.getValue());
+    }
+
+    private static void putRecord(ByteBuffer buffer, int device, int messageId) {
+        buffer.putInt(device).putInt(messageId);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static final class Claim {
+        // Wakes the writer when closing
+        static final Claim CLOSE = new Claim(-1, -1, null);
+
+        final int device;
+        final int messageId;
+        final CompletableFuture<Integer> result;
+
+        Claim(int device, int messageId, CompletableFuture<Integer> result) {
+            this.device = device;
+            this.messageId = messageId;
+            this.result = result;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.angaza.nexus.keycode.service;
+
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class JsonTest {
+    @Test
+    public void testParseFlatObject_values() {
+        Map<String, Object> fields = Json.parseFlatObject(
+                " { \"a\" : \"x\\\"y\\u0041\\n\", \"b\": -12, \"c\": true, \"d\": null } ");
+        assertEquals("x\"yA\n", fields.get("a"));
+        assertEquals(-12L, fields.get("b"));
+        assertEquals(Boolean.TRUE, fields.get("c"));
+        assertTrue(fields.containsKey("d"));
+        assertNull(fields.get("d"));
+        assertTrue(Json.parseFlatObject("{}").isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseFlatObject_nestedRejected() {
+        Json.parseFlatObject("{\"a\": {\"b\": 1}}");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseFlatObject_fractionRejected() {
+        Json.parseFlatObject("{\"a\": 1.5}");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseFlatObject_trailingContentRejected() {
+        Json.parseFlatObject("{\"a\": 1} x");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseFlatObject_unterminatedRejected() {
+        Json.parseFlatObject("{\"a\": \"b");
+    }
+
+    @Test
+    public void testAppendString_escapes() {
+        assertEquals("\"a\\\"b\\\\c\\n\\u0001\"",
+                Json.appendString(new StringBuilder(), "a\"b\\c\n\u0001").toString());
+    }
+}
@@ -0,0 +1,82 @@
+package com.angaza.nexus.keycode.service;
+
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class KeycodeExecutorsTest {
+    private static boolean hasVirtualThreads() {
+        return Runtime.version().feature() >= 21;
+    }
+
+    @Test
+    public void testVirtualThreadExecutor_onlyOnJava21() {
+        ExecutorService virtual = KeycodeExecutors.newVirtualThreadExecutor();
+        if (hasVirtualThreads()) {
+            assertNotNull(virtual);
+            virtual.shutdown();
+        } else {
+            assertNull(virtual);
+        }
+    }
+
+    @Test
+    public void testDefaultExecutor_runsTasks() throws Exception {
+        ExecutorService executor = KeycodeExecutors.newDefaultExecutor();
+        CountDownLatch done = new CountDownLatch(100);
+        for (int i = 0; i < 100; i++) {
+            executor.execute(done::countDown);
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+    }
+
+    @Test
+    public void testHandoffExecutor_neverRunsOnCaller() throws Exception {
+        ExecutorService executor = KeycodeExecutors.newHandoffExecutor();
+        int tasks = 10000;
+        CountDownLatch done = new CountDownLatch(tasks);
+        Thread caller = Thread.currentThread();
+        boolean[] ranOnCaller = new boolean[1];
+        for (int i = 0; i < tasks; i++) {
+            executor.execute(() -> {
+                if (Thread.currentThread() == caller) {
+                    ranOnCaller[0] = true;
+                }
+                done.countDown();
+            });
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertFalse(ranOnCaller[0]);
+        executor.shutdown();
+    }
+
+    @Test
+    public void testBoundedExecutor_fullQueueRunsOnCaller() throws Exception {
+        ExecutorService executor = KeycodeExecutors.newBoundedExecutor(1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        executor.execute(() -> { });
+        Thread[] ranOn = new Thread[1];
+        executor.execute(() -> ranOn[0] = Thread.currentThread());
+        assertEquals(Thread.currentThread(), ranOn[0]);
+        release.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,132 @@
+package com.angaza.nexus.keycode.service;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.angaza.nexus.keycode.KeycodeFactory;
+import com.angaza.nexus.keycode.KeycodeMetadata;
+import com.angaza.nexus.keycode.KeycodeProtocol;
+import com.angaza.nexus.keycode.util.HexToByteArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class KeycodeHttpServerTest {
+    private static final String SECRET_KEY = "abababababababababababababababab";
+    private static final long NOW = 1581552000000L;
+
+    private KeycodeHttpServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new KeycodeHttpServer(
+                new InetSocketAddress("127.0.0.1", 0), 32, 2, TimeUnit.MILLISECONDS);
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    private Object[] post(String body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(
+                "http://127.0.0.1:" + server.getPort() + KeycodeHttpServer.PATH)
+                .openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        int status = connection.getResponseCode();
+        InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        in.transferTo(response);
+        in.close();
+        return new Object[]{status, response.toString(StandardCharsets.UTF_8)};
+    }
+
+    private static String addCredit(int messageId, String protocol) {
+        return "{\"type\": \"ADD\", \"messageId\": " + messageId
+                + ", \"secretKey\": \"" + SECRET_KEY + "\", \"keycodeProtocol\": \"" + protocol
+                + "\", \"seconds\": 86400, \"clampedTime\": " + NOW + "}";
+    }
+
+    @Test
+    public void testAddCredit_returnsMetadata() throws Exception {
+        Object[] response = post(addCredit(42, "FULL"));
+        assertEquals(200, response[0]);
+
+        KeycodeMetadata expected = KeycodeFactory.addCredit(
+                new Date(NOW), 42, new HexToByteArray().convert(SECRET_KEY),
+                KeycodeProtocol.FULL, 86400);
+        Map<String, Object> fields = Json.parseFlatObject((String) response[1]);
+        assertEquals("ADD", fields.get("type"));
+        assertEquals(expected.getKeycodeData().getKeycode(), fields.get("keycode"));
+        assertEquals(42L, fields.get("messageId"));
+        assertEquals(86400L, fields.get("seconds"));
+        assertEquals(expected.getNewDisabledWhen().getTime(), fields.get("newDisabledWhen"));
+    }
+
+    @Test
+    public void testUnlock_returnsMetadata() throws Exception {
+        Object[] response = post("{\"type\": \"UNLOCK\", \"messageId\": 3, \"secretKey\": \""
+                + SECRET_KEY + "\", \"keycodeProtocol\": \"SMALL\"}");
+        assertEquals(200, response[0]);
+        Map<String, Object> fields = Json.parseFlatObject((String) response[1]);
+        assertEquals(
+                KeycodeFactory.unlock(3, new HexToByteArray().convert(SECRET_KEY),
+                        KeycodeProtocol.SMALL).getKeycodeData().getKeycode(),
+                fields.get("keycode"));
+        assertEquals(null, fields.get("newDisabledWhen"));
+    }
+
+    @Test
+    public void testConcurrentRequests_allAnswered() throws Exception {
+        ExecutorService clients = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<Object[]>> responses = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                final int messageId = i;
+                responses.add(clients.submit(() -> post(addCredit(messageId, "SMALL"))));
+            }
+            for (int i = 0; i < 200; i++) {
+                Object[] response = responses.get(i).get(30, TimeUnit.SECONDS);
+                assertEquals(200, response[0]);
+                assertEquals((long) i,
+                        Json.parseFlatObject((String) response[1]).get("messageId"));
+            }
+        } finally {
+            clients.shutdown();
+        }
+    }
+
+    @Test
+    public void testErrors_statusCodes() throws Exception {
+        Object[] malformed = post("{\"type\": \"ADD\"");
+        assertEquals(400, malformed[0]);
+        assertTrue(((String) malformed[1]).contains("error"));
+
+        assertEquals(400, post(addCredit(1, "FULL").replace(SECRET_KEY, "abab"))[0]);
+        assertEquals(422, post(addCredit(1, "TINY"))[0]);
+        assertEquals(422, post(addCredit(70000, "FULL"))[0]);
+    }
+}
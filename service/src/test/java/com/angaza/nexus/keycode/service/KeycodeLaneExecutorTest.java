@@ -0,0 +1,151 @@
+package com.angaza.nexus.keycode.service;
+
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.angaza.nexus.keycode.DeviceKeycodeEncoder;
+import com.angaza.nexus.keycode.KeycodeBatch;
+import com.angaza.nexus.keycode.KeycodeFactory;
+import com.angaza.nexus.keycode.KeycodeProtocol;
+import com.angaza.nexus.keycode.exceptions.UnsupportedMessageIdException;
+import com.angaza.nexus.keycode.util.HexToByteArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class KeycodeLaneExecutorTest {
+    private static final byte[] SECRET_KEY =
+            new HexToByteArray().convert("abababababababababababababababab");
+    private static final Date NOW = new Date(1581552000000L);
+
+    @Test
+    public void testSubmit_inOrderPerDevice() throws Exception {
+        final int devices = 50;
+        final int perDevice = 200;
+        final List<List<Integer>> seen = new ArrayList<>();
+        for (int i = 0; i < devices; i++) {
+            seen.add(new ArrayList<Integer>());
+        }
+        List<Thread> producers = new ArrayList<>();
+        try (KeycodeLaneExecutor<Integer> lanes = new KeycodeLaneExecutor<>(4, 16)) {
+            // Two producers per device, each submitting alternate message IDs in order
+            for (int p = 0; p < 2; p++) {
+                final int parity = p;
+                Thread producer = new Thread(() -> {
+                    for (int messageId = parity; messageId < perDevice; messageId += 2) {
+                        for (int device = 0; device < devices; device++) {
+                            final List<Integer> deviceSeen = seen.get(device);
+                            final int id = messageId;
+                            lanes.submit(device, () -> deviceSeen.add(id));
+                        }
+                    }
+                });
+                producers.add(producer);
+                producer.start();
+            }
+            for (Thread producer : producers) {
+                producer.join();
+            }
+        }
+        for (List<Integer> deviceSeen : seen) {
+            assertEquals(perDevice, deviceSeen.size());
+            int lastEven = -2;
+            int lastOdd = -1;
+            for (int id : deviceSeen) {
+                if (id % 2 == 0) {
+                    assertEquals(lastEven + 2, id);
+                    lastEven = id;
+                } else {
+                    assertEquals(lastOdd + 2, id);
+                    lastOdd = id;
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSubmit_encodesKeycodes() throws Exception {
+        try (KeycodeLaneExecutor<Long> lanes = new KeycodeLaneExecutor<>()) {
+            final DeviceKeycodeEncoder encoder =
+                    new DeviceKeycodeEncoder(SECRET_KEY, KeycodeProtocol.FULL);
+            assertEquals(
+                    KeycodeFactory.addCredit(NOW, 5, SECRET_KEY, KeycodeProtocol.FULL, 3600)
+                            .getKeycodeData().getKeycode(),
+                    lanes.submit(1L, () -> encoder.addCredit(NOW, 5, 3600)).get()
+                            .getKeycodeData().getKeycode());
+            KeycodeBatch.Result result = lanes.submit(
+                    2L, KeycodeBatch.Request.unlock(6, SECRET_KEY, KeycodeProtocol.SMALL)).get();
+            assertEquals(
+                    KeycodeFactory.unlock(6, SECRET_KEY, KeycodeProtocol.SMALL)
+                            .getKeycodeData().getKeycode(),
+                    result.getKeycodeMetadata().getKeycodeData().getKeycode());
+
+            try {
+                lanes.submit(1L, () -> encoder.unlock(70000)).get();
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof UnsupportedMessageIdException);
+            }
+        }
+    }
+
+    @Test
+    public void testSubmit_fullLaneWaitsForRoom() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        try (KeycodeLaneExecutor<Integer> lanes = new KeycodeLaneExecutor<>(1, 2)) {
+            lanes.submit(0, () -> release.await(10, TimeUnit.SECONDS));
+            Thread.sleep(100);
+            lanes.submit(0, () -> 1);
+            lanes.submit(0, () -> 2);
+            final CompletableFuture<CompletableFuture<Integer>> blocked =
+                    CompletableFuture.supplyAsync(() -> lanes.submit(0, () -> 3));
+            Thread.sleep(100);
+            assertTrue(!blocked.isDone());
+            release.countDown();
+            assertEquals(Integer.valueOf(3), blocked.get(10, TimeUnit.SECONDS).get());
+        }
+    }
+
+    @Test
+    public void testClose_runsQueuedThenRejects() throws Exception {
+        KeycodeLaneExecutor<Integer> lanes = new KeycodeLaneExecutor<>(2, 64);
+        List<CompletableFuture<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            final int value = i;
+            results.add(lanes.submit(i, () -> value));
+        }
+        lanes.close();
+        for (int i = 0; i < 50; i++) {
+            assertTrue(results.get(i).isDone());
+            assertEquals(Integer.valueOf(i), results.get(i).get());
+        }
+        try {
+            lanes.submit(1, () -> 1);
+            fail();
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testLaneOf_stablePerDevice() {
+        try (KeycodeLaneExecutor<String> lanes = new KeycodeLaneExecutor<>(8, 4)) {
+            assertEquals(8, lanes.getLaneCount());
+            for (int i = 0; i < 100; i++) {
+                int lane = lanes.laneOf("device-" + i);
+                assertTrue(lane >= 0 && lane < 8);
+                assertEquals(lane, lanes.laneOf("device-" + i));
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.angaza.nexus.keycode.service;
+
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.angaza.nexus.keycode.KeycodeBatch;
+import com.angaza.nexus.keycode.KeycodeFactory;
+import com.angaza.nexus.keycode.KeycodeProtocol;
+import com.angaza.nexus.keycode.util.HexToByteArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class KeycodeMicroBatcherTest {
+    private static final byte[] SECRET_KEY =
+            new HexToByteArray().convert("abababababababababababababababab");
+    private static final Date NOW = new Date(1581552000000L);
+
+    @Test
+    public void testSubmit_resultsMatchFactory() throws Exception {
+        KeycodeMicroBatcher batcher = new KeycodeMicroBatcher(
+                new KeycodeBatch(ForkJoinPool.commonPool()), 16, 1, TimeUnit.MILLISECONDS, 1024);
+        try {
+            List<CompletableFuture<KeycodeBatch.Result>> results = new ArrayList<>();
+            for (int messageId = 0; messageId < 500; messageId++) {
+                results.add(batcher.submit(KeycodeBatch.Request.addCredit(
+                        NOW, messageId, SECRET_KEY, KeycodeProtocol.SMALL, 86400)));
+            }
+            for (int messageId = 0; messageId < 500; messageId++) {
+                KeycodeBatch.Result result = results.get(messageId).get(10, TimeUnit.SECONDS);
+                assertTrue(result.isSuccess());
+                assertEquals(
+                        KeycodeFactory.addCredit(
+                                NOW, messageId, SECRET_KEY, KeycodeProtocol.SMALL, 86400)
+                                .getKeycodeData().getKeycode(),
+                        result.getKeycodeMetadata().getKeycodeData().getKeycode());
+            }
+        } finally {
+            batcher.close();
+        }
+    }
+
+    @Test
+    public void testSubmit_failedRequestDoesNotFailBatch() throws Exception {
+        KeycodeMicroBatcher batcher = new KeycodeMicroBatcher(
+                new KeycodeBatch(ForkJoinPool.commonPool()), 8, 0, TimeUnit.MILLISECONDS, 16);
+        try {
+            CompletableFuture<KeycodeBatch.Result> bad =
+                    batcher.submit(KeycodeBatch.Request.unlock(1, SECRET_KEY, "TINY"));
+            CompletableFuture<KeycodeBatch.Result> good =
+                    batcher.submit(KeycodeBatch.Request.unlock(1, SECRET_KEY, "FULL"));
+            assertFalse(bad.get(10, TimeUnit.SECONDS).isSuccess());
+            assertTrue(good.get(10, TimeUnit.SECONDS).isSuccess());
+        } finally {
+            batcher.close();
+        }
+    }
+
+    @Test
+    public void testClose_encodesQueuedThenRejects() throws Exception {
+        KeycodeMicroBatcher batcher = new KeycodeMicroBatcher(
+                new KeycodeBatch(ForkJoinPool.commonPool()), 4, 0, TimeUnit.MILLISECONDS, 64);
+        List<CompletableFuture<KeycodeBatch.Result>> queued = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            queued.add(batcher.submit(KeycodeBatch.Request.unlock(i, SECRET_KEY, "SMALL")));
+        }
+        batcher.close();
+        for (CompletableFuture<KeycodeBatch.Result> result : queued) {
+            assertTrue(result.isDone());
+        }
+        try {
+            batcher.submit(KeycodeBatch.Request.unlock(1, SECRET_KEY, "SMALL")).get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructor_invalidLimitsRejected() {
+        new KeycodeMicroBatcher(
+                new KeycodeBatch(ForkJoinPool.commonPool()), 0, 1, TimeUnit.MILLISECONDS, 16);
+    }
+}
@@ -0,0 +1,307 @@
+package com.angaza.nexus.keycode.service;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.angaza.nexus.keycode.KeycodeBatch;
+import com.angaza.nexus.keycode.KeycodeFactory;
+import com.angaza.nexus.keycode.KeycodeProtocol;
+import com.angaza.nexus.keycode.util.HexToByteArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class KeycodeProcessorTest {
+    private static final byte[] SECRET_KEY =
+            new HexToByteArray().convert("abababababababababababababababab");
+    private static final Date NOW = new Date(1581552000000L);
+
+    // Records results, requesting a fixed number at a time
+    private static class Collector<K> implements Flow.Subscriber<KeycodeProcessor.Result<K>> {
+        final List<KeycodeProcessor.Result<K>> results =
+                Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch done = new CountDownLatch(1);
+        final long batch;
+        volatile Flow.Subscription subscription;
+        volatile Throwable error;
+
+        Collector(long batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (batch > 0) {
+                subscription.request(batch);
+            }
+        }
+
+        @Override
+        public void onNext(KeycodeProcessor.Result<K> result) {
+            results.add(result);
+            if (batch > 0 && results.size() % batch == 0) {
+                subscription.request(batch);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            done.countDown();
+        }
+    }
+
+    // Upstream that only counts what the processor requests
+    private static final class CountingSubscription implements Flow.Subscription {
+        final AtomicLong requested = new AtomicLong();
+        volatile boolean canceled;
+
+        @Override
+        public void request(long n) {
+            requested.addAndGet(n);
+        }
+
+        @Override
+        public void cancel() {
+            canceled = true;
+        }
+    }
+
+    private static KeycodeProcessor.Request<Integer> addCredit(int deviceId, int messageId) {
+        return new KeycodeProcessor.Request<>(deviceId, KeycodeBatch.Request.addCredit(
+                NOW, messageId, SECRET_KEY, KeycodeProtocol.SMALL, 3600));
+    }
+
+    @Test
+    public void testStream_encodesInOrderPerDevice() throws Exception {
+        KeycodeProcessor<Integer> processor = new KeycodeProcessor<>(4, 32);
+        Collector<Integer> collector = new Collector<>(7);
+        processor.subscribe(collector);
+        try (SubmissionPublisher<KeycodeProcessor.Request<Integer>> publisher =
+                     new SubmissionPublisher<>()) {
+            publisher.subscribe(processor);
+            for (int messageId = 0; messageId < 100; messageId++) {
+                for (int deviceId = 0; deviceId < 10; deviceId++) {
+                    publisher.submit(addCredit(deviceId, messageId));
+                }
+            }
+        }
+        assertTrue(collector.done.await(30, TimeUnit.SECONDS));
+        assertNull(collector.error);
+        assertEquals(1000, collector.results.size());
+
+        Map<Integer, Integer> lastMessageIds = new HashMap<>();
+        for (KeycodeProcessor.Result<Integer> result : collector.results) {
+            assertTrue(result.isSuccess());
+            int messageId = result.getRequest().getMessageId();
+            Integer last = lastMessageIds.put(result.getDeviceId(), messageId);
+            assertEquals(last == null ? 0 : last + 1, messageId);
+            assertEquals(
+                    KeycodeFactory.addCredit(
+                            NOW, messageId, SECRET_KEY, KeycodeProtocol.SMALL, 3600)
+                            .getKeycodeData().getKeycode(),
+                    result.getKeycodeMetadata().getKeycodeData().getKeycode());
+        }
+        assertEquals(10, lastMessageIds.size());
+    }
+
+    @Test
+    public void testBackpressure_upstreamDemandBoundedByBuffer() throws Exception {
+        KeycodeProcessor<Integer> processor = new KeycodeProcessor<>(2, 8);
+        Collector<Integer> collector = new Collector<>(0);
+        processor.subscribe(collector);
+        CountingSubscription upstream = new CountingSubscription();
+        processor.onSubscribe(upstream);
+        assertEquals(8, upstream.requested.get());
+
+        for (int i = 0; i < 8; i++) {
+            processor.onNext(addCredit(i, 0));
+        }
+        Thread.sleep(200);
+        assertTrue(collector.results.isEmpty());
+        assertEquals(8, upstream.requested.get());
+
+        // Publishing half the buffer frees room for that many more requests
+        collector.subscription.request(4);
+        assertEquals(4, collector.results.size());
+        assertEquals(12, upstream.requested.get());
+
+        processor.onComplete();
+        collector.subscription.request(Long.MAX_VALUE);
+        assertTrue(collector.done.await(10, TimeUnit.SECONDS));
+        assertEquals(8, collector.results.size());
+        assertEquals(12, upstream.requested.get());
+    }
+
+    @Test
+    public void testFailedRequest_publishedWithoutEndingStream() throws Exception {
+        KeycodeProcessor<String> processor = new KeycodeProcessor<>(2, 4);
+        Collector<String> collector = new Collector<>(Long.MAX_VALUE);
+        processor.subscribe(collector);
+        processor.onSubscribe(new CountingSubscription());
+        processor.onNext(new KeycodeProcessor.Request<>(
+                "a", KeycodeBatch.Request.unlock(1, SECRET_KEY, "TINY")));
+        processor.onNext(new KeycodeProcessor.Request<>(
+                "a", KeycodeBatch.Request.unlock(2, SECRET_KEY, KeycodeProtocol.FULL)));
+        processor.onError(new IllegalStateException("upstream failed"));
+
+        assertTrue(collector.done.await(10, TimeUnit.SECONDS));
+        assertEquals(2, collector.results.size());
+        assertFalse(collector.results.get(0).isSuccess());
+        assertTrue(collector.results.get(1).isSuccess());
+        assertTrue(collector.error instanceof IllegalStateException);
+    }
+
+    @Test
+    public void testCancel_cancelsUpstream() {
+        KeycodeProcessor<Integer> processor = new KeycodeProcessor<>(1, 4);
+        Collector<Integer> collector = new Collector<>(1);
+        processor.subscribe(collector);
+        CountingSubscription upstream = new CountingSubscription();
+        processor.onSubscribe(upstream);
+        collector.subscription.cancel();
+        assertTrue(upstream.canceled);
+    }
+
+    @Test
+    public void testSecondSubscriber_rejected() {
+        KeycodeProcessor<Integer> processor = new KeycodeProcessor<>(1, 4);
+        processor.subscribe(new Collector<>(1));
+        Collector<Integer> second = new Collector<>(1);
+        processor.subscribe(second);
+        assertTrue(second.error instanceof IllegalStateException);
+    }
+
+    @Test
+    public void testUpstreamCompletesDuringSubscribe_signalledAfterOnSubscribe()
+            throws Exception {
+        // Encode on the calling thread so the result is ready before anyone subscribes
+        KeycodeProcessor<Integer> processor = new KeycodeProcessor<>(Runnable::run, 1, 4);
+        processor.onSubscribe(new CountingSubscription());
+        processor.onNext(addCredit(0, 0));
+
+        CountDownLatch inOnSubscribe = new CountDownLatch(1);
+        CountDownLatch upstreamCompleted = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicBoolean subscribing = new AtomicBoolean();
+        AtomicBoolean signalledEarly = new AtomicBoolean();
+        AtomicInteger results = new AtomicInteger();
+        Thread upstream = new Thread(() -> {
+            try {
+                inOnSubscribe.await();
+            } catch (InterruptedException e) {
+                return;
+            }
+            processor.onComplete();
+            upstreamCompleted.countDown();
+        });
+        upstream.start();
+
+        processor.subscribe(new Flow.Subscriber<KeycodeProcessor.Result<Integer>>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscribing.set(true);
+                subscription.request(Long.MAX_VALUE);
+                inOnSubscribe.countDown();
+                try {
+                    // Upstream completes while this is still running
+                    assertTrue(upstreamCompleted.await(10, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                subscribing.set(false);
+            }
+
+            @Override
+            public void onNext(KeycodeProcessor.Result<Integer> result) {
+                signalledEarly.compareAndSet(false, subscribing.get());
+                results.incrementAndGet();
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                signalledEarly.compareAndSet(false, subscribing.get());
+                done.countDown();
+            }
+
+            @Override
+            public void onComplete() {
+                signalledEarly.compareAndSet(false, subscribing.get());
+                done.countDown();
+            }
+        });
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        upstream.join();
+        assertFalse(signalledEarly.get());
+        assertEquals(1, results.get());
+    }
+
+    @Test
+    public void testNonPositiveRequestDuringOnNext_errorSignalledAfterOnNext() throws Exception {
+        KeycodeProcessor<Integer> processor = new KeycodeProcessor<>(Runnable::run, 1, 4);
+        CountingSubscription upstream = new CountingSubscription();
+        processor.onSubscribe(upstream);
+
+        CountDownLatch inOnNext = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean emitting = new AtomicBoolean();
+        AtomicBoolean overlapped = new AtomicBoolean();
+        Collector<Integer> collector = new Collector<Integer>(1) {
+            @Override
+            public void onNext(KeycodeProcessor.Result<Integer> result) {
+                emitting.set(true);
+                inOnNext.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                emitting.set(false);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                overlapped.compareAndSet(false, emitting.get());
+                super.onError(throwable);
+            }
+        };
+        processor.subscribe(collector);
+
+        Thread producer = new Thread(() -> processor.onNext(addCredit(0, 0)));
+        producer.start();
+        assertTrue(inOnNext.await(10, TimeUnit.SECONDS));
+        // Requested from another thread while onNext is running
+        collector.subscription.request(0);
+        assertTrue(upstream.canceled);
+        assertNull(collector.error);
+
+        release.countDown();
+        assertTrue(collector.done.await(10, TimeUnit.SECONDS));
+        producer.join();
+        assertFalse(overlapped.get());
+        assertTrue(collector.error instanceof IllegalArgumentException);
+    }
+}
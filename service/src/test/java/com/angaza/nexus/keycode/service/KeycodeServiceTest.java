@@ -0,0 +1,145 @@
+package com.angaza.nexus.keycode.service;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.angaza.nexus.keycode.DeviceKeycodeEncoder;
+import com.angaza.nexus.keycode.KeycodeFactory;
+import com.angaza.nexus.keycode.KeycodeMetadata;
+import com.angaza.nexus.keycode.KeycodeProtocol;
+import com.angaza.nexus.keycode.exceptions.UnsupportedMessageIdException;
+import com.angaza.nexus.keycode.exceptions.UnsupportedProtocolException;
+import com.angaza.nexus.keycode.util.HexToByteArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class KeycodeServiceTest {
+    private static final byte[] SECRET_KEY =
+            new HexToByteArray().convert("abababababababababababababababab");
+    private static final Date NOW = new Date(1581552000000L);
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private final List<String> persisted = Collections.synchronizedList(new ArrayList<>());
+
+    private final KeycodeService<Long> service = new KeycodeService<>(
+            deviceId -> CompletableFuture.supplyAsync(() -> {
+                try {
+                    return new DeviceKeycodeEncoder(
+                            SECRET_KEY,
+                            deviceId % 2 == 0 ? KeycodeProtocol.FULL : KeycodeProtocol.SMALL);
+                } catch (UnsupportedProtocolException e) {
+                    throw new IllegalStateException(e);
+                }
+            }),
+            (deviceId, metadata) -> {
+                persisted.add(deviceId + ":" + metadata.getKeycodeData().getKeycode());
+                return CompletableFuture.completedFuture(null);
+            },
+            executor);
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void testFactoryCalls_matchKeycodeFactory() throws Exception {
+        KeycodeMetadata expected =
+                KeycodeFactory.addCredit(NOW, 42, SECRET_KEY, KeycodeProtocol.FULL, 86400);
+        KeycodeMetadata actual =
+                service.addCredit(NOW, 42, SECRET_KEY, KeycodeProtocol.FULL, 86400).get();
+        assertEquals(expected.getNewDisabledWhen(), actual.getNewDisabledWhen());
+        assertEquals(
+                expected.getKeycodeData().getKeycode(), actual.getKeycodeData().getKeycode());
+
+        assertEquals(
+                KeycodeFactory.unlock(7, SECRET_KEY, KeycodeProtocol.SMALL)
+                        .getKeycodeData().getKeycode(),
+                service.unlock(7, SECRET_KEY, KeycodeProtocol.SMALL).get()
+                        .getKeycodeData().getKeycode());
+    }
+
+    @Test
+    public void testDeviceChain_looksUpEncodesAndPersists() throws Exception {
+        List<CompletableFuture<KeycodeMetadata>> futures = new ArrayList<>();
+        for (long deviceId = 0; deviceId < 100; deviceId++) {
+            futures.add(service.addCredit(deviceId, NOW, (int) deviceId, 3600 * 24));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                .get(10, TimeUnit.SECONDS);
+
+        assertEquals(100, persisted.size());
+        for (long deviceId = 0; deviceId < 100; deviceId++) {
+            String protocol = deviceId % 2 == 0 ? KeycodeProtocol.FULL : KeycodeProtocol.SMALL;
+            String expected = KeycodeFactory.addCredit(
+                    NOW, (int) deviceId, SECRET_KEY, protocol, 3600 * 24)
+                    .getKeycodeData().getKeycode();
+            assertEquals(expected,
+                    futures.get((int) deviceId).get().getKeycodeData().getKeycode());
+            assertTrue(persisted.contains(deviceId + ":" + expected));
+        }
+    }
+
+    @Test
+    public void testDeviceChain_setCreditAndUnlock() throws Exception {
+        DeviceKeycodeEncoder encoder = new DeviceKeycodeEncoder(SECRET_KEY, KeycodeProtocol.FULL);
+        assertEquals(
+                encoder.setCredit(NOW, 3, 7200).getKeycodeData().getKeycode(),
+                service.setCredit(2L, NOW, 3, 7200).get().getKeycodeData().getKeycode());
+        assertEquals(
+                encoder.unlock(4).getKeycodeData().getKeycode(),
+                service.unlock(2L, 4).get().getKeycodeData().getKeycode());
+        assertEquals(2, persisted.size());
+    }
+
+    @Test
+    public void testEncodingFailure_completesWithCause() throws Exception {
+        try {
+            service.unlock(2L, 70000).get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof UnsupportedMessageIdException);
+        }
+        assertTrue(persisted.isEmpty());
+
+        try {
+            service.unlock(1, SECRET_KEY, "TINY").get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof UnsupportedProtocolException);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDeviceCall_withoutLookupRejected() {
+        new KeycodeService<Long>(null, null, executor).unlock(1L, 1);
+    }
+
+    @Test
+    public void testDefaultService_runsAndCloses() throws Exception {
+        KeycodeService<Long> defaultService = new KeycodeService<>();
+        try {
+            assertEquals(
+                    KeycodeFactory.unlock(1, SECRET_KEY, KeycodeProtocol.FULL)
+                            .getKeycodeData().getKeycode(),
+                    defaultService.unlock(1, SECRET_KEY, KeycodeProtocol.FULL).get()
+                            .getKeycodeData().getKeycode());
+        } finally {
+            defaultService.close();
+        }
+        assertTrue(((ExecutorService) defaultService.getExecutor()).isShutdown());
+    }
+}
@@ -0,0 +1,223 @@
+package com.angaza.nexus.keycode.service;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.angaza.nexus.keycode.exceptions.UnsupportedMessageIdException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MessageIdAllocatorTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testAllocate_concurrentIdsUniqueAndDense() throws Exception {
+        File logFile = new File(folder.getRoot(), "ids.log");
+        final int devices = 4;
+        final int perThread = 500;
+        final List<List<CompletableFuture<Integer>>> results = new ArrayList<>();
+        try (MessageIdAllocator allocator = MessageIdAllocator.open(logFile, devices)) {
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                final List<CompletableFuture<Integer>> threadResults = new ArrayList<>();
+                results.add(threadResults);
+                Thread thread = new Thread(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        threadResults.add(allocator.allocate(i % devices));
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            List<Set<Integer>> idsByDevice = new ArrayList<>();
+            for (int device = 0; device < devices; device++) {
+                idsByDevice.add(new HashSet<Integer>());
+            }
+            for (List<CompletableFuture<Integer>> threadResults : results) {
+                for (int i = 0; i < perThread; i++) {
+                    int id = threadResults.get(i).get(10, TimeUnit.SECONDS);
+                    assertTrue(idsByDevice.get(i % devices).add(id));
+                }
+            }
+            for (int device = 0; device < devices; device++) {
+                assertEquals(1000, idsByDevice.get(device).size());
+                assertEquals(1000, allocator.peekNextId(device));
+            }
+        }
+    }
+
+    @Test
+    public void testOpen_recoversWithoutReissuing() throws Exception {
+        File logFile = new File(folder.getRoot(), "ids.log");
+        try (MessageIdAllocator allocator = MessageIdAllocator.open(logFile, 10)) {
+            for (int i = 0; i < 5; i++) {
+                allocator.allocate(3).get();
+            }
+            assertEquals(Integer.valueOf(0), allocator.allocate(7).get());
+        }
+        try (MessageIdAllocator allocator = MessageIdAllocator.open(logFile, 10)) {
+            assertEquals(5, allocator.peekNextId(3));
+            assertEquals(1, allocator.peekNextId(7));
+            assertEquals(0, allocator.peekNextId(0));
+            assertEquals(Integer.valueOf(5), allocator.allocate(3).get());
+        }
+        // Recovery rewrote the log as one batch with a record per device, then one more
+        // claim was added as its own batch
+        assertEquals(12 + (8 + 2 * 8) + (8 + 8), logFile.length());
+        // open() renames the compacted log into place and syncs the directory before the
+        // allocator exists, so no claim is ever appended to a log a crash could undo
+        assertFalse(new File(logFile.getPath() + ".tmp").exists());
+        try (MessageIdAllocator allocator = MessageIdAllocator.open(logFile, 10)) {
+            assertEquals(6, allocator.peekNextId(3));
+        }
+    }
+
+    @Test
+    public void testOpen_discardsTornBatch() throws Exception {
+        File logFile = new File(folder.getRoot(), "ids.log");
+        try (MessageIdAllocator allocator = MessageIdAllocator.open(logFile, 2)) {
+            allocator.allocate(1).get();
+            allocator.allocate(1).get();
+        }
+        // Simulate crashes mid-write: a partial batch header, a batch cut short, and a tail the
+        // file system extended with zeros
+        byte[][] tails = {
+                {1, 0, 0},
+                {2, 0, 0, 0, 7, 7, 7, 7, 1, 0, 0, 0, 9, 0, 0, 0, 1},
+                new byte[40]};
+        for (byte[] tail : tails) {
+            try (RandomAccessFile file = new RandomAccessFile(logFile, "rw")) {
+                file.seek(file.length());
+                file.write(tail);
+            }
+            try (MessageIdAllocator allocator = MessageIdAllocator.open(logFile, 2)) {
+                assertEquals(2, allocator.peekNextId(1));
+            }
+        }
+    }
+
+    @Test
+    public void testOpen_discardsFinalBatchCorruptedMidway() throws Exception {
+        File logFile = new File(folder.getRoot(), "ids.log");
+        try (MessageIdAllocator allocator = MessageIdAllocator.open(logFile, 4)) {
+            allocator.allocate(0).get();
+            allocator.allocate(1).get();
+        }
+        File intactFile = new File(folder.getRoot(), "intact.log");
+        Files.copy(logFile.toPath(), intactFile.toPath());
+        // One group write of three claims; a crash garbles the middle record of the copy
+        byte[] batch = batch(new int[][]{{2, 0}, {3, 0}, {2, 1}});
+        appendBytes(intactFile, batch);
+        batch[8 + 8 + 4] ^= 0x40;
+        appendBytes(logFile, batch);
+
+        try (MessageIdAllocator allocator = MessageIdAllocator.open(intactFile, 4)) {
+            assertEquals(2, allocator.peekNextId(2));
+            assertEquals(1, allocator.peekNextId(3));
+        }
+        // The whole final batch is discarded; the synced batches before it are kept
+        try (MessageIdAllocator allocator = MessageIdAllocator.open(logFile, 4)) {
+            assertEquals(1, allocator.peekNextId(0));
+            assertEquals(1, allocator.peekNextId(1));
+            assertEquals(0, allocator.peekNextId(2));
+            assertEquals(0, allocator.peekNextId(3));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testOpen_corruptRecordBeforeEndRejected() throws Exception {
+        File logFile = new File(folder.getRoot(), "ids.log");
+        try (MessageIdAllocator allocator = MessageIdAllocator.open(logFile, 2)) {
+            allocator.allocate(0).get();
+            allocator.allocate(1).get();
+        }
+        try (RandomAccessFile file = new RandomAccessFile(logFile, "rw")) {
+            // Message ID of the first batch's record; a second batch follows it
+            file.seek(12 + 8 + 4);
+            file.write(99);
+        }
+        MessageIdAllocator.open(logFile, 2);
+    }
+
+    @Test(expected = IOException.class)
+    public void testOpen_deviceCountMismatchRejected() throws Exception {
+        File logFile = new File(folder.getRoot(), "ids.log");
+        MessageIdAllocator.open(logFile, 2).close();
+        MessageIdAllocator.open(logFile, 3);
+    }
+
+    @Test
+    public void testAllocate_exhaustedAndClosed() throws Exception {
+        File logFile = new File(folder.getRoot(), "ids.log");
+        try (RandomAccessFile file = new RandomAccessFile(logFile, "rw")) {
+            // An existing log with only its header
+            file.write(new byte[]{'N', 'X', 'I', 'D', 2, 0, 0, 0, 1, 0, 0, 0});
+        }
+        MessageIdAllocator allocator = MessageIdAllocator.open(logFile, 1);
+        for (int i = 0; i <= MessageIdAllocator.MAX_MESSAGE_ID; i++) {
+            allocator.allocate(0);
+        }
+        try {
+            allocator.allocate(0).get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof UnsupportedMessageIdException);
+        }
+        allocator.close();
+        try (MessageIdAllocator reopened = MessageIdAllocator.open(logFile, 1)) {
+            assertEquals(MessageIdAllocator.MAX_MESSAGE_ID + 1, reopened.peekNextId(0));
+        }
+        try {
+            allocator.allocate(0).get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    // A batch as the allocator writes it: record count, CRC-32 of count and records, records
+    private static byte[] batch(int[][] records) {
+        ByteBuffer buffer = ByteBuffer.allocate(8 + 8 * records.length)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(records.length).putInt(0);
+        for (int[] record : records) {
+            buffer.putInt(record[0]).putInt(record[1]);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, 4);
+        crc.update(buffer.array(), 8, buffer.capacity() - 8);
+        buffer.putInt(4, (int) crc.getValue());
+        return buffer.array();
+    }
+
+    private static void appendBytes(File file, byte[] bytes) throws IOException {
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.seek(out.length());
+            out.write(bytes);
+        }
+    }
+}
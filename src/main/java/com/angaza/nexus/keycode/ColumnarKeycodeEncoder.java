@@ -0,0 +1,161 @@
+package com.angaza.nexus.keycode;
+
+import com.github.emboss.siphash.SipHashLanes;
+
+import com.angaza.nexus.keycode.full.BaseFullMessage;
+import com.angaza.nexus.keycode.small.BaseSmallMessage;
+
+/**
+ * Structure-of-arrays keycode encoder for very large jobs, e.g. regenerating keycodes for a
+ * whole fleet.
+ * <p>
+ * Each item {@code i} is described by the same index in every input array: the two secret key
+ * words ({@code k0[i]}, {@code k1[i]}, see {@link com.github.emboss.siphash.SipKey#leftHalf}),
+ * the expanded message ID, the type code and the integer body. The packed, obscured message is
+ * written to {@code out[i]} without creating any per-item objects:
+ * <ul>
+ * <li>small protocol: the 28 message bits, as {@link BaseSmallMessage#obscure(int, int)}</li>
+ * <li>full protocol: the 14 keycode digits as one decimal number, as
+ * {@link BaseFullMessage#obscure(long, int)}</li>
+ * </ul>
+ * Items that are not valid for the protocol are written as {@link #INVALID}.
+ * <p>
+ * MACs are computed a chunk at a time with {@link SipHashLanes}, which uses the Vector API
+ * kernel when it is available.
+ */
+public final class ColumnarKeycodeEncoder {
+    /**
+     * Output value for an item that could not be encoded.
+     */
+    public static final long INVALID = -1L;
+
+    private static final int MAX_MESSAGE_ID = 65534;
+    private static final int MAX_SMALL_BODY = 0xff;
+    private static final int MAX_FULL_TYPE_CODE = 9;
+    private static final int MAX_FULL_BODY = 99999;
+    // Items per SipHashLanes call; bounds the scratch arrays for very large jobs
+    private static final int CHUNK_SIZE = 512;
+
+    private ColumnarKeycodeEncoder() {
+    }
+
+    /**
+     * Encode all items with the small protocol.
+     *
+     * @param k0        first secret key word per item
+     * @param k1        second secret key word per item
+     * @param messageId expanded message ID per item (0-65534)
+     * @param typeCode  type code per item (0 or 2)
+     * @param body      8-bit body per item, e.g. {@link
+     *                  com.angaza.nexus.keycode.small.AddCreditSmallMessage#generateBody(int)}
+     * @param out       packed 28-bit obscured messages, or {@link #INVALID}
+     */
+    public static void encodeSmall(
+            long[] k0, long[] k1, int[] messageId, int[] typeCode, int[] body, long[] out) {
+        encodeSmall(k0, k1, messageId, typeCode, body, out, 0, out.length);
+    }
+
+    /**
+     * Encode items {@code from} (inclusive) to {@code to} (exclusive) with the small protocol,
+     * e.g. to split one set of arrays across threads.
+     *
+     * @see #encodeSmall(long[], long[], int[], int[], int[], long[])
+     */
+    public static void encodeSmall(
+            long[] k0, long[] k1, int[] messageId, int[] typeCode, int[] body, long[] out,
+            int from, int to) {
+        checkColumns(k0, k1, messageId, typeCode, body, out, from, to);
+        long[] input = new long[Math.min(CHUNK_SIZE, to - from)];
+        long[] hash = new long[input.length];
+        for (int start = from; start < to; start += CHUNK_SIZE) {
+            int count = Math.min(CHUNK_SIZE, to - start);
+            for (int j = 0; j < count; j++) {
+                int i = start + j;
+                input[j] = BaseSmallMessage.macInput(messageId[i], typeCode[i], body[i]);
+            }
+            SipHashLanes.digest(k0, k1, start, input, null, 6, hash, count);
+            for (int j = 0; j < count; j++) {
+                int i = start + j;
+                int id = messageId[i];
+                int type = typeCode[i];
+                int value = body[i];
+                if (id < 0 || id > MAX_MESSAGE_ID
+                        || (type != 0 && type != 2)
+                        || value < 0 || value > MAX_SMALL_BODY) {
+                    out[i] = INVALID;
+                    continue;
+                }
+                out[i] = BaseSmallMessage.obscure(
+                        BaseSmallMessage.packBodyBits(id, type, value),
+                        BaseSmallMessage.truncateMac(hash[j]));
+            }
+        }
+    }
+
+    /**
+     * Encode all items with the full protocol.
+     *
+     * @param k0        first secret key word per item
+     * @param k1        second secret key word per item
+     * @param messageId full message ID per item (0-65534)
+     * @param typeCode  single-digit type code per item
+     * @param body      5-digit body per item, e.g. hours of credit
+     * @param out       packed 14-digit obscured keycodes, or {@link #INVALID}
+     */
+    public static void encodeFull(
+            long[] k0, long[] k1, int[] messageId, int[] typeCode, int[] body, long[] out) {
+        encodeFull(k0, k1, messageId, typeCode, body, out, 0, out.length);
+    }
+
+    /**
+     * Encode items {@code from} (inclusive) to {@code to} (exclusive) with the full protocol,
+     * e.g. to split one set of arrays across threads.
+     *
+     * @see #encodeFull(long[], long[], int[], int[], int[], long[])
+     */
+    public static void encodeFull(
+            long[] k0, long[] k1, int[] messageId, int[] typeCode, int[] body, long[] out,
+            int from, int to) {
+        checkColumns(k0, k1, messageId, typeCode, body, out, from, to);
+        long[] first = new long[Math.min(CHUNK_SIZE, to - from)];
+        long[] second = new long[first.length];
+        long[] hash = new long[first.length];
+        for (int start = from; start < to; start += CHUNK_SIZE) {
+            int count = Math.min(CHUNK_SIZE, to - start);
+            for (int j = 0; j < count; j++) {
+                int i = start + j;
+                first[j] = BaseFullMessage.macInputFirst(messageId[i], typeCode[i], body[i]);
+                second[j] = BaseFullMessage.macInputSecond(body[i]);
+            }
+            SipHashLanes.digest(k0, k1, start, first, second, 9, hash, count);
+            for (int j = 0; j < count; j++) {
+                int i = start + j;
+                int id = messageId[i];
+                int type = typeCode[i];
+                int value = body[i];
+                if (id < 0 || id > MAX_MESSAGE_ID
+                        || type < 0 || type > MAX_FULL_TYPE_CODE
+                        || value < 0 || value > MAX_FULL_BODY) {
+                    out[i] = INVALID;
+                    continue;
+                }
+                int mac = BaseFullMessage.truncateMac(hash[j]);
+                out[i] = BaseFullMessage.obscure(
+                        BaseFullMessage.packDigits(id, type, value, mac), 1);
+            }
+        }
+    }
+
+    private static void checkColumns(
+            long[] k0, long[] k1, int[] messageId, int[] typeCode, int[] body, long[] out,
+            int from, int to) {
+        int length = out.length;
+        if (k0.length != length || k1.length != length || messageId.length != length
+                || typeCode.length != length || body.length != length) {
+            throw new IllegalArgumentException("all columns must have the same length");
+        }
+        if (from < 0 || to > length || from > to) {
+            throw new IndexOutOfBoundsException("invalid range [" + from + ", " + to + ")");
+        }
+    }
+}
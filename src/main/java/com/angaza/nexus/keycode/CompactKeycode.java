@@ -0,0 +1,145 @@
+package com.angaza.nexus.keycode;
+
+
+import java.io.IOException;
+
+/**
+ * A generated keycode in a compact, primitive-backed form; immutable.
+ * <p>
+ * Where {@link KeycodeData} holds the rendered keycode string, this holds the packed, obscured
+ * message (as {@link KeycodeFormat#toKeycode(long)} takes it) and renders the display string
+ * only on demand, through the protocol's default {@link KeycodeFormat} or any other format of
+ * the same protocol. An instance takes a few dozen bytes, e.g. for large queues of keycodes
+ * awaiting delivery.
+ */
+public final class CompactKeycode {
+    private final long packed;
+    private final KeycodeType type;
+    private final int messageId;
+    private final long seconds;
+    private final KeycodeFormat format;
+
+    /**
+     * @param packed    packed obscured message, see {@link KeycodeFormat#toKeycode(long)}
+     * @param type      kind of credit change
+     * @param messageId the message id sent to the device
+     * @param seconds   credit sent, after rounding for the protocol; 0 for unlock
+     * @param format    default rendering format, which also fixes the protocol
+     */
+    public CompactKeycode(
+            long packed, KeycodeType type, int messageId, long seconds, KeycodeFormat format) {
+        if (type == null || format == null) {
+            throw new NullPointerException(type == null ? "type" : "format");
+        }
+        this.packed = packed;
+        this.type = type;
+        this.messageId = messageId;
+        this.seconds = seconds;
+        this.format = format;
+    }
+
+    /**
+     * @return packed obscured message, see {@link KeycodeFormat#toKeycode(long)}
+     */
+    public long getPacked() {
+        return packed;
+    }
+
+    public KeycodeType getType() {
+        return type;
+    }
+
+    public int getMessageId() {
+        return messageId;
+    }
+
+    public long getSeconds() {
+        return seconds;
+    }
+
+    /**
+     * @return one of the {@link KeycodeProtocol} constants
+     */
+    public String getKeycodeProtocol() {
+        return format.getKeycodeProtocol();
+    }
+
+    /**
+     * @return default rendering format
+     */
+    public KeycodeFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * @return the keycode rendered in the default format
+     */
+    public String toKeycode() {
+        return format.toKeycode(packed);
+    }
+
+    /**
+     * @param keycodeFormat format of this keycode's protocol
+     * @return the keycode rendered in {@code keycodeFormat}
+     */
+    public String toKeycode(KeycodeFormat keycodeFormat) {
+        return checkProtocol(keycodeFormat).toKeycode(packed);
+    }
+
+    /**
+     * Render the keycode without an intermediate string, e.g. into a message being built.
+     *
+     * @param keycodeFormat format of this keycode's protocol
+     * @param dst           destination
+     * @return number of characters appended
+     */
+    public int render(KeycodeFormat keycodeFormat, Appendable dst) throws IOException {
+        return checkProtocol(keycodeFormat).render(packed, dst);
+    }
+
+    private KeycodeFormat checkProtocol(KeycodeFormat keycodeFormat) {
+        if (!keycodeFormat.getKeycodeProtocol().equals(format.getKeycodeProtocol())) {
+            throw new IllegalArgumentException(
+                    "cannot render a " + format.getKeycodeProtocol() + " keycode as "
+                            + keycodeFormat.getKeycodeProtocol());
+        }
+        return keycodeFormat;
+    }
+
+    /**
+     * @return the same keycode as {@link KeycodeData}, rendered in the default format
+     */
+    public KeycodeData toKeycodeData() {
+        return new KeycodeData(type.name(), toKeycode(), messageId, seconds);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CompactKeycode)) {
+            return false;
+        }
+        CompactKeycode other = (CompactKeycode) o;
+        return packed == other.packed
+                && type == other.type
+                && messageId == other.messageId
+                && seconds == other.seconds
+                && format.getKeycodeProtocol().equals(other.format.getKeycodeProtocol());
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (packed ^ (packed >>> 32));
+        result = 31 * result + type.hashCode();
+        result = 31 * result + messageId;
+        result = 31 * result + (int) (seconds ^ (seconds >>> 32));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + messageId + " " + toKeycode();
+    }
+}
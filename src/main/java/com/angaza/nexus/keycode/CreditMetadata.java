@@ -0,0 +1,56 @@
+package com.angaza.nexus.keycode;
+
+
+import java.util.Date;
+
+/**
+ * Result of an add credit keycode computed on epoch milliseconds; immutable.
+ * <p>
+ * Holds the same values as the {@link KeycodeMetadata} returned for a {@link Date}, with the
+ * new disabled time as a primitive, so no {@code Date} or {@link KeycodeData} is allocated
+ * unless {@link #toKeycodeMetadata()} is called.
+ */
+public final class CreditMetadata {
+    private final long newDisabledWhenMillis;
+    private final String keycode;
+    private final int messageId;
+    private final long seconds;
+
+    public CreditMetadata(long newDisabledWhenMillis, String keycode, int messageId, long seconds) {
+        this.newDisabledWhenMillis = newDisabledWhenMillis;
+        this.keycode = keycode;
+        this.messageId = messageId;
+        this.seconds = seconds;
+    }
+
+    /**
+     * @return the device's new disabled time, in epoch milliseconds
+     */
+    public long getNewDisabledWhenMillis() {
+        return newDisabledWhenMillis;
+    }
+
+    public String getKeycode() {
+        return keycode;
+    }
+
+    public int getMessageId() {
+        return messageId;
+    }
+
+    /**
+     * @return the credit actually sent, after rounding for the protocol
+     */
+    public long getSeconds() {
+        return seconds;
+    }
+
+    /**
+     * @return the same result as returned for a {@link Date}, with type {@link KeycodeData#ADD}
+     */
+    public KeycodeMetadata toKeycodeMetadata() {
+        return new KeycodeMetadata(
+                new Date(newDisabledWhenMillis),
+                new KeycodeData(KeycodeData.ADD, keycode, messageId, seconds));
+    }
+}
@@ -0,0 +1,110 @@
+package com.angaza.nexus.keycode;
+
+
+import com.github.emboss.siphash.SipHash;
+import com.github.emboss.siphash.SipKey;
+
+import com.angaza.nexus.keycode.util.StripedLruCache;
+
+/**
+ * Derives each device's secret key from a fleet master key and the device serial number;
+ * thread-safe.
+ * <p>
+ * Derivation is deterministic, so any node holding the master key can recompute a device key
+ * without a shared key database. Each 64-bit key word is one full SipHash-2-4 digest, keyed
+ * by the master key, of a 9-byte message: the serial number in little-endian order followed
+ * by a counter byte, 1 for the first key word and 2 for the second. There is no label,
+ * context or output length field. Deriving a key takes two digests and allocates nothing
+ * beyond the returned key.
+ * <p>
+ * Recently used keys are kept in a small {@link StripedLruCache}, so repeat requests for hot
+ * devices also skip the key-mixing of a new {@link SipKey}.
+ */
+public final class DeviceKeyDeriver {
+    private static final int SERIAL_MESSAGE_BYTES = 9;
+
+    private final SipKey masterKey;
+    private final StripedLruCache<Long, SipKey> cache;
+
+    /**
+     * @param masterKey fleet master key (16 bytes); keep it as secret as the device keys
+     * @param cacheSize number of derived keys to cache, or 0 for none
+     */
+    public DeviceKeyDeriver(byte[] masterKey, int cacheSize) {
+        if (cacheSize < 0) {
+            throw new IllegalArgumentException("cache size must not be negative");
+        }
+        this.masterKey = new SipKey(masterKey);
+        this.cache = cacheSize == 0
+                ? null
+                : new StripedLruCache<Long, SipKey>(cacheSize, new NoLoader());
+    }
+
+    /**
+     * Return a device's secret key, from the cache when present.
+     *
+     * @param serial device serial number
+     * @return the device's decoded secret key
+     */
+    public SipKey getKey(long serial) {
+        if (cache == null) {
+            return deriveKey(serial);
+        }
+        Long cacheKey = serial;
+        SipKey key = cache.getIfPresent(cacheKey);
+        if (key == null) {
+            // Racing threads derive the same key, so whichever is stored last is fine
+            key = deriveKey(serial);
+            cache.put(cacheKey, key);
+        }
+        return key;
+    }
+
+    /**
+     * Derive a device's secret key, bypassing the cache.
+     *
+     * @param serial device serial number
+     * @return the device's decoded secret key
+     */
+    public SipKey deriveKey(long serial) {
+        return new SipKey(deriveWord(serial, 1), deriveWord(serial, 2));
+    }
+
+    /**
+     * Derive a device's raw secret key, e.g. for provisioning it into device firmware.
+     *
+     * @param serial device serial number
+     * @return the 16-byte key; {@code new SipKey(bytes)} equals {@link #deriveKey(long)}
+     */
+    public byte[] deriveKeyBytes(long serial) {
+        byte[] key = new byte[16];
+        putLittleEndian(deriveWord(serial, 1), key, 0);
+        putLittleEndian(deriveWord(serial, 2), key, 8);
+        return key;
+    }
+
+    /**
+     * @return the derived-key cache, e.g. for its hit and miss counts; null when disabled
+     */
+    public StripedLruCache<Long, SipKey> getCache() {
+        return cache;
+    }
+
+    private long deriveWord(long serial, int counter) {
+        return SipHash.digest(masterKey, serial, counter, SERIAL_MESSAGE_BYTES);
+    }
+
+    private static void putLittleEndian(long word, byte[] out, int offset) {
+        for (int i = 0; i < 8; i++) {
+            out[offset + i] = (byte) (word >>> (8 * i));
+        }
+    }
+
+    // Keys are stored by getKey itself, so the cache never loads
+    private static final class NoLoader implements StripedLruCache.Loader<Long, SipKey> {
+        @Override
+        public SipKey load(Long key) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,346 @@
+package com.angaza.nexus.keycode;
+
+
+import com.github.emboss.siphash.SipKey;
+
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import com.angaza.nexus.keycode.exceptions.UnsupportedKeyMappingException;
+import com.angaza.nexus.keycode.exceptions.UnsupportedMessageDaysException;
+import com.angaza.nexus.keycode.exceptions.UnsupportedMessageIdException;
+import com.angaza.nexus.keycode.exceptions.UnsupportedMessageTypeException;
+import com.angaza.nexus.keycode.exceptions.UnsupportedProtocolException;
+
+import com.angaza.nexus.keycode.full.BaseFullMessage;
+import com.angaza.nexus.keycode.full.FullMessage;
+import com.angaza.nexus.keycode.small.AddCreditSmallMessage;
+import com.angaza.nexus.keycode.small.BaseSmallMessage;
+import com.angaza.nexus.keycode.small.UnlockSmallMessage;
+import com.angaza.nexus.keycode.util.CalendarArithmetic;
+
+/**
+ * Keycode encoder bound to a single device; immutable and thread-safe.
+ * <p>
+ * Equivalent to calling {@link KeycodeFactory} with the same secret key and protocol, but the
+ * protocol string is parsed and the secret key decoded (into its key words and the key-mixed
+ * SipHash state) once, at construction. An encoder may also carry a {@link KeycodeFormat},
+ * used for every keycode it renders instead of the protocol's default format. Create one per
+ * device when issuing several keycodes to it, e.g. for a burst of payments.
+ */
+public final class DeviceKeycodeEncoder {
+    private static final double SECONDS_PER_HOUR = 60 * 60;
+    private static final double SECONDS_PER_DAY = SECONDS_PER_HOUR * 24;
+    private static final int MAX_FULL_HOURS = 99999;
+
+    private final SipKey secretKey;
+    private final String keycodeProtocol;
+    private final boolean small;
+    private final KeycodeFormat format;
+
+    /**
+     * @param secretKey       the secret key of the device (16 bytes)
+     * @param keycodeProtocol the specific keycode protocol to use
+     * @throws UnsupportedProtocolException when the protocol is not supported
+     */
+    public DeviceKeycodeEncoder(byte[] secretKey, String keycodeProtocol)
+            throws UnsupportedProtocolException {
+        // Protocol first, so a bad protocol is reported before a bad key as in KeycodeFactory
+        this(normalizeProtocol(keycodeProtocol), new SipKey(secretKey), null);
+    }
+
+    /**
+     * @param secretKey       the decoded secret key of the device
+     * @param keycodeProtocol the specific keycode protocol to use
+     * @throws UnsupportedProtocolException when the protocol is not supported
+     */
+    public DeviceKeycodeEncoder(SipKey secretKey, String keycodeProtocol)
+            throws UnsupportedProtocolException {
+        this(normalizeProtocol(keycodeProtocol), secretKey, null);
+    }
+
+    /**
+     * @param secretKey the decoded secret key of the device
+     * @param format    how keycodes are rendered; also fixes the protocol
+     */
+    public DeviceKeycodeEncoder(SipKey secretKey, KeycodeFormat format) {
+        this(format.getKeycodeProtocol(), secretKey, format);
+    }
+
+    private DeviceKeycodeEncoder(
+            String normalizedProtocol, SipKey secretKey, KeycodeFormat format) {
+        this.keycodeProtocol = normalizedProtocol;
+        this.small = KeycodeProtocol.SMALL.equals(normalizedProtocol);
+        this.secretKey = secretKey;
+        if (format == null) {
+            format = small ? KeycodeFormat.SMALL : KeycodeFormat.FULL;
+        }
+        this.format = format;
+    }
+
+    private static String normalizeProtocol(String keycodeProtocol)
+            throws UnsupportedProtocolException {
+        if (keycodeProtocol == null) {
+            throw new UnsupportedProtocolException();
+        }
+        switch (keycodeProtocol.toUpperCase(Locale.US)) {
+            case KeycodeProtocol.SMALL:
+                return KeycodeProtocol.SMALL;
+            case KeycodeProtocol.FULL:
+                return KeycodeProtocol.FULL;
+            default:
+                throw new UnsupportedProtocolException();
+        }
+    }
+
+    public SipKey getSecretKey() {
+        return secretKey;
+    }
+
+    /**
+     * @return the normalized protocol, one of the {@link KeycodeProtocol} constants
+     */
+    public String getKeycodeProtocol() {
+        return keycodeProtocol;
+    }
+
+    /**
+     * @return the format keycodes are rendered in
+     */
+    public KeycodeFormat getKeycodeFormat() {
+        return format;
+    }
+
+    /**
+     * @param clampedTime the base time for calculating the new disabled time for the device;
+     *                    this value equals to max(now, device's disableWhen)
+     * @param messageId   the message id to be sent to the device
+     * @param seconds     the timeDelta (in seconds) to add, rounded up to whole days (small
+     *                    protocol) or hours (full protocol)
+     * @return the keycode representation of the message
+     * @see KeycodeFactory#addCredit(Date, int, byte[], String, long)
+     */
+    public KeycodeMetadata addCredit(Date clampedTime, int messageId, long seconds)
+            throws IOException, UnsupportedKeyMappingException, UnsupportedMessageDaysException,
+            UnsupportedMessageIdException, UnsupportedMessageTypeException {
+        final String keycode;
+        final long secondsSent;
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTime(clampedTime);
+        if (small) {
+            final int days = (int) Math.ceil(seconds / SECONDS_PER_DAY);
+            keycode = render(new AddCreditSmallMessage(messageId, days, secretKey));
+            secondsSent = TimeUnit.DAYS.toSeconds(days);
+            calendar.add(Calendar.DAY_OF_MONTH, days);
+        } else {
+            final int hours = (int) Math.ceil(seconds / SECONDS_PER_HOUR);
+            keycode = render(FullMessage.addCredit(messageId, hours, secretKey));
+            secondsSent = TimeUnit.HOURS.toSeconds(hours);
+            calendar.add(Calendar.HOUR_OF_DAY, hours);
+        }
+        return new KeycodeMetadata(
+                calendar.getTime(),
+                new KeycodeData(
+                        KeycodeData.ADD,
+                        keycode,
+                        messageId,
+                        secondsSent
+                )
+        );
+    }
+
+    /**
+     * Add credit with the base time in epoch milliseconds, computing the same new disabled time
+     * as {@link #addCredit(Date, int, long)} in the default time zone without a
+     * {@code Calendar}.
+     *
+     * @param clampedTimeMillis the base time for calculating the new disabled time for the
+     *                          device, in epoch milliseconds
+     * @param messageId         the message id to be sent to the device
+     * @param seconds           the timeDelta (in seconds) to add, rounded up to whole days
+     *                          (small protocol) or hours (full protocol)
+     * @return the keycode and new disabled time
+     */
+    public CreditMetadata addCredit(long clampedTimeMillis, int messageId, long seconds)
+            throws IOException, UnsupportedKeyMappingException, UnsupportedMessageDaysException,
+            UnsupportedMessageIdException, UnsupportedMessageTypeException {
+        return addCredit(clampedTimeMillis, messageId, seconds, TimeZone.getDefault());
+    }
+
+    /**
+     * @param zone time zone whose days small protocol credit is added in, as for a
+     *             {@code Calendar} in that zone
+     * @see #addCredit(long, int, long)
+     */
+    public CreditMetadata addCredit(
+            long clampedTimeMillis, int messageId, long seconds, TimeZone zone)
+            throws IOException, UnsupportedKeyMappingException, UnsupportedMessageDaysException,
+            UnsupportedMessageIdException, UnsupportedMessageTypeException {
+        if (small) {
+            final int days = (int) Math.ceil(seconds / SECONDS_PER_DAY);
+            return new CreditMetadata(
+                    CalendarArithmetic.addDays(clampedTimeMillis, days, zone),
+                    render(new AddCreditSmallMessage(messageId, days, secretKey)),
+                    messageId,
+                    TimeUnit.DAYS.toSeconds(days));
+        } else {
+            final int hours = (int) Math.ceil(seconds / SECONDS_PER_HOUR);
+            return new CreditMetadata(
+                    CalendarArithmetic.addHours(clampedTimeMillis, hours),
+                    render(FullMessage.addCredit(messageId, hours, secretKey)),
+                    messageId,
+                    TimeUnit.HOURS.toSeconds(hours));
+        }
+    }
+
+    /**
+     * Set the device's remaining credit; only supported by the full protocol.
+     *
+     * @param now       the device's notion of the current time
+     * @param messageId the message id to be sent to the device
+     * @param seconds   the credit (in seconds) the device should have, rounded up to whole hours
+     * @return the keycode representation of the message
+     * @throws UnsupportedMessageTypeException for small protocol devices
+     */
+    public KeycodeMetadata setCredit(Date now, int messageId, long seconds)
+            throws IOException, UnsupportedMessageIdException, UnsupportedMessageTypeException {
+        if (small) {
+            throw new UnsupportedMessageTypeException("set credit unsupported by small protocol");
+        }
+        final int hours = (int) Math.ceil(seconds / SECONDS_PER_HOUR);
+        final String keycode = render(FullMessage.setCredit(messageId, hours, secretKey));
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTime(now);
+        calendar.add(Calendar.HOUR_OF_DAY, hours);
+        return new KeycodeMetadata(
+                calendar.getTime(),
+                new KeycodeData(
+                        KeycodeData.SET,
+                        keycode,
+                        messageId,
+                        TimeUnit.HOURS.toSeconds(hours)
+                )
+        );
+    }
+
+    /**
+     * @param messageId the message id to be sent to the device
+     * @return the keycode representation of the message
+     * @see KeycodeFactory#unlock(int, byte[], String)
+     */
+    public KeycodeMetadata unlock(int messageId)
+            throws IOException, UnsupportedKeyMappingException, UnsupportedMessageDaysException,
+            UnsupportedMessageIdException, UnsupportedMessageTypeException {
+        final String keycode;
+        if (small) {
+            keycode = render(new UnlockSmallMessage(messageId, secretKey));
+        } else {
+            keycode = render(FullMessage.unlock(messageId, secretKey));
+        }
+        return new KeycodeMetadata(
+                null,
+                new KeycodeData(
+                        KeycodeData.UNLOCK,
+                        keycode,
+                        messageId,
+                        0
+                )
+        );
+    }
+
+    /**
+     * Add credit, returning the keycode in compact form; see
+     * {@link #addCredit(Date, int, long)} for the rounding of {@code seconds}.
+     *
+     * @param messageId the message id to be sent to the device
+     * @param seconds   the timeDelta (in seconds) to add
+     * @return the keycode, rendered on demand
+     * @throws IllegalArgumentException for full protocol credit beyond 99999 hours
+     */
+    public CompactKeycode compactAddCredit(int messageId, long seconds)
+            throws UnsupportedMessageDaysException, UnsupportedMessageIdException,
+            UnsupportedMessageTypeException {
+        if (small) {
+            final int days = (int) Math.ceil(seconds / SECONDS_PER_DAY);
+            return new CompactKeycode(
+                    new AddCreditSmallMessage(messageId, days, secretKey).obscuredBits(),
+                    KeycodeType.ADD,
+                    messageId,
+                    TimeUnit.DAYS.toSeconds(days),
+                    format);
+        }
+        final int hours = checkFullHours((int) Math.ceil(seconds / SECONDS_PER_HOUR));
+        return new CompactKeycode(
+                FullMessage.addCredit(messageId, hours, secretKey).obscuredDigits(),
+                KeycodeType.ADD,
+                messageId,
+                TimeUnit.HOURS.toSeconds(hours),
+                format);
+    }
+
+    /**
+     * Set the device's remaining credit, returning the keycode in compact form; only supported
+     * by the full protocol.
+     *
+     * @see #setCredit(Date, int, long)
+     */
+    public CompactKeycode compactSetCredit(int messageId, long seconds)
+            throws UnsupportedMessageIdException, UnsupportedMessageTypeException {
+        if (small) {
+            throw new UnsupportedMessageTypeException("set credit unsupported by small protocol");
+        }
+        final int hours = checkFullHours((int) Math.ceil(seconds / SECONDS_PER_HOUR));
+        return new CompactKeycode(
+                FullMessage.setCredit(messageId, hours, secretKey).obscuredDigits(),
+                KeycodeType.SET,
+                messageId,
+                TimeUnit.HOURS.toSeconds(hours),
+                format);
+    }
+
+    /**
+     * Unlock the device, returning the keycode in compact form.
+     *
+     * @see #unlock(int)
+     */
+    public CompactKeycode compactUnlock(int messageId)
+            throws UnsupportedMessageDaysException, UnsupportedMessageIdException,
+            UnsupportedMessageTypeException {
+        if (small) {
+            return new CompactKeycode(
+                    new UnlockSmallMessage(messageId, secretKey).obscuredBits(),
+                    KeycodeType.UNLOCK, messageId, 0, format);
+        }
+        return new CompactKeycode(
+                FullMessage.unlock(messageId, secretKey).obscuredDigits(),
+                KeycodeType.UNLOCK, messageId, 0, format);
+    }
+
+    private String render(BaseSmallMessage message)
+            throws IOException, UnsupportedKeyMappingException {
+        if (format == KeycodeFormat.SMALL) {
+            return message.toKeycode();
+        }
+        return format.toKeycode(message.obscuredBits());
+    }
+
+    // Custom formats need the 14-digit form, i.e. credit of at most 99999 hours
+    private String render(BaseFullMessage message) throws IOException {
+        if (format == KeycodeFormat.FULL) {
+            return message.toKeycode();
+        }
+        return format.toKeycode(message.obscuredDigits());
+    }
+
+    // Only bodies of 5 digits pack into the 14 keycode digits
+    private static int checkFullHours(int hours) {
+        if (hours < 0 || hours > MAX_FULL_HOURS) {
+            throw new IllegalArgumentException("unsupported credit hours: " + hours);
+        }
+        return hours;
+    }
+}
@@ -0,0 +1,43 @@
+package com.angaza.nexus.keycode;
+
+
+import com.angaza.nexus.keycode.util.StripedLruCache;
+
+/**
+ * Bounded concurrent cache of prepared {@link DeviceKeycodeEncoder}s keyed by device identifier.
+ * <p>
+ * On a miss the loader resolves the device, e.g. fetching its secret key and protocol, and
+ * returns a prepared encoder, optionally with the device's {@link KeycodeFormat}; repeat
+ * requests for hot devices then skip key lookup, protocol parsing and key decoding entirely.
+ * Least-recently-used encoders are evicted once the cache is full.
+ * <p>
+ * <pre>
+ *     {@code
+ *     DeviceKeycodeEncoderCache<Long> encoders = new DeviceKeycodeEncoderCache<Long>(
+ *             100000,
+ *             new StripedLruCache.Loader<Long, DeviceKeycodeEncoder>() {
+ *                 public DeviceKeycodeEncoder load(Long deviceId) throws ... {
+ *                     Device device = devices.find(deviceId);
+ *                     return new DeviceKeycodeEncoder(device.secretKey, device.protocol);
+ *                 }
+ *             });
+ *     encoders.get(deviceId).unlock(messageId);
+ *     }
+ * </pre>
+ *
+ * @param <K> device identifier type
+ */
+public final class DeviceKeycodeEncoderCache<K> extends StripedLruCache<K, DeviceKeycodeEncoder> {
+    public DeviceKeycodeEncoderCache(
+            int maximumSize,
+            Loader<K, DeviceKeycodeEncoder> loader) {
+        super(maximumSize, loader);
+    }
+
+    public DeviceKeycodeEncoderCache(
+            int maximumSize,
+            int concurrencyLevel,
+            Loader<K, DeviceKeycodeEncoder> loader) {
+        super(maximumSize, concurrencyLevel, loader);
+    }
+}
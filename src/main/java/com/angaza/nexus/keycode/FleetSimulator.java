@@ -0,0 +1,374 @@
+package com.angaza.nexus.keycode;
+
+
+import com.github.emboss.siphash.SipKey;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+
+import com.angaza.nexus.keycode.exceptions.InvalidKeycodeException;
+import com.angaza.nexus.keycode.exceptions.UnsupportedProtocolException;
+import com.angaza.nexus.keycode.full.FullKeycodeDecoder;
+import com.angaza.nexus.keycode.small.SmallKeycodeDecoder;
+
+/**
+ * Simulated keycode receivers for a whole fleet of virtual devices, for load and correctness
+ * testing of keycode campaigns without hardware.
+ * <p>
+ * Each device mirrors the state an embedded decoder keeps: the highest message ID it has
+ * accepted, a 64-bit mask of which of the IDs up to that one were already applied, its
+ * remaining credit and whether it is unlocked. Entering a keycode expands its message ID within
+ * the device's window (from 63 IDs below the highest accepted ID to 64 above it), verifies the
+ * MAC, rejects replays and applies the credit.
+ * <p>
+ * State is kept off-heap in fixed {@value #RECORD_BYTES}-byte records, either in a direct
+ * buffer or in a memory-mapped file that survives the process; a million devices take 24 MB.
+ * <p>
+ * Like the buffer it wraps, a simulator is not thread-safe. Threads sharing one must
+ * synchronize every call on it (or on another common lock); to drive devices in parallel, give
+ * each thread its own simulator over its own state.
+ */
+public final class FleetSimulator {
+    /**
+     * Keycode applied.
+     */
+    public static final int ACCEPTED = 0;
+    /**
+     * Keycode valid but its message ID was already applied.
+     */
+    public static final int DUPLICATE = 1;
+    /**
+     * Keycode malformed, or no ID in the device's window matches its MAC (including a valid
+     * keycode whose ID has fallen below the window).
+     */
+    public static final int INVALID = 2;
+
+    /**
+     * Bytes of state per device.
+     */
+    public static final int RECORD_BYTES = 24;
+
+    // Record layout
+    private static final int HIGHEST_ID_OFFSET = 0;
+    private static final int FLAGS_OFFSET = 4;
+    private static final int MASK_OFFSET = 8;
+    private static final int CREDIT_OFFSET = 16;
+
+    private static final int UNLOCKED_FLAG = 0x1;
+    private static final int NO_MESSAGE_ID = -1;
+    private static final int IDS_BELOW = 63;
+    private static final int IDS_ABOVE = 64;
+    private static final int MAX_MESSAGE_ID = 65534;
+
+    private static final int FULL_ADD_CREDIT_TYPE_CODE = 0;
+    private static final int FULL_SET_CREDIT_TYPE_CODE = 1;
+    private static final int FULL_UNLOCK_HOURS = 99999;
+    private static final int SMALL_ADD_CREDIT_TYPE_CODE = 0;
+    private static final int SMALL_UNLOCK_INCREMENT_ID = 255;
+    private static final long SECONDS_PER_HOUR = 60 * 60;
+    private static final long SECONDS_PER_DAY = SECONDS_PER_HOUR * 24;
+
+    private final boolean small;
+    private final int deviceCount;
+    private final ByteBuffer records;
+
+    /**
+     * Simulate devices with state in a direct buffer, all starting with no credit and no
+     * accepted messages.
+     *
+     * @param keycodeProtocol the keycode protocol of every device
+     * @param deviceCount     number of devices, addressed by ordinal from 0
+     * @throws UnsupportedProtocolException when the protocol is not supported
+     */
+    public FleetSimulator(String keycodeProtocol, int deviceCount)
+            throws UnsupportedProtocolException {
+        this(keycodeProtocol, deviceCount,
+                ByteBuffer.allocateDirect(recordsSize(deviceCount)), true);
+    }
+
+    /**
+     * Simulate devices with state in a memory-mapped file. Devices already in the file resume
+     * their state; devices beyond its end start with no credit and no accepted messages.
+     *
+     * @param keycodeProtocol the keycode protocol of every device
+     * @param deviceCount     number of devices, addressed by ordinal from 0
+     * @param stateFile       file holding the device records
+     * @throws UnsupportedProtocolException when the protocol is not supported
+     * @throws IOException                  when the file cannot be mapped
+     */
+    public FleetSimulator(String keycodeProtocol, int deviceCount, File stateFile)
+            throws UnsupportedProtocolException, IOException {
+        this(keycodeProtocol, deviceCount, map(stateFile, recordsSize(deviceCount)), false);
+    }
+
+    private FleetSimulator(
+            String keycodeProtocol, int deviceCount, ByteBuffer records, boolean fresh)
+            throws UnsupportedProtocolException {
+        if (keycodeProtocol == null) {
+            throw new UnsupportedProtocolException();
+        }
+        switch (keycodeProtocol.toUpperCase(Locale.US)) {
+            case KeycodeProtocol.SMALL:
+                this.small = true;
+                break;
+            case KeycodeProtocol.FULL:
+                this.small = false;
+                break;
+            default:
+                throw new UnsupportedProtocolException();
+        }
+        this.deviceCount = deviceCount;
+        this.records = records.order(ByteOrder.LITTLE_ENDIAN);
+        if (fresh) {
+            for (int device = 0; device < deviceCount; device++) {
+                reset(device);
+            }
+        }
+    }
+
+    private static int recordsSize(int deviceCount) {
+        if (deviceCount < 0 || deviceCount > Integer.MAX_VALUE / RECORD_BYTES) {
+            throw new IllegalArgumentException("unsupported device count: " + deviceCount);
+        }
+        return deviceCount * RECORD_BYTES;
+    }
+
+    private static ByteBuffer map(File stateFile, int size) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(stateFile, "rw");
+        try {
+            long existing = Math.min(file.length(), size);
+            // Mapping past the end grows the file with zeroed records
+            MappedByteBuffer buffer =
+                    file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            int firstNew = (int) ((existing + RECORD_BYTES - 1) / RECORD_BYTES) * RECORD_BYTES;
+            for (int offset = firstNew; offset < size; offset += RECORD_BYTES) {
+                buffer.putInt(offset + HIGHEST_ID_OFFSET, NO_MESSAGE_ID);
+            }
+            return buffer;
+        } finally {
+            // The mapping stays valid after the file is closed
+            file.close();
+        }
+    }
+
+    /**
+     * @return number of simulated devices
+     */
+    public int getDeviceCount() {
+        return deviceCount;
+    }
+
+    /**
+     * Enter a keycode on a device, as a user would on its keypad. The secret key is decoded on
+     * every call; to enter many keycodes on one device, keep a decoder and pass it instead.
+     *
+     * @param device    device ordinal
+     * @param secretKey the device's decoded secret key
+     * @param keycode   keycode as entered
+     * @return {@link #ACCEPTED}, {@link #DUPLICATE} or {@link #INVALID}
+     */
+    public int enter(int device, SipKey secretKey, CharSequence keycode) {
+        return small
+                ? enter(device, new SmallKeycodeDecoder(secretKey), keycode)
+                : enter(device, new FullKeycodeDecoder(secretKey), keycode);
+    }
+
+    /**
+     * Enter a small protocol keycode on a device, decoding it with a prepared decoder.
+     *
+     * @param device  device ordinal
+     * @param decoder decoder for the device's secret key
+     * @param keycode keycode as entered
+     * @return {@link #ACCEPTED}, {@link #DUPLICATE} or {@link #INVALID}
+     * @throws IllegalArgumentException when the devices use the full protocol
+     */
+    public int enter(int device, SmallKeycodeDecoder decoder, CharSequence keycode) {
+        if (!small) {
+            throw new IllegalArgumentException("devices use the full protocol");
+        }
+        int base = offset(device);
+        int highestId = records.getInt(base + HIGHEST_ID_OFFSET);
+        SmallKeycodeDecoder.Decoded decoded;
+        try {
+            decoded = decoder.decode(keycode, minId(highestId), maxId(highestId));
+        } catch (InvalidKeycodeException e) {
+            return INVALID;
+        }
+        if (decoded == null) {
+            return INVALID;
+        }
+        return accept(base, highestId,
+                decoded.getMessageId(), decoded.getTypeCode(), decoded.getBody());
+    }
+
+    /**
+     * Enter a full protocol keycode on a device, decoding it with a prepared decoder.
+     *
+     * @param device  device ordinal
+     * @param decoder decoder for the device's secret key
+     * @param keycode keycode as entered
+     * @return {@link #ACCEPTED}, {@link #DUPLICATE} or {@link #INVALID}
+     * @throws IllegalArgumentException when the devices use the small protocol
+     */
+    public int enter(int device, FullKeycodeDecoder decoder, CharSequence keycode) {
+        if (small) {
+            throw new IllegalArgumentException("devices use the small protocol");
+        }
+        int base = offset(device);
+        int highestId = records.getInt(base + HIGHEST_ID_OFFSET);
+        FullKeycodeDecoder.Decoded decoded;
+        try {
+            decoded = decoder.decode(keycode, minId(highestId), maxId(highestId));
+        } catch (InvalidKeycodeException e) {
+            return INVALID;
+        }
+        if (decoded == null) {
+            return INVALID;
+        }
+        return accept(base, highestId,
+                decoded.getMessageId(), decoded.getTypeCode(), decoded.getBody());
+    }
+
+    private static int minId(int highestId) {
+        return Math.max(0, highestId - IDS_BELOW);
+    }
+
+    private static int maxId(int highestId) {
+        return Math.min(MAX_MESSAGE_ID, highestId + IDS_ABOVE);
+    }
+
+    private int accept(int base, int highestId, int messageId, int typeCode, int body) {
+        long mask = records.getLong(base + MASK_OFFSET);
+        if (messageId <= highestId) {
+            long bit = 1L << (highestId - messageId);
+            if ((mask & bit) != 0) {
+                return DUPLICATE;
+            }
+            mask |= bit;
+        } else {
+            int shift = messageId - highestId;
+            mask = (shift >= Long.SIZE ? 0 : mask << shift) | 1L;
+            records.putInt(base + HIGHEST_ID_OFFSET, messageId);
+        }
+        records.putLong(base + MASK_OFFSET, mask);
+
+        if (small) {
+            applySmall(base, typeCode, body);
+        } else {
+            applyFull(base, typeCode, body);
+        }
+        return ACCEPTED;
+    }
+
+    private void applyFull(int base, int typeCode, int hours) {
+        if (typeCode == FULL_SET_CREDIT_TYPE_CODE) {
+            if (hours == FULL_UNLOCK_HOURS) {
+                setUnlocked(base, true);
+            } else {
+                setUnlocked(base, false);
+                records.putLong(base + CREDIT_OFFSET, hours * SECONDS_PER_HOUR);
+            }
+        } else if (typeCode == FULL_ADD_CREDIT_TYPE_CODE) {
+            addCredit(base, hours * SECONDS_PER_HOUR);
+        }
+    }
+
+    private void applySmall(int base, int typeCode, int incrementId) {
+        if (typeCode != SMALL_ADD_CREDIT_TYPE_CODE) {
+            // Other small messages consume their ID without changing credit
+            return;
+        }
+        if (incrementId == SMALL_UNLOCK_INCREMENT_ID) {
+            setUnlocked(base, true);
+        } else {
+            addCredit(base, smallDays(incrementId) * SECONDS_PER_DAY);
+        }
+    }
+
+    // Fewest days that AddCreditSmallMessage.generateBody encodes as this increment
+    private static int smallDays(int incrementId) {
+        return incrementId < 180 ? incrementId + 1 : 181 + (incrementId - 180) * 3;
+    }
+
+    private void addCredit(int base, long seconds) {
+        records.putLong(base + CREDIT_OFFSET, records.getLong(base + CREDIT_OFFSET) + seconds);
+    }
+
+    private void setUnlocked(int base, boolean unlocked) {
+        int flags = records.getInt(base + FLAGS_OFFSET);
+        records.putInt(base + FLAGS_OFFSET,
+                unlocked ? flags | UNLOCKED_FLAG : flags & ~UNLOCKED_FLAG);
+    }
+
+    /**
+     * Consume credit on a device, e.g. to simulate time passing between payments.
+     *
+     * @param device  device ordinal
+     * @param seconds seconds of credit to consume; credit does not drop below zero
+     */
+    public void consume(int device, long seconds) {
+        int base = offset(device);
+        long credit = records.getLong(base + CREDIT_OFFSET);
+        records.putLong(base + CREDIT_OFFSET, Math.max(0, credit - seconds));
+    }
+
+    /**
+     * Return a device to its factory state: no credit, locked, no accepted messages.
+     *
+     * @param device device ordinal
+     */
+    public void reset(int device) {
+        int base = offset(device);
+        records.putInt(base + HIGHEST_ID_OFFSET, NO_MESSAGE_ID);
+        records.putInt(base + FLAGS_OFFSET, 0);
+        records.putLong(base + MASK_OFFSET, 0);
+        records.putLong(base + CREDIT_OFFSET, 0);
+    }
+
+    /**
+     * @param device device ordinal
+     * @return remaining credit in seconds
+     */
+    public long getCreditSeconds(int device) {
+        return records.getLong(offset(device) + CREDIT_OFFSET);
+    }
+
+    /**
+     * @param device device ordinal
+     * @return true if the device has been unlocked
+     */
+    public boolean isUnlocked(int device) {
+        return (records.getInt(offset(device) + FLAGS_OFFSET) & UNLOCKED_FLAG) != 0;
+    }
+
+    /**
+     * @param device device ordinal
+     * @return highest message ID the device has accepted, or -1 for none
+     */
+    public int getHighestMessageId(int device) {
+        return records.getInt(offset(device) + HIGHEST_ID_OFFSET);
+    }
+
+    /**
+     * Write a memory-mapped state file's changes to storage; no-op for a direct buffer.
+     */
+    public void flush() {
+        if (records instanceof MappedByteBuffer) {
+            ((MappedByteBuffer) records).force();
+        }
+    }
+
+    private int offset(int device) {
+        if (device < 0 || device >= deviceCount) {
+            throw new IndexOutOfBoundsException("no device " + device);
+        }
+        return device * RECORD_BYTES;
+    }
+}
@@ -0,0 +1,404 @@
+package com.angaza.nexus.keycode;
+
+
+import com.github.emboss.siphash.SipKey;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Memory-mapped file of device secret keys encrypted at rest with AES-GCM; thread-safe.
+ * <p>
+ * Keys are indexed by device ordinal as in {@link SecretKeyStore}, but sealed in blocks of
+ * {@link #getKeysPerBlock()} keys, each with its own random nonce and authentication tag. The
+ * block index, the file header and whether the block is the last are authenticated with each
+ * block, so blocks cannot be reordered, truncated or moved between vaults unnoticed.
+ * <p>
+ * Keys are read through a {@link Cursor}, which decrypts a whole block at a time into its own
+ * reusable direct buffer and keeps the latest block, so reading keys in ordinal order costs
+ * one AES-GCM operation per block rather than per key. The JDK's AES-GCM (Java 8 or later) is
+ * used, which runs on AES-NI where the hardware has it.
+ * <p>
+ * File layout: the magic bytes {@code NXKV}, the format version and the keys per block as
+ * little-endian ints, then each block as its 12-byte nonce, the ciphertext of its 16-byte key
+ * records and the 16-byte tag. Only the last block may hold fewer keys.
+ */
+public final class KeyVault {
+    private static final byte[] MAGIC = {'N', 'X', 'K', 'V'};
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 12;
+    private static final int NONCE_BYTES = 12;
+    private static final int TAG_BYTES = 16;
+    private static final int BLOCK_OVERHEAD = NONCE_BYTES + TAG_BYTES;
+    // Header, block index and last-block flag
+    private static final int AAD_BYTES = HEADER_BYTES + 5;
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+
+    private final ByteBuffer data;
+    private final SecretKeySpec vaultKey;
+    private final int keysPerBlock;
+    private final int blockCount;
+    private final int keyCount;
+
+    private KeyVault(ByteBuffer data, SecretKeySpec vaultKey, int keysPerBlock, int blockCount,
+                     int keyCount) {
+        this.data = data;
+        this.vaultKey = vaultKey;
+        this.keysPerBlock = keysPerBlock;
+        this.blockCount = blockCount;
+        this.keyCount = keyCount;
+    }
+
+    /**
+     * Map a key vault file. Blocks are authenticated as they are decrypted, so a wrong vault
+     * key is only detected on the first read.
+     *
+     * @param vaultFile file written by a {@link Writer}
+     * @param vaultKey  AES key of the vault (16, 24 or 32 bytes)
+     * @return the vault
+     * @throws IOException when the file cannot be mapped or is not a key vault
+     */
+    public static KeyVault open(File vaultFile, byte[] vaultKey) throws IOException {
+        SecretKeySpec keySpec = keySpec(vaultKey);
+        RandomAccessFile file = new RandomAccessFile(vaultFile, "r");
+        try {
+            long length = file.length();
+            if (length < HEADER_BYTES + BLOCK_OVERHEAD || length > Integer.MAX_VALUE) {
+                throw new IOException("not a key vault: " + vaultFile);
+            }
+            ByteBuffer data = file.getChannel()
+                    .map(FileChannel.MapMode.READ_ONLY, 0, length)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (data.get(i) != MAGIC[i]) {
+                    throw new IOException("not a key vault: " + vaultFile);
+                }
+            }
+            if (data.getInt(4) != VERSION) {
+                throw new IOException("unsupported key vault version " + data.getInt(4));
+            }
+            int keysPerBlock = data.getInt(8);
+            if (keysPerBlock < 1 || keysPerBlock > maxKeysPerBlock()) {
+                throw new IOException("corrupt key vault header: " + vaultFile);
+            }
+
+            long fullBlockBytes =
+                    BLOCK_OVERHEAD + (long) keysPerBlock * SecretKeyStore.RECORD_BYTES;
+            long blocksBytes = length - HEADER_BYTES;
+            int blockCount = (int) ((blocksBytes + fullBlockBytes - 1) / fullBlockBytes);
+            long lastBlockBytes = blocksBytes - (blockCount - 1) * fullBlockBytes;
+            long lastRecordBytes = lastBlockBytes - BLOCK_OVERHEAD;
+            if (lastRecordBytes < 0 || lastRecordBytes % SecretKeyStore.RECORD_BYTES != 0) {
+                throw new IOException("truncated key vault: " + vaultFile);
+            }
+            int keyCount = (blockCount - 1) * keysPerBlock
+                    + (int) (lastRecordBytes / SecretKeyStore.RECORD_BYTES);
+            return new KeyVault(data, keySpec, keysPerBlock, blockCount, keyCount);
+        } finally {
+            // The mapping stays valid after the file is closed
+            file.close();
+        }
+    }
+
+    /**
+     * Start writing a new key vault, replacing any existing file.
+     *
+     * @param vaultFile    file to write
+     * @param vaultKey     AES key of the vault (16, 24 or 32 bytes)
+     * @param keysPerBlock keys sealed together; larger blocks decrypt faster in bulk, smaller
+     *                     ones make single lookups cheaper
+     * @return writer to add the keys to in ordinal order, then close
+     * @throws IOException when the file cannot be created
+     */
+    public static Writer create(File vaultFile, byte[] vaultKey, int keysPerBlock)
+            throws IOException {
+        if (keysPerBlock < 1 || keysPerBlock > maxKeysPerBlock()) {
+            throw new IllegalArgumentException("unsupported keys per block: " + keysPerBlock);
+        }
+        return new Writer(vaultFile, keySpec(vaultKey), keysPerBlock);
+    }
+
+    private static int maxKeysPerBlock() {
+        return (Integer.MAX_VALUE - BLOCK_OVERHEAD) / SecretKeyStore.RECORD_BYTES;
+    }
+
+    private static SecretKeySpec keySpec(byte[] vaultKey) {
+        if (vaultKey == null
+                || (vaultKey.length != 16 && vaultKey.length != 24 && vaultKey.length != 32)) {
+            throw new IllegalArgumentException("vault key must be 16, 24 or 32 bytes");
+        }
+        return new SecretKeySpec(vaultKey, "AES");
+    }
+
+    private static Cipher newCipher() {
+        try {
+            return Cipher.getInstance(TRANSFORMATION);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(TRANSFORMATION + " is not available", e);
+        }
+    }
+
+    private static void putHeader(ByteBuffer buffer, int keysPerBlock) {
+        buffer.put(MAGIC).putInt(VERSION).putInt(keysPerBlock);
+    }
+
+    // Header is already in place; fill in the block index and last-block flag
+    private static void setBlockAad(byte[] aad, int blockIndex, boolean last) {
+        aad[HEADER_BYTES] = (byte) blockIndex;
+        aad[HEADER_BYTES + 1] = (byte) (blockIndex >>> 8);
+        aad[HEADER_BYTES + 2] = (byte) (blockIndex >>> 16);
+        aad[HEADER_BYTES + 3] = (byte) (blockIndex >>> 24);
+        aad[HEADER_BYTES + 4] = (byte) (last ? 1 : 0);
+    }
+
+    /**
+     * @return number of keys, i.e. one more than the highest device ordinal
+     */
+    public int getKeyCount() {
+        return keyCount;
+    }
+
+    /**
+     * @return keys sealed together in each block
+     */
+    public int getKeysPerBlock() {
+        return keysPerBlock;
+    }
+
+    /**
+     * @return number of blocks, at least 1
+     */
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    /**
+     * @return a new cursor for reading keys on one thread
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Reads keys from a vault, one decrypted block at a time; not thread-safe, so use one
+     * cursor per thread. Closing a cursor zeroes its decrypted block.
+     */
+    public final class Cursor implements Closeable {
+        private final Cipher cipher = newCipher();
+        private final ByteBuffer plain = ByteBuffer
+                .allocateDirect(keysPerBlock * SecretKeyStore.RECORD_BYTES + TAG_BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        private final byte[] nonce = new byte[NONCE_BYTES];
+        private final byte[] aad = new byte[AAD_BYTES];
+        private int currentBlock = -1;
+
+        private Cursor() {
+            ByteBuffer header = data.duplicate();
+            ((Buffer) header).limit(HEADER_BYTES);
+            header.get(aad, 0, HEADER_BYTES);
+        }
+
+        /**
+         * @param ordinal device ordinal
+         * @return the device's decoded secret key
+         * @throws IOException when the block holding the key fails authentication
+         */
+        public SipKey getKey(int ordinal) throws IOException {
+            if (ordinal < 0 || ordinal >= keyCount) {
+                throw new IndexOutOfBoundsException("no key for device " + ordinal);
+            }
+            load(ordinal / keysPerBlock);
+            int offset = (ordinal % keysPerBlock) * SecretKeyStore.RECORD_BYTES;
+            return new SipKey(plain.getLong(offset), plain.getLong(offset + 8));
+        }
+
+        /**
+         * Read the key words of {@code count} consecutive devices, e.g. for
+         * {@link ColumnarKeycodeEncoder}, decrypting each block they span once.
+         *
+         * @param fromOrdinal first device ordinal
+         * @param count       number of devices
+         * @param k0          receives the first key words from index {@code offset}
+         * @param k1          receives the second key words from index {@code offset}
+         * @param offset      first index written in {@code k0} and {@code k1}
+         * @throws IOException when a block fails authentication
+         */
+        public void readKeyWords(int fromOrdinal, int count, long[] k0, long[] k1, int offset)
+                throws IOException {
+            if (count < 0 || fromOrdinal < 0 || fromOrdinal > keyCount - count) {
+                throw new IndexOutOfBoundsException(
+                        "no keys [" + fromOrdinal + ", " + (fromOrdinal + count) + ")");
+            }
+            int ordinal = fromOrdinal;
+            int end = fromOrdinal + count;
+            while (ordinal < end) {
+                int block = ordinal / keysPerBlock;
+                load(block);
+                int position = (ordinal - block * keysPerBlock) * SecretKeyStore.RECORD_BYTES;
+                int blockEnd = Math.min(end, (block + 1) * keysPerBlock);
+                for (; ordinal < blockEnd; ordinal++) {
+                    k0[offset] = plain.getLong(position);
+                    k1[offset] = plain.getLong(position + 8);
+                    offset++;
+                    position += SecretKeyStore.RECORD_BYTES;
+                }
+            }
+        }
+
+        // Decrypt a block into plain unless it is already there
+        private void load(int block) throws IOException {
+            if (block == currentBlock) {
+                return;
+            }
+            long fullBlockBytes =
+                    BLOCK_OVERHEAD + (long) keysPerBlock * SecretKeyStore.RECORD_BYTES;
+            int start = (int) (HEADER_BYTES + block * fullBlockBytes);
+            int end = (int) Math.min(data.capacity(), start + fullBlockBytes);
+            ByteBuffer sealed = data.duplicate();
+            ((Buffer) sealed).limit(end).position(start);
+            sealed.get(nonce);
+
+            currentBlock = -1;
+            ((Buffer) plain).clear();
+            setBlockAad(aad, block, block == blockCount - 1);
+            try {
+                cipher.init(Cipher.DECRYPT_MODE, vaultKey,
+                        new GCMParameterSpec(TAG_BYTES * 8, nonce));
+                cipher.updateAAD(aad);
+                cipher.doFinal(sealed, plain);
+            } catch (AEADBadTagException e) {
+                throw new IOException("key vault block " + block + " failed authentication", e);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+            currentBlock = block;
+        }
+
+        @Override
+        public void close() {
+            currentBlock = -1;
+            ((Buffer) plain).clear();
+            while (plain.remaining() >= 8) {
+                plain.putLong(0);
+            }
+            ((Buffer) plain).clear();
+        }
+    }
+
+    /**
+     * Writes a new key vault, sealing each block as soon as the next one starts; not
+     * thread-safe. Plain key records are zeroed once sealed.
+     */
+    public static final class Writer implements Closeable {
+        private final RandomAccessFile file;
+        private final FileChannel channel;
+        private final SecretKeySpec vaultKey;
+        private final Cipher cipher = newCipher();
+        private final SecureRandom random = new SecureRandom();
+        private final ByteBuffer plain;
+        private final ByteBuffer sealed;
+        private final byte[] nonce = new byte[NONCE_BYTES];
+        private final byte[] aad = new byte[AAD_BYTES];
+        private int blockIndex;
+        private boolean closed;
+
+        private Writer(File vaultFile, SecretKeySpec vaultKey, int keysPerBlock)
+                throws IOException {
+            this.file = new RandomAccessFile(vaultFile, "rw");
+            this.channel = file.getChannel();
+            this.vaultKey = vaultKey;
+            int recordBytes = keysPerBlock * SecretKeyStore.RECORD_BYTES;
+            this.plain = ByteBuffer.allocateDirect(recordBytes).order(ByteOrder.LITTLE_ENDIAN);
+            this.sealed = ByteBuffer.allocateDirect(recordBytes + TAG_BYTES);
+
+            ByteBuffer header = ByteBuffer.wrap(aad).order(ByteOrder.LITTLE_ENDIAN);
+            putHeader(header, keysPerBlock);
+            ((Buffer) header).flip();
+            file.setLength(0);
+            channel.write(header);
+        }
+
+        /**
+         * Add the next device's key.
+         *
+         * @param secretKey the secret key of the device (16 bytes)
+         */
+        public void add(byte[] secretKey) throws IOException {
+            add(SipKey.leftHalf(secretKey), SipKey.rightHalf(secretKey));
+        }
+
+        /**
+         * Add the next device's key by its key words, e.g. from
+         * {@link SecretKeyStore#readKeyWords(int, int, long[], long[], int)}.
+         *
+         * @param k0 first key word, see {@link SipKey#getLeftHalf()}
+         * @param k1 second key word, see {@link SipKey#getRightHalf()}
+         */
+        public void add(long k0, long k1) throws IOException {
+            if (closed) {
+                throw new IllegalStateException("key vault writer is closed");
+            }
+            // Only seal a full block once we know it is not the last
+            if (!plain.hasRemaining()) {
+                seal(false);
+            }
+            plain.putLong(k0).putLong(k1);
+        }
+
+        private void seal(boolean last) throws IOException {
+            random.nextBytes(nonce);
+            setBlockAad(aad, blockIndex, last);
+            ((Buffer) plain).flip();
+            ((Buffer) sealed).clear();
+            try {
+                cipher.init(Cipher.ENCRYPT_MODE, vaultKey,
+                        new GCMParameterSpec(TAG_BYTES * 8, nonce));
+                cipher.updateAAD(aad);
+                cipher.doFinal(plain, sealed);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+            ((Buffer) sealed).flip();
+            ByteBuffer[] block = {ByteBuffer.wrap(nonce), sealed};
+            while (block[1].hasRemaining()) {
+                channel.write(block);
+            }
+
+            ((Buffer) plain).clear();
+            while (plain.hasRemaining()) {
+                plain.putLong(0);
+            }
+            ((Buffer) plain).clear();
+            blockIndex++;
+        }
+
+        /**
+         * Seal the last block and write the vault to storage.
+         */
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                seal(true);
+                channel.force(false);
+            } finally {
+                file.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.angaza.nexus.keycode;
+
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.angaza.nexus.keycode.exceptions.BaseException;
+import com.angaza.nexus.keycode.exceptions.UnsupportedMessageTypeException;
+
+/**
+ * Generates many keycodes in parallel on a {@link ForkJoinPool}.
+ * <p>
+ * Each request is encoded exactly as the matching {@link KeycodeFactory} call would encode it,
+ * and results are returned in input order. A request that cannot be encoded (unsupported
+ * protocol, message ID or amount, malformed key...) yields a failed {@link Result} carrying the
+ * exception instead of failing the whole batch.
+ * <p>
+ * The pool is supplied, and shut down, by the caller, e.g. {@code ForkJoinPool.commonPool()}
+ * (Java 8+) or a pool the application owns.
+ * <pre>
+ *     {@code
+ *     KeycodeBatch batch = new KeycodeBatch(pool);
+ *     List<KeycodeBatch.Result> results = batch.generate(Arrays.asList(
+ *             KeycodeBatch.Request.addCredit(now, 42, key1, KeycodeProtocol.FULL, 86400),
+ *             KeycodeBatch.Request.unlock(7, key2, KeycodeProtocol.SMALL)));
+ *     }
+ * </pre>
+ */
+public final class KeycodeBatch {
+    private static final int DEFAULT_LEAF_SIZE = 64;
+
+    private final ForkJoinPool pool;
+    private final int leafSize;
+
+    /**
+     * @param pool pool to run batches on; owned by the caller, who shuts it down
+     */
+    public KeycodeBatch(ForkJoinPool pool) {
+        this(pool, DEFAULT_LEAF_SIZE);
+    }
+
+    /**
+     * @param pool     pool to run batches on
+     * @param leafSize number of requests below which a task encodes sequentially instead of
+     *                 splitting further
+     */
+    public KeycodeBatch(ForkJoinPool pool, int leafSize) {
+        if (pool == null) {
+            throw new NullPointerException("pool");
+        }
+        if (leafSize <= 0) {
+            throw new IllegalArgumentException("leaf size must be positive");
+        }
+        this.pool = pool;
+        this.leafSize = leafSize;
+    }
+
+    /**
+     * @param requests keycodes to generate
+     * @return one result per request, in the same order
+     */
+    public Result[] generate(Request[] requests) {
+        Result[] results = new Result[requests.length];
+        if (requests.length > 0) {
+            pool.invoke(new GenerateTask(requests, results, 0, requests.length));
+        }
+        return results;
+    }
+
+    /**
+     * @param requests keycodes to generate
+     * @return one result per request, in the same order
+     */
+    public List<Result> generate(List<Request> requests) {
+        return Arrays.asList(generate(requests.toArray(new Request[requests.size()])));
+    }
+
+    /**
+     * Encode a single request on the calling thread, capturing any failure in the result.
+     */
+    public static Result generate(Request request) {
+        try {
+            final KeycodeMetadata metadata;
+            if (KeycodeData.ADD.equals(request.type)) {
+                metadata = KeycodeFactory.addCredit(
+                        request.clampedTime,
+                        request.messageId,
+                        request.secretKey,
+                        request.keycodeProtocol,
+                        request.seconds);
+            } else if (KeycodeData.UNLOCK.equals(request.type)) {
+                metadata = KeycodeFactory.unlock(
+                        request.messageId,
+                        request.secretKey,
+                        request.keycodeProtocol);
+            } else {
+                throw new UnsupportedMessageTypeException("unsupported message type");
+            }
+            return new Result(metadata, null);
+        } catch (IOException e) {
+            return new Result(null, e);
+        } catch (BaseException e) {
+            return new Result(null, e);
+        } catch (RuntimeException e) {
+            // e.g. a secret key that is not 16 bytes, or a missing clamped time
+            return new Result(null, e);
+        }
+    }
+
+    private final class GenerateTask extends RecursiveAction {
+        private final Request[] requests;
+        private final Result[] results;
+        private final int from;
+        private final int to;
+
+        GenerateTask(Request[] requests, Result[] results, int from, int to) {
+            this.requests = requests;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= leafSize) {
+                for (int i = from; i < to; i++) {
+                    results[i] = generate(requests[i]);
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(
+                        new GenerateTask(requests, results, from, middle),
+                        new GenerateTask(requests, results, middle, to));
+            }
+        }
+    }
+
+    /**
+     * One keycode to generate; immutable.
+     */
+    public static final class Request {
+        private final String type;
+        private final Date clampedTime;
+        private final int messageId;
+        private final byte[] secretKey;
+        private final String keycodeProtocol;
+        private final long seconds;
+
+        /**
+         * @param type            {@link KeycodeData#ADD} or {@link KeycodeData#UNLOCK}
+         * @param clampedTime     base time for the new disabled time; required for ADD
+         * @param messageId       the message id to be sent to the device
+         * @param secretKey       the secret key of the device
+         * @param keycodeProtocol the specific keycode protocol to use
+         * @param seconds         the credit to add; ignored for UNLOCK
+         */
+        public Request(
+                String type,
+                Date clampedTime,
+                int messageId,
+                byte[] secretKey,
+                String keycodeProtocol,
+                long seconds) {
+            this.type = type;
+            this.clampedTime = clampedTime;
+            this.messageId = messageId;
+            this.secretKey = secretKey;
+            this.keycodeProtocol = keycodeProtocol;
+            this.seconds = seconds;
+        }
+
+        /**
+         * @see KeycodeFactory#addCredit(Date, int, byte[], String, long)
+         */
+        public static Request addCredit(
+                Date clampedTime,
+                int messageId,
+                byte[] secretKey,
+                String keycodeProtocol,
+                long seconds) {
+            return new Request(
+                    KeycodeData.ADD, clampedTime, messageId, secretKey, keycodeProtocol, seconds);
+        }
+
+        /**
+         * @see KeycodeFactory#unlock(int, byte[], String)
+         */
+        public static Request unlock(int messageId, byte[] secretKey, String keycodeProtocol) {
+            return new Request(
+                    KeycodeData.UNLOCK, null, messageId, secretKey, keycodeProtocol, 0);
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public Date getClampedTime() {
+            return clampedTime;
+        }
+
+        public int getMessageId() {
+            return messageId;
+        }
+
+        public byte[] getSecretKey() {
+            return secretKey;
+        }
+
+        public String getKeycodeProtocol() {
+            return keycodeProtocol;
+        }
+
+        public long getSeconds() {
+            return seconds;
+        }
+    }
+
+    /**
+     * Outcome of one request: either its keycode metadata or the reason it failed.
+     */
+    public static final class Result {
+        private final KeycodeMetadata keycodeMetadata;
+        private final Exception error;
+
+        Result(KeycodeMetadata keycodeMetadata, Exception error) {
+            this.keycodeMetadata = keycodeMetadata;
+            this.error = error;
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+
+        /**
+         * @return the generated keycode, or null if the request failed
+         */
+        public KeycodeMetadata getKeycodeMetadata() {
+            return keycodeMetadata;
+        }
+
+        /**
+         * @return why the request failed, or null if it succeeded
+         */
+        public Exception getError() {
+            return error;
+        }
+    }
+}
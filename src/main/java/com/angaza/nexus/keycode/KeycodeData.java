@@ -8,6 +8,7 @@ public final class KeycodeData {
     private final long seconds;
 
     public static final String ADD = "ADD";
+    public static final String SET = "SET";
     public static final String UNLOCK = "UNLOCK";
 
     public final String getType() {
@@ -82,6 +82,29 @@ public class KeycodeFactory {
         );
     }
 
+    /**
+     * Add credit with the base time in epoch milliseconds. The new disabled time is the same as
+     * {@link #addCredit(Date, int, byte[], String, long)} computes with a {@code Calendar} in the
+     * default time zone, but with plain arithmetic.
+     *
+     * @param clampedTimeMillis the base time for calculating the new disabled time for the
+     *                          device, in epoch milliseconds; equals max(now, device's
+     *                          disableWhen)
+     * @see #addCredit(Date, int, byte[], String, long)
+     */
+    public static CreditMetadata addCredit(
+            long clampedTimeMillis,
+            int messageId,
+            byte[] secretKey,
+            String keycodeProtocol,
+            long seconds
+    ) throws IOException, UnsupportedKeyMappingException, UnsupportedMessageDaysException,
+            UnsupportedMessageIdException, UnsupportedMessageTypeException,
+            UnsupportedProtocolException {
+        return new DeviceKeycodeEncoder(secretKey, keycodeProtocol)
+                .addCredit(clampedTimeMillis, messageId, seconds);
+    }
+
     public static KeycodeMetadata unlock(
             int messageId,
             byte[] secretKey,
@@ -0,0 +1,376 @@
+package com.angaza.nexus.keycode;
+
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+import com.angaza.nexus.keycode.exceptions.UnsupportedKeyMappingException;
+
+/**
+ * Precompiled keycode rendering profile; immutable and thread-safe.
+ * <p>
+ * A format fixes the protocol and every rendering option (prefix, suffix, separator, group
+ * length and, for the small protocol, key mapping), validated once at construction. It renders
+ * packed keycodes straight into a caller-supplied {@code char[]}, {@link CharBuffer},
+ * {@link Appendable} or ASCII {@link ByteBuffer} without creating intermediate strings:
+ * <ul>
+ * <li>small protocol: the 28 obscured message bits, see
+ * {@link com.angaza.nexus.keycode.small.BaseSmallMessage#obscuredBits()}</li>
+ * <li>full protocol: the 14 obscured keycode digits as one decimal number, see
+ * {@link com.angaza.nexus.keycode.full.BaseFullMessage#obscuredDigits()}</li>
+ * </ul>
+ * Output is identical to the corresponding {@code toKeycode} method of the messages. The
+ * factories return {@link #FULL} or {@link #SMALL}, or the format they last created, when
+ * asked for the same options again, so repeated calls with fixed options allocate nothing.
+ */
+public final class KeycodeFormat {
+    /**
+     * Default full protocol format, e.g. "*885 190 556 639 04#".
+     */
+    public static final KeycodeFormat FULL = full("*", "#", " ", 3);
+
+    /**
+     * Default small protocol format, e.g. "122 425 324 553 555".
+     */
+    public static final KeycodeFormat SMALL = small(
+            "1", " ", 3, new char[][]{{'2'}, {'3'}, {'4'}, {'5'}});
+
+    private static final int KEYCODE_DIGITS = 14;
+    private static final long MAX_FULL_KEYCODE = 99999999999999L;
+    private static final long MAX_SMALL_KEYCODE = (1L << 28) - 1;
+
+    // Shared by all formats; grown to the longest keycode rendered on each thread
+    private static final ThreadLocal<char[]> SCRATCH = new ThreadLocal<char[]>() {
+        @Override
+        protected char[] initialValue() {
+            return new char[32];
+        }
+    };
+
+    // Most recently created format per protocol; callers usually repeat the same options
+    private static volatile KeycodeFormat lastFull;
+    private static volatile KeycodeFormat lastSmall;
+
+    private final boolean small;
+    private final char[] prefix;
+    private final char[] suffix;
+    private final char[] separator;
+    private final int groupLen;
+    private final char[][] keyMapping;
+    private final int maxLength;
+    private final boolean ascii;
+
+    private KeycodeFormat(
+            boolean small,
+            String prefix,
+            String suffix,
+            String separator,
+            int groupLen,
+            char[][] keyMapping) {
+        if (groupLen < 1) {
+            throw new IllegalArgumentException("group length must be positive");
+        }
+        this.small = small;
+        this.prefix = prefix.toCharArray();
+        this.suffix = suffix.toCharArray();
+        this.separator = separator.toCharArray();
+        this.groupLen = groupLen;
+        this.keyMapping = keyMapping;
+
+        int widestKey = 1;
+        boolean ascii = isAscii(this.prefix) && isAscii(this.suffix) && isAscii(this.separator);
+        if (keyMapping != null) {
+            for (char[] key : keyMapping) {
+                widestKey = Math.max(widestKey, key.length);
+                ascii &= isAscii(key);
+            }
+        }
+        // At most one separator before each small digit, or between each full digit
+        this.maxLength = this.prefix.length + this.suffix.length
+                + KEYCODE_DIGITS * widestKey + KEYCODE_DIGITS * this.separator.length;
+        this.ascii = ascii;
+    }
+
+    /**
+     * Create a full protocol format.
+     *
+     * @param prefix    keycode start characters, e.g., "*"
+     * @param suffix    keycode end characters, e.g., "#"
+     * @param separator inter-group separating characters, e.g., "-"
+     * @param groupLen  number of digits in each separated group
+     * @return the format, possibly shared
+     * @throws IllegalArgumentException when the group length is not positive
+     */
+    public static KeycodeFormat full(String prefix, String suffix, String separator, int groupLen) {
+        KeycodeFormat last = lastFull;
+        if (last != null && last.matches(prefix, suffix, separator, groupLen, null)) {
+            return last;
+        }
+        // FULL itself is created here during class initialization
+        if (FULL != null && FULL.matches(prefix, suffix, separator, groupLen, null)) {
+            return FULL;
+        }
+        KeycodeFormat format = new KeycodeFormat(false, prefix, suffix, separator, groupLen, null);
+        lastFull = format;
+        return format;
+    }
+
+    /**
+     * Create a small protocol format.
+     *
+     * @param prefix     keycode start characters, e.g., "1"
+     * @param separator  inter-group separating characters, e.g., "-"
+     * @param groupLen   number of characters in each separated group
+     * @param keyMapping four element list mapping indexes [0,1,2,3] to character keys; null
+     *                   for the physical keypad mapping 2, 3, 4, 5
+     * @return the format, possibly shared
+     * @throws UnsupportedKeyMappingException when the key mapping does not have four keys
+     * @throws IllegalArgumentException       when the group length is not positive
+     */
+    public static KeycodeFormat small(
+            String prefix, String separator, int groupLen, String[] keyMapping)
+            throws UnsupportedKeyMappingException {
+        if (keyMapping != null && keyMapping.length != 4) {
+            throw new UnsupportedKeyMappingException("Key mapping required for [0, 1, 2, 3]");
+        }
+        KeycodeFormat last = lastSmall;
+        if (last != null && last.matches(prefix, "", separator, groupLen, keyMapping)) {
+            return last;
+        }
+        if (SMALL.matches(prefix, "", separator, groupLen, keyMapping)) {
+            return SMALL;
+        }
+        char[][] keys = SMALL.keyMapping;
+        if (keyMapping != null) {
+            keys = new char[4][];
+            for (int i = 0; i < 4; i++) {
+                if (keyMapping[i] == null) {
+                    throw new UnsupportedKeyMappingException(
+                            "Key mapping required for [0, 1, 2, 3]");
+                }
+                keys[i] = keyMapping[i].toCharArray();
+            }
+        }
+        KeycodeFormat format = small(prefix, separator, groupLen, keys);
+        lastSmall = format;
+        return format;
+    }
+
+    private static KeycodeFormat small(
+            String prefix, String separator, int groupLen, char[][] keyMapping) {
+        return new KeycodeFormat(true, prefix, "", separator, groupLen, keyMapping);
+    }
+
+    /**
+     * @return {@link KeycodeProtocol#SMALL} or {@link KeycodeProtocol#FULL}
+     */
+    public String getKeycodeProtocol() {
+        return small ? KeycodeProtocol.SMALL : KeycodeProtocol.FULL;
+    }
+
+    /**
+     * @return the most characters any keycode rendered with this format can take
+     */
+    public int maxLength() {
+        return maxLength;
+    }
+
+    /**
+     * @param keycode packed keycode for this format's protocol
+     * @return the rendered keycode string
+     */
+    public String toKeycode(long keycode) {
+        char[] scratch = scratch();
+        return new String(scratch, 0, write(keycode, scratch, 0));
+    }
+
+    /**
+     * Render a keycode into {@code dst} starting at {@code offset}.
+     *
+     * @param keycode packed keycode for this format's protocol
+     * @return number of characters written
+     * @throws IndexOutOfBoundsException when the keycode does not fit; nothing is written
+     */
+    public int render(long keycode, char[] dst, int offset) {
+        if (offset >= 0 && dst.length - offset >= maxLength) {
+            return write(keycode, dst, offset);
+        }
+        char[] scratch = scratch();
+        int length = write(keycode, scratch, 0);
+        if (offset < 0 || dst.length - offset < length) {
+            throw new IndexOutOfBoundsException("keycode does not fit at offset " + offset);
+        }
+        System.arraycopy(scratch, 0, dst, offset, length);
+        return length;
+    }
+
+    /**
+     * Render a keycode at the position of {@code dst}, advancing it.
+     *
+     * @param keycode packed keycode for this format's protocol
+     * @return number of characters written
+     * @throws BufferOverflowException when the keycode does not fit; nothing is written
+     */
+    public int render(long keycode, CharBuffer dst) {
+        if (dst.hasArray() && dst.remaining() >= maxLength) {
+            int length = write(keycode, dst.array(), dst.arrayOffset() + dst.position());
+            ((Buffer) dst).position(dst.position() + length);
+            return length;
+        }
+        char[] scratch = scratch();
+        int length = write(keycode, scratch, 0);
+        dst.put(scratch, 0, length);
+        return length;
+    }
+
+    /**
+     * Render a keycode as ASCII bytes at the position of {@code dst}, advancing it.
+     *
+     * @param keycode packed keycode for this format's protocol
+     * @return number of bytes written
+     * @throws BufferOverflowException when the keycode does not fit; nothing is written
+     * @throws IllegalStateException   when this format contains non-ASCII characters
+     */
+    public int render(long keycode, ByteBuffer dst) {
+        if (!ascii) {
+            throw new IllegalStateException("keycode format is not ASCII");
+        }
+        char[] scratch = scratch();
+        int length = write(keycode, scratch, 0);
+        if (dst.remaining() < length) {
+            throw new BufferOverflowException();
+        }
+        for (int i = 0; i < length; i++) {
+            dst.put((byte) scratch[i]);
+        }
+        return length;
+    }
+
+    /**
+     * Append a rendered keycode to {@code dst}, e.g. a {@link StringBuilder} or
+     * {@link java.io.Writer}.
+     *
+     * @param keycode packed keycode for this format's protocol
+     * @return number of characters appended
+     * @throws IOException when {@code dst} fails
+     */
+    public int render(long keycode, Appendable dst) throws IOException {
+        char[] scratch = scratch();
+        int length = write(keycode, scratch, 0);
+        for (int i = 0; i < length; i++) {
+            dst.append(scratch[i]);
+        }
+        return length;
+    }
+
+    // Whether this format was created from these options; a null key mapping is the default
+    private boolean matches(
+            String prefix, String suffix, String separator, int groupLen, String[] keyMapping) {
+        if (groupLen != this.groupLen
+                || !sameChars(this.prefix, prefix)
+                || !sameChars(this.suffix, suffix)
+                || !sameChars(this.separator, separator)) {
+            return false;
+        }
+        if (!small) {
+            return true;
+        }
+        if (keyMapping == null) {
+            return Arrays.deepEquals(this.keyMapping, SMALL.keyMapping);
+        }
+        for (int i = 0; i < 4; i++) {
+            if (!sameChars(this.keyMapping[i], keyMapping[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean sameChars(char[] chars, String s) {
+        if (s == null || s.length() != chars.length) {
+            return false;
+        }
+        for (int i = 0; i < chars.length; i++) {
+            if (s.charAt(i) != chars[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private char[] scratch() {
+        char[] scratch = SCRATCH.get();
+        if (scratch.length < maxLength) {
+            scratch = new char[maxLength];
+            SCRATCH.set(scratch);
+        }
+        return scratch;
+    }
+
+    // Requires maxLength chars of room at offset
+    private int write(long keycode, char[] dst, int offset) {
+        return small ? writeSmall(keycode, dst, offset) : writeFull(keycode, dst, offset);
+    }
+
+    private int writeSmall(long keycode, char[] dst, int offset) {
+        if (keycode < 0 || keycode > MAX_SMALL_KEYCODE) {
+            throw new IllegalArgumentException("not a packed small keycode: " + keycode);
+        }
+        int pos = offset;
+        pos = put(prefix, dst, pos);
+        // Matches BaseSmallMessage.toKeycode, which groups by rendered length excluding a count
+        // of one per separator added, rather than by digits
+        int groupedLength = prefix.length;
+        // Most significant 2-bit digit first
+        for (int shift = 2 * (KEYCODE_DIGITS - 1); shift >= 0; shift -= 2) {
+            if (groupedLength % groupLen == 0) {
+                pos = put(separator, dst, pos);
+                groupedLength += separator.length - 1;
+            }
+            char[] key = keyMapping[(int) (keycode >>> shift) & 0x3];
+            pos = put(key, dst, pos);
+            groupedLength += key.length;
+        }
+        return pos - offset;
+    }
+
+    private int writeFull(long keycode, char[] dst, int offset) {
+        if (keycode < 0 || keycode > MAX_FULL_KEYCODE) {
+            throw new IllegalArgumentException("not a packed full keycode: " + keycode);
+        }
+        int pos = offset;
+        pos = put(prefix, dst, pos);
+        pos += KEYCODE_DIGITS + separator.length * ((KEYCODE_DIGITS - 1) / groupLen);
+        int end = pos;
+        // Fill digits and separators from the least significant digit backwards
+        long remaining = keycode;
+        for (int i = KEYCODE_DIGITS - 1; i >= 0; i--) {
+            dst[--pos] = (char) ('0' + remaining % 10);
+            remaining /= 10;
+            if (i > 0 && i % groupLen == 0) {
+                pos -= separator.length;
+                System.arraycopy(separator, 0, dst, pos, separator.length);
+            }
+        }
+        end = put(suffix, dst, end);
+        return end - offset;
+    }
+
+    private static int put(char[] chars, char[] dst, int pos) {
+        System.arraycopy(chars, 0, dst, pos, chars.length);
+        return pos + chars.length;
+    }
+
+    private static boolean isAscii(char[] chars) {
+        for (char c : chars) {
+            if (c > 0x7f) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,12 @@
+package com.angaza.nexus.keycode;
+
+
+/**
+ * Kind of credit change a keycode makes; each {@link #name()} equals the matching
+ * {@link KeycodeData} type string.
+ */
+public enum KeycodeType {
+    ADD,
+    SET,
+    UNLOCK
+}
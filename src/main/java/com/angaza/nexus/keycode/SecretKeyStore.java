@@ -0,0 +1,318 @@
+package com.angaza.nexus.keycode;
+
+
+import com.github.emboss.siphash.SipKey;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only store of device secret keys in a memory-mapped file; thread-safe.
+ * <p>
+ * The file holds one 16-byte record per device, indexed by a dense device ordinal: record
+ * {@code n} starts at byte {@code 16 * n} and holds the raw secret key. Keys are read straight
+ * from the mapping into {@link SipKey} key words, so a fleet of millions of keys costs no heap
+ * beyond the keys in use, and opening the store is immediate. Build the file with
+ * {@link #importHexCsv(InputStream, File)}.
+ * <p>
+ * A single mapping limits the store to about 134 million keys.
+ */
+public final class SecretKeyStore {
+    /**
+     * Bytes per key record.
+     */
+    public static final int RECORD_BYTES = 16;
+
+    private static final int STAGING_RECORDS = 4096;
+
+    private final ByteBuffer records;
+    private final int keyCount;
+
+    private SecretKeyStore(ByteBuffer records) {
+        this.records = records.order(ByteOrder.LITTLE_ENDIAN);
+        this.keyCount = records.capacity() / RECORD_BYTES;
+    }
+
+    /**
+     * Map a key store file.
+     *
+     * @param storeFile file of 16-byte key records
+     * @return the store
+     * @throws IOException when the file cannot be mapped or is not whole records
+     */
+    public static SecretKeyStore open(File storeFile) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(storeFile, "r");
+        try {
+            long length = file.length();
+            if (length % RECORD_BYTES != 0 || length > Integer.MAX_VALUE) {
+                throw new IOException("not a secret key store: " + storeFile);
+            }
+            return new SecretKeyStore(
+                    file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length));
+        } finally {
+            // The mapping stays valid after the file is closed
+            file.close();
+        }
+    }
+
+    /**
+     * @return number of key records, i.e. one more than the highest device ordinal
+     */
+    public int getKeyCount() {
+        return keyCount;
+    }
+
+    /**
+     * @param ordinal device ordinal
+     * @return the device's decoded secret key, read from the mapping without a byte[] copy
+     */
+    public SipKey getKey(int ordinal) {
+        int offset = offset(ordinal);
+        return new SipKey(records.getLong(offset), records.getLong(offset + 8));
+    }
+
+    /**
+     * @param ordinal device ordinal
+     * @return the first key word of the device's key, see {@link SipKey#getLeftHalf()}
+     */
+    public long getLeftHalf(int ordinal) {
+        return records.getLong(offset(ordinal));
+    }
+
+    /**
+     * @param ordinal device ordinal
+     * @return the second key word of the device's key, see {@link SipKey#getRightHalf()}
+     */
+    public long getRightHalf(int ordinal) {
+        return records.getLong(offset(ordinal) + 8);
+    }
+
+    /**
+     * Read the key words of {@code count} consecutive devices, e.g. for
+     * {@link ColumnarKeycodeEncoder}.
+     *
+     * @param fromOrdinal first device ordinal
+     * @param count       number of devices
+     * @param k0          receives the first key words from index {@code offset}
+     * @param k1          receives the second key words from index {@code offset}
+     * @param offset      first index written in {@code k0} and {@code k1}
+     */
+    public void readKeyWords(int fromOrdinal, int count, long[] k0, long[] k1, int offset) {
+        if (count < 0 || fromOrdinal < 0 || fromOrdinal > keyCount - count) {
+            throw new IndexOutOfBoundsException(
+                    "no keys [" + fromOrdinal + ", " + (fromOrdinal + count) + ")");
+        }
+        int position = fromOrdinal * RECORD_BYTES;
+        for (int i = 0; i < count; i++) {
+            k0[offset + i] = records.getLong(position);
+            k1[offset + i] = records.getLong(position + 8);
+            position += RECORD_BYTES;
+        }
+    }
+
+    private int offset(int ordinal) {
+        if (ordinal < 0 || ordinal >= keyCount) {
+            throw new IndexOutOfBoundsException("no key for device " + ordinal);
+        }
+        return ordinal * RECORD_BYTES;
+    }
+
+    /**
+     * Import keys from CSV into a key store file, creating it or overwriting the imported
+     * records.
+     * <p>
+     * Each line is {@code ordinal,key}: the device ordinal in decimal and its 16-byte secret
+     * key as 32 hex digits, e.g. {@code 42,abababababababababababababababab}. Blank lines, a
+     * header line and spaces around fields are ignored; ordinals need not be in order, though
+     * sorted input is written in large sequential blocks. Devices missing from the input are
+     * left as all-zero records. The input is decoded byte by byte, without per-key strings.
+     *
+     * @param csv       CSV input, ASCII (a leading UTF-8 byte order mark is skipped); buffered
+     *                  internally
+     * @param storeFile key store file to write
+     * @return number of keys imported
+     * @throws IOException when the input is malformed or the file cannot be written
+     */
+    public static int importHexCsv(InputStream csv, File storeFile) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(storeFile, "rw");
+        try {
+            FileChannel channel = file.getChannel();
+            ByteBuffer staging = ByteBuffer
+                    .allocateDirect(STAGING_RECORDS * RECORD_BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            CsvScanner scanner = new CsvScanner(csv);
+            long stagedFrom = 0;
+            int imported = 0;
+            while (scanner.nextRecord()) {
+                long ordinal = scanner.ordinal;
+                if (ordinal * RECORD_BYTES > Integer.MAX_VALUE - RECORD_BYTES) {
+                    throw new IOException("line " + scanner.line + ": ordinal too large");
+                }
+                // Keep staging while ordinals are consecutive
+                if (staging.position() > 0
+                        && (ordinal != stagedFrom + staging.position() / RECORD_BYTES
+                        || !staging.hasRemaining())) {
+                    write(channel, staging, stagedFrom);
+                }
+                if (staging.position() == 0) {
+                    stagedFrom = ordinal;
+                }
+                staging.putLong(scanner.k0).putLong(scanner.k1);
+                imported++;
+            }
+            if (staging.position() > 0) {
+                write(channel, staging, stagedFrom);
+            }
+            channel.force(false);
+            return imported;
+        } finally {
+            file.close();
+        }
+    }
+
+    private static void write(FileChannel channel, ByteBuffer staging, long fromOrdinal)
+            throws IOException {
+        ((Buffer) staging).flip();
+        long position = fromOrdinal * RECORD_BYTES;
+        while (staging.hasRemaining()) {
+            position += channel.write(staging, position);
+        }
+        ((Buffer) staging).clear();
+    }
+
+    /**
+     * Streaming parser of {@code ordinal,hexkey} lines.
+     */
+    private static final class CsvScanner {
+        private final InputStream in;
+        private final byte[] buffer = new byte[64 * 1024];
+        private int position;
+        private int limit;
+
+        int line;
+        long ordinal;
+        long k0;
+        long k1;
+
+        CsvScanner(InputStream in) {
+            this.in = in;
+        }
+
+        private int read() throws IOException {
+            if (position == limit) {
+                limit = in.read(buffer, 0, buffer.length);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return -1;
+                }
+            }
+            return buffer[position++] & 0xff;
+        }
+
+        // Read the next key line into ordinal, k0 and k1; false at end of input
+        boolean nextRecord() throws IOException {
+            while (true) {
+                line++;
+                int c = skipSpaces(read());
+                if (line == 1) {
+                    c = skipByteOrderMark(c);
+                }
+                if (c == -1) {
+                    return false;
+                }
+                if (c == '\n') {
+                    continue;
+                }
+                if (c < '0' || c > '9') {
+                    if (line == 1) {
+                        // Header
+                        skipLine(c);
+                        continue;
+                    }
+                    throw malformed("expected device ordinal");
+                }
+
+                ordinal = 0;
+                while (c >= '0' && c <= '9') {
+                    ordinal = ordinal * 10 + (c - '0');
+                    if (ordinal > Integer.MAX_VALUE) {
+                        throw malformed("ordinal too large");
+                    }
+                    c = read();
+                }
+                if (skipSpaces(c) != ',') {
+                    throw malformed("expected ','");
+                }
+
+                c = skipSpaces(read());
+                k0 = 0;
+                k1 = 0;
+                for (int i = 0; i < RECORD_BYTES; i++) {
+                    int high = hexValue(i == 0 ? c : read());
+                    int low = hexValue(read());
+                    long value = (long) ((high << 4) | low) << (8 * (i % 8));
+                    if (i < 8) {
+                        k0 |= value;
+                    } else {
+                        k1 |= value;
+                    }
+                }
+
+                c = skipSpaces(read());
+                if (c != '\n' && c != -1) {
+                    throw malformed("expected end of line after 32 hex digits");
+                }
+                return true;
+            }
+        }
+
+        // Skip a UTF-8 byte order mark, as spreadsheets write; reject UTF-16 input
+        private int skipByteOrderMark(int c) throws IOException {
+            if (c == 0xfe || c == 0xff) {
+                throw malformed("expected ASCII, found a UTF-16 byte order mark");
+            }
+            if (c != 0xef) {
+                return c;
+            }
+            if (read() != 0xbb || read() != 0xbf) {
+                throw malformed("expected ASCII");
+            }
+            return skipSpaces(read());
+        }
+
+        private int skipSpaces(int c) throws IOException {
+            while (c == ' ' || c == '\t' || c == '\r') {
+                c = read();
+            }
+            return c;
+        }
+
+        private void skipLine(int c) throws IOException {
+            while (c != '\n' && c != -1) {
+                c = read();
+            }
+        }
+
+        private int hexValue(int c) throws IOException {
+            if (c >= '0' && c <= '9') {
+                return c - '0';
+            } else if (c >= 'a' && c <= 'f') {
+                return c - 'a' + 10;
+            } else if (c >= 'A' && c <= 'F') {
+                return c - 'A' + 10;
+            }
+            throw malformed("expected 32 hex digits");
+        }
+
+        private IOException malformed(String reason) {
+            return new IOException("line " + line + ": " + reason);
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package com.angaza.nexus.keycode.exceptions;
+
+
+public class InvalidKeycodeException extends BaseException {
+    public InvalidKeycodeException(String detailMessage) {
+        super(detailMessage);
+    }
+}
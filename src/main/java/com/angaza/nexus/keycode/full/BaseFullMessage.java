@@ -5,12 +5,10 @@ import com.github.emboss.siphash.SipHash;
 import com.github.emboss.siphash.SipKey;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.util.Locale;
 
+import com.angaza.nexus.keycode.KeycodeFormat;
 import com.angaza.nexus.keycode.Message;
-import com.angaza.nexus.keycode.util.BitUtils;
 
 /**
  * Arbitrary Full keycode message; immutable.
@@ -18,9 +16,20 @@ import com.angaza.nexus.keycode.util.BitUtils;
  * @see FullMessage
  */
 public class BaseFullMessage implements Message {
-    final String body;
-    private final String mac;
-    final String header;
+    static final long MAC_MODULUS = 1000000L;
+    static final long BODY_MODULUS = 100000L;
+    private static final long[] POWERS_OF_TEN = new long[]{
+            1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L};
+
+    private static final int MAX_TYPE_CODE = 9;
+    private static final int MAX_BODY = 99999;
+    private static final long IRREGULAR = -1L;
+
+    // Header, body and MAC as one 14-digit number; IRREGULAR when they do not fit that layout
+    private final long digits;
+    // Header, body and MAC digit string of an irregular message; null otherwise
+    private final String irregularDigits;
+    private final int irregularBodyLength;
     final byte[] secretKey;
 
     /**
@@ -30,17 +39,120 @@ public class BaseFullMessage implements Message {
      * @param secretKey secret hash key (16 bytes)
      */
     public BaseFullMessage(int fullId, int typeCode, String body, byte[] secretKey) {
-        this.body = body;
-        int bodyInt = Integer.parseInt(body, 10);
-        this.mac = BaseFullMessage.generateMac(fullId, typeCode, bodyInt, secretKey);
-        this.header = new StringBuilder()
-                .append(String.format(Locale.ENGLISH, "%01d", typeCode))
-                // transmitted ID is 6-LSB (0x3F) of full ID
-                .append(String.format(Locale.ENGLISH, "%02d", fullId & 0x3f))
-                .toString();
+        this(fullId, typeCode, body, Integer.parseInt(body, 10),
+                SipKey.leftHalf(secretKey), SipKey.rightHalf(secretKey), secretKey);
+    }
+
+    /**
+     * @param fullId    integer value for the message ID
+     * @param typeCode  integer value for the message type
+     * @param body      string of arbitrary digits of message body
+     * @param secretKey decoded secret hash key; {@link #secretKey} is left null
+     */
+    public BaseFullMessage(int fullId, int typeCode, String body, SipKey secretKey) {
+        this(fullId, typeCode, body, Integer.parseInt(body, 10),
+                secretKey.getLeftHalf(), secretKey.getRightHalf(), null);
+    }
+
+    /**
+     * Create a message with a numeric body, kept as packed digits without string conversion.
+     *
+     * @param fullId    integer value for the message ID
+     * @param typeCode  integer value for the message type
+     * @param body      integer value of the message body, rendered as 5 digits
+     * @param secretKey secret hash key (16 bytes)
+     */
+    public BaseFullMessage(int fullId, int typeCode, int body, byte[] secretKey) {
+        this(fullId, typeCode, null, body,
+                SipKey.leftHalf(secretKey), SipKey.rightHalf(secretKey), secretKey);
+    }
+
+    /**
+     * Create a message with a numeric body, kept as packed digits without string conversion.
+     *
+     * @param fullId    integer value for the message ID
+     * @param typeCode  integer value for the message type
+     * @param body      integer value of the message body, rendered as 5 digits
+     * @param secretKey decoded secret hash key; {@link #secretKey} is left null
+     */
+    public BaseFullMessage(int fullId, int typeCode, int body, SipKey secretKey) {
+        this(fullId, typeCode, null, body, secretKey.getLeftHalf(), secretKey.getRightHalf(), null);
+    }
+
+    // body is null when given as an integer; rendered as "%05d"
+    private BaseFullMessage(
+            int fullId, int typeCode, String body, int bodyInt, long k0, long k1,
+            byte[] secretKey) {
+        int mac = generateMacValue(fullId, typeCode, bodyInt, k0, k1);
+        if (typeCode >= 0 && typeCode <= MAX_TYPE_CODE
+                && (body == null ? bodyInt >= 0 && bodyInt <= MAX_BODY : isFiveDigits(body))) {
+            this.digits = packDigits(fullId, typeCode, bodyInt, mac);
+            this.irregularDigits = null;
+            this.irregularBodyLength = 0;
+        } else {
+            // e.g. a multi-digit type code or more than 5 body digits; rare, so plain strings
+            if (body == null) {
+                body = String.format(Locale.ENGLISH, "%05d", bodyInt);
+            }
+            this.digits = IRREGULAR;
+            this.irregularDigits = new StringBuilder()
+                    .append(String.format(Locale.ENGLISH, "%01d", typeCode))
+                    // transmitted ID is 6-LSB (0x3F) of full ID
+                    .append(String.format(Locale.ENGLISH, "%02d", fullId & 0x3f))
+                    .append(body)
+                    .append(String.format(Locale.ENGLISH, "%06d", mac))
+                    .toString();
+            this.irregularBodyLength = body.length();
+        }
         this.secretKey = secretKey;
     }
 
+    private static boolean isFiveDigits(String body) {
+        if (body.length() != 5) {
+            return false;
+        }
+        for (int i = 0; i < 5; i++) {
+            char c = body.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Type code and transmitted message ID digits.
+     */
+    String header() {
+        if (digits == IRREGULAR) {
+            return irregularDigits.substring(
+                    0, irregularDigits.length() - 6 - irregularBodyLength);
+        }
+        return toDigits(digits / (BODY_MODULUS * MAC_MODULUS), 3);
+    }
+
+    /**
+     * Message body digits.
+     */
+    String body() {
+        if (digits == IRREGULAR) {
+            return irregularDigits.substring(
+                    irregularDigits.length() - 6 - irregularBodyLength,
+                    irregularDigits.length() - 6);
+        }
+        return toDigits((digits / MAC_MODULUS) % BODY_MODULUS, 5);
+    }
+
+    // Zero-padded decimal digits of a non-negative value
+    private static String toDigits(long value, int width) {
+        char[] chars = new char[width];
+        for (int i = width - 1; i >= 0; i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return new String(chars);
+    }
+
     /**
      * Generate the internal, *truncated* MAC digits for this message
      * MAC is generated over 9 total bytes:
@@ -49,14 +161,75 @@ public class BaseFullMessage implements Message {
      * 4 = contents of body
      */
     public static String generateMac(int fullId, int typeCode, int bodyInt, byte[] secretKey) {
-        ByteBuffer buffer = ByteBuffer.allocate(9);
-        buffer.order(ByteOrder.LITTLE_ENDIAN);
-        buffer.putInt(fullId);
-        buffer.put((byte) typeCode);
-        buffer.putInt(bodyInt);
-        long hash = SipHash.digest(new SipKey(secretKey), buffer.array());
-        String hashIntString = String.format(Locale.ENGLISH, "%06d", hash & 0xffffffffL);
-        return hashIntString.substring(hashIntString.length() - 6);
+        int mac = generateMacValue(
+                fullId,
+                typeCode,
+                bodyInt,
+                SipKey.leftHalf(secretKey),
+                SipKey.rightHalf(secretKey));
+        return toDigits(mac, 6);
+    }
+
+    /**
+     * Compute the truncated MAC for this message from decoded key words, without allocating.
+     * <p>
+     * The 9 MAC input bytes (little-endian full ID, type code, little-endian body) are packed
+     * into two SipHash message words.
+     *
+     * @param fullId   integer value for the message ID
+     * @param typeCode integer value for the message type
+     * @param bodyInt  integer value of the message body digits
+     * @param k0       first secret key word, see {@link SipKey#leftHalf(byte[])}
+     * @param k1       second secret key word, see {@link SipKey#rightHalf(byte[])}
+     * @return the 6 MAC digits as an integer, 0 to 999999
+     */
+    public static int generateMacValue(int fullId, int typeCode, int bodyInt, long k0, long k1) {
+        long hash = SipHash.digest(
+                k0,
+                k1,
+                macInputFirst(fullId, typeCode, bodyInt),
+                macInputSecond(bodyInt),
+                9);
+        return truncateMac(hash);
+    }
+
+    /**
+     * Compute the truncated MAC for this message, starting from the key-mixed SipHash state
+     * cached in {@code secretKey}.
+     *
+     * @see #generateMacValue(int, int, int, long, long)
+     */
+    public static int generateMacValue(int fullId, int typeCode, int bodyInt, SipKey secretKey) {
+        long hash = SipHash.digest(
+                secretKey,
+                macInputFirst(fullId, typeCode, bodyInt),
+                macInputSecond(bodyInt),
+                9);
+        return truncateMac(hash);
+    }
+
+    /**
+     * MAC input bytes 0-7 (full ID, type code, low 3 bytes of body) as a little-endian SipHash
+     * word, for computing many MACs at once with {@link com.github.emboss.siphash.SipHashLanes}.
+     */
+    public static long macInputFirst(int fullId, int typeCode, int bodyInt) {
+        return (fullId & 0xffffffffL)
+                | ((long) (typeCode & 0xff)) << 32
+                | ((long) (bodyInt & 0xffffff)) << 40;
+    }
+
+    /**
+     * MAC input byte 8 (high byte of body); the second SipHash word of the 9-byte input.
+     */
+    public static long macInputSecond(int bodyInt) {
+        return (bodyInt >>> 24) & 0xff;
+    }
+
+    /**
+     * The MAC kept from a SipHash digest: the last 6 decimal digits of its low 32 bits.
+     */
+    public static int truncateMac(long hash) {
+        return (int) ((hash & 0xffffffffL) % 1000000);
     }
 
     /**
@@ -67,6 +240,9 @@ public class BaseFullMessage implements Message {
      * <p>
      * The full-protocol obscure is a bitwise operation designed to be
      * easily reversible; simply call the same function with sign=-1.
+     * <p>
+     * The pseudorandom digit offsets are read from the memory-mapped {@link FullObscureTable}
+     * when one is enabled, and computed on demand otherwise.
      *
      * @param digits string of 14 decimal digits
      * @return the protocol message
@@ -75,43 +251,72 @@ public class BaseFullMessage implements Message {
         // MAC digits are last 6 of digits, use as seed
         String macString = digits.substring(digits.length() - 6);
         int mac = Integer.parseInt(macString);
-        byte[] macBits = ByteBuffer.allocate(4).putInt(mac).array();
 
-        // [0, 255] values; one for each body digit
+        // [0, 255] values; one for each body digit, packed most significant first
         // 8 body digits, 8 bytes (8 bits each), so 64 bits of output required
-        byte[] randomBitsReversed = BitUtils.pseudorandomBits(macBits, 64);
-        // Reverse result from pseudorandomBits to match the input array
-        byte[] randomBits = BitUtils.repackToBufferBottom(randomBitsReversed, 64);
-
-        // Create byte buffer where each of first 8 digits of input string has its own byte
-        ByteBuffer bodyBitsBuffer = ByteBuffer.allocate(8);
-        for (int i = 0; i < 8; i++) {
-            bodyBitsBuffer.put((byte) Integer.parseInt(digits.substring(i, i + 1)));
-        }
-        byte[] bodyBits = bodyBitsBuffer.array();
+        long randomBits = FullObscureTable.offsets(mac);
 
-        // Inject some deterministic randomness into our body digits by adding our
+        // Inject some deterministic randomness into the first 8 digits by adding our
         // previously-generated pseudo-random values to each digit, modulo 10 to ensure that each
         // value is still between 0 and 9, inclusive.
-        ByteBuffer outBitsBuffer = ByteBuffer.allocate(8);
+        StringBuilder obscuredDigits = new StringBuilder(digits.length());
         for (int i = 0; i < 8; i++) {
-            int prValue = (int) (randomBits[i] & 0xffL) * sign;
-            int outValue = bodyBits[i] + prValue;
-            outValue %= 10;
-            outBitsBuffer.put((byte) outValue);
+            int digit = Character.digit(digits.charAt(i), 10);
+            if (digit < 0) {
+                throw new NumberFormatException("For input string: \"" + digits + "\"");
+            }
+            int prValue = (int) ((randomBits >>> (56 - 8 * i)) & 0xffL) * sign;
+            obscuredDigits.append((digit + prValue) % 10);
         }
-        byte[] outBits = outBitsBuffer.array();
 
         // Concatenate new obscured digits with original last 6 digits
-        StringBuilder obscuredDigits = new StringBuilder();
-        for (byte digit : outBits) {
-            obscuredDigits.append(String.valueOf(digit));
-        }
         obscuredDigits.append(macString);
 
         return obscuredDigits.toString();
     }
 
+    /**
+     * Obscure a message held as a packed 14-digit decimal number.
+     * <p>
+     * Equivalent to {@link #obscure(String, int)} with {@code sign=1}, without any string
+     * conversion. With {@code sign=-1} each obscured digit is reduced into 0-9, so this form
+     * also deobscures.
+     *
+     * @param digits 14 decimal digits: 8 header and body digits followed by 6 MAC digits
+     * @param sign   1 to obscure, -1 to deobscure
+     * @return the obscured (or deobscured) 14 digits
+     */
+    public static long obscure(long digits, int sign) {
+        int mac = (int) (digits % MAC_MODULUS);
+        long offsets = FullObscureTable.offsets(mac);
+        long bodyDigits = digits / MAC_MODULUS;
+        long obscured = 0;
+        for (int i = 0; i < 8; i++) {
+            int digit = (int) ((bodyDigits / POWERS_OF_TEN[7 - i]) % 10);
+            int prValue = (int) ((offsets >>> (56 - 8 * i)) & 0xffL) * sign;
+            int outValue = (digit + prValue) % 10;
+            if (outValue < 0) {
+                outValue += 10;
+            }
+            obscured = obscured * 10 + outValue;
+        }
+        return obscured * MAC_MODULUS + mac;
+    }
+
+    /**
+     * Pack the unobscured message digits into a 14-digit decimal number.
+     *
+     * @param fullId   integer value for the message ID; only its 6 LSB are transmitted
+     * @param typeCode single-digit message type
+     * @param bodyInt  5-digit message body
+     * @param mac      6-digit MAC, see {@link #generateMacValue(int, int, int, long, long)}
+     * @return header, body and MAC digits packed as one number
+     */
+    public static long packDigits(int fullId, int typeCode, int bodyInt, int mac) {
+        long headerDigits = typeCode * 100L + (fullId & 0x3f);
+        return (headerDigits * BODY_MODULUS + bodyInt) * MAC_MODULUS + mac;
+    }
+
     /**
      * Render this message in keycode form.
      * <p>
@@ -132,17 +337,41 @@ public class BaseFullMessage implements Message {
      * @param suffix    keycode end character, e.g., "#"
      * @param separator inter-group separating character, e.g., "-"
      * @param groupLen  number of characters in each separated group
-     * @return the rendered keycode string
+     * @return the rendered keycode string; null options render as "null"
+     * @throws IllegalArgumentException when the group length is not positive
      */
     public String toKeycode(String prefix, String suffix, String separator, int groupLen) throws
             IOException {
-        String rawKeycode = new StringBuilder()
-                .append(header)
-                .append(body)
-                .append(mac)
-                .toString();
+        if (groupLen < 1) {
+            throw new IllegalArgumentException("group length must be positive");
+        }
+        if (digits != IRREGULAR) {
+            return KeycodeFormat.full(
+                    String.valueOf(prefix), String.valueOf(suffix), String.valueOf(separator),
+                    groupLen)
+                    .toKeycode(obscuredDigits());
+        }
+        return toKeycodeString(prefix, suffix, separator, groupLen);
+    }
+
+    /**
+     * The 14 obscured keycode digits as one decimal number, as rendered by
+     * {@link #toKeycode()}; see {@link #obscure(long, int)}.
+     *
+     * @throws IllegalStateException when the message is not a single-digit type code and
+     *                               5-digit body, and so has no 14-digit form
+     */
+    public long obscuredDigits() {
+        if (digits == IRREGULAR) {
+            throw new IllegalStateException("message does not have 14 digits");
+        }
+        return obscure(digits, 1);
+    }
 
-        String keycode = obscure(rawKeycode, 1);
+    // Any other header and body length, e.g. a multi-digit type code
+    private String toKeycodeString(String prefix, String suffix, String separator, int groupLen)
+            throws IOException {
+        String keycode = obscure(irregularDigits, 1);
 
         StringBuilder formattedKeycode = new StringBuilder();
 
@@ -162,6 +391,9 @@ public class BaseFullMessage implements Message {
 
     @Override
     public String toKeycode() throws IOException {
-        return toKeycode("*", "#", " ", 3);
+        if (digits != IRREGULAR) {
+            return KeycodeFormat.FULL.toKeycode(obscuredDigits());
+        }
+        return toKeycodeString("*", "#", " ", 3);
     }
 }
@@ -0,0 +1,157 @@
+package com.angaza.nexus.keycode.full;
+
+
+import com.github.emboss.siphash.SipKey;
+
+import com.angaza.nexus.keycode.exceptions.InvalidKeycodeException;
+
+/**
+ * Decoder and verifier of full protocol keycodes for one device; immutable and thread-safe.
+ * <p>
+ * A keycode is parsed back into its 14 digits and deobscured (see
+ * {@link BaseFullMessage#obscure(long, int)}), giving the type code, the 6 transmitted bits of
+ * the message ID, the body and the MAC. The full message ID is then recovered by checking the
+ * MAC of each ID in a window of candidates that shares those 6 bits.
+ * <p>
+ * For example, to verify a disputed keycode:
+ * <pre>
+ *     {@code
+ *     FullKeycodeDecoder decoder = new FullKeycodeDecoder(secretKey);
+ *     FullKeycodeDecoder.Decoded decoded = decoder.decode("*885 190 556 639 04#", 1100, 1300);
+ *     // decoded.getMessageId() == 1223, decoded.getTypeCode() == 0, decoded.getBody() == 993
+ *     }
+ * </pre>
+ */
+public final class FullKeycodeDecoder {
+    private static final int KEYCODE_DIGITS = 14;
+    private static final int MAX_MESSAGE_ID = 65534;
+    private static final int TRANSMITTED_ID_MODULUS = 0x40;
+
+    private final SipKey secretKey;
+
+    /**
+     * @param secretKey the secret key of the device (16 bytes)
+     */
+    public FullKeycodeDecoder(byte[] secretKey) {
+        this(new SipKey(secretKey));
+    }
+
+    /**
+     * @param secretKey the decoded secret key of the device
+     */
+    public FullKeycodeDecoder(SipKey secretKey) {
+        this.secretKey = secretKey;
+    }
+
+    /**
+     * Parse an entered keycode into its 14 digits, ignoring the "*" and "#" delimiters, spaces
+     * and dashes.
+     *
+     * @param keycode keycode as entered, e.g. "*885 190 556 639 04#" or "885-190-556-639-04"
+     * @return the (still obscured) digits as one decimal number
+     * @throws InvalidKeycodeException when the keycode holds other characters, or not 14 digits
+     */
+    public static long parse(CharSequence keycode) throws InvalidKeycodeException {
+        long digits = 0;
+        int count = 0;
+        for (int i = 0; i < keycode.length(); i++) {
+            char c = keycode.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (++count > KEYCODE_DIGITS) {
+                    throw new InvalidKeycodeException("keycode has more than 14 digits");
+                }
+                digits = digits * 10 + (c - '0');
+            } else if (c != '*' && c != '#' && c != '-' && !Character.isWhitespace(c)) {
+                throw new InvalidKeycodeException("unexpected character in keycode: " + c);
+            }
+        }
+        if (count != KEYCODE_DIGITS) {
+            throw new InvalidKeycodeException("keycode must have 14 digits");
+        }
+        return digits;
+    }
+
+    /**
+     * Decode a keycode whose message ID is expected in {@code [minId, maxId]}.
+     *
+     * @param keycode keycode as entered, see {@link #parse(CharSequence)}
+     * @param minId   lowest candidate full message ID (inclusive)
+     * @param maxId   highest candidate full message ID (inclusive)
+     * @return the decoded message, or null when no candidate ID matches the MAC
+     * @throws InvalidKeycodeException when the keycode cannot be parsed
+     */
+    public Decoded decode(CharSequence keycode, int minId, int maxId)
+            throws InvalidKeycodeException {
+        return decode(parse(keycode), minId, maxId);
+    }
+
+    /**
+     * Decode obscured keycode digits whose message ID is expected in {@code [minId, maxId]}.
+     *
+     * @param obscuredDigits 14 keycode digits, see {@link #parse(CharSequence)}
+     * @param minId          lowest candidate full message ID (inclusive)
+     * @param maxId          highest candidate full message ID (inclusive)
+     * @return the decoded message, or null when no candidate ID matches the MAC
+     */
+    public Decoded decode(long obscuredDigits, int minId, int maxId) {
+        if (minId < 0 || maxId > MAX_MESSAGE_ID || minId > maxId) {
+            throw new IllegalArgumentException(
+                    "invalid message ID window [" + minId + ", " + maxId + "]");
+        }
+        long digits = BaseFullMessage.obscure(obscuredDigits, -1);
+        int mac = (int) (digits % BaseFullMessage.MAC_MODULUS);
+        int body = (int) ((digits / BaseFullMessage.MAC_MODULUS) % BaseFullMessage.BODY_MODULUS);
+        int header = (int) (digits / (BaseFullMessage.MAC_MODULUS * BaseFullMessage.BODY_MODULUS));
+        int typeCode = header / 100;
+        int transmittedId = header % 100;
+        if (transmittedId >= TRANSMITTED_ID_MODULUS) {
+            // Not a 6-bit ID; mistyped or not a keycode for this protocol
+            return null;
+        }
+
+        // First ID in the window with the transmitted 6 LSB, then every 64th
+        int id = minId + ((transmittedId - minId) & (TRANSMITTED_ID_MODULUS - 1));
+        for (; id <= maxId; id += TRANSMITTED_ID_MODULUS) {
+            if (BaseFullMessage.generateMacValue(id, typeCode, body, secretKey) == mac) {
+                return new Decoded(id, typeCode, body);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A keycode that passed MAC verification; immutable.
+     */
+    public static final class Decoded {
+        private final int messageId;
+        private final int typeCode;
+        private final int body;
+
+        Decoded(int messageId, int typeCode, int body) {
+            this.messageId = messageId;
+            this.typeCode = typeCode;
+            this.body = body;
+        }
+
+        /**
+         * @return the full message ID
+         */
+        public int getMessageId() {
+            return messageId;
+        }
+
+        /**
+         * @return the message type, e.g. 0 to add credit or 1 to set credit
+         */
+        public int getTypeCode() {
+            return typeCode;
+        }
+
+        /**
+         * @return the 5-digit message body, e.g. hours of credit
+         */
+        public int getBody() {
+            return body;
+        }
+    }
+}
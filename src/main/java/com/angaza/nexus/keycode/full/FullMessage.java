@@ -1,7 +1,7 @@
 package com.angaza.nexus.keycode.full;
 
 
-import java.util.Locale;
+import com.github.emboss.siphash.SipKey;
 
 import com.angaza.nexus.keycode.exceptions.UnsupportedMessageIdException;
 
@@ -18,6 +18,30 @@ public class FullMessage extends BaseFullMessage {
         super(checkId(fullId), typeCode, body, secretKey);
     }
 
+    public FullMessage(
+            int fullId,
+            int typeCode,
+            String body,
+            SipKey secretKey) throws UnsupportedMessageIdException {
+        super(checkId(fullId), typeCode, body, secretKey);
+    }
+
+    public FullMessage(
+            int fullId,
+            int typeCode,
+            int body,
+            byte[] secretKey) throws UnsupportedMessageIdException {
+        super(checkId(fullId), typeCode, body, secretKey);
+    }
+
+    public FullMessage(
+            int fullId,
+            int typeCode,
+            int body,
+            SipKey secretKey) throws UnsupportedMessageIdException {
+        super(checkId(fullId), typeCode, body, secretKey);
+    }
+
     private static int checkId(int fullId) throws UnsupportedMessageIdException {
         if (fullId < 0 || fullId > 65534) {
             throw new UnsupportedMessageIdException("unsupported message ID");
@@ -40,7 +64,7 @@ public class FullMessage extends BaseFullMessage {
         return new FullMessage(
                 id,
                 ADD_CREDIT_TYPE_CODE,
-                String.format(Locale.ENGLISH, "%05d", hours),
+                hours,
                 secretKey);
     }
 
@@ -59,7 +83,7 @@ public class FullMessage extends BaseFullMessage {
         return new FullMessage(
                 id,
                 SET_CREDIT_TYPE_CODE,
-                String.format(Locale.ENGLISH, "%05d", hours),
+                hours,
                 secretKey);
     }
 
@@ -76,7 +100,62 @@ public class FullMessage extends BaseFullMessage {
         return new FullMessage(
                 id,
                 SET_CREDIT_TYPE_CODE,
-                String.format(Locale.ENGLISH, "%05d", UNLOCK_HOUR),
+                UNLOCK_HOUR,
+                secretKey);
+    }
+
+    /**
+     * Increase the device's enabled credit by a specified amount.
+     *
+     * @param id        message ID
+     * @param hours     number of enabled hours to add to the device
+     * @param secretKey device's decoded secret key
+     * @return message object for "add credit"
+     */
+    public static FullMessage addCredit(
+            int id,
+            int hours,
+            SipKey secretKey) throws UnsupportedMessageIdException {
+        return new FullMessage(
+                id,
+                ADD_CREDIT_TYPE_CODE,
+                hours,
+                secretKey);
+    }
+
+    /**
+     * Set the device's enabled credit to specified amount.
+     *
+     * @param id        message ID
+     * @param hours     number of enabled hours to set for a device
+     * @param secretKey device's decoded secret key
+     * @return message object for "set credit"
+     */
+    public static FullMessage setCredit(
+            int id,
+            int hours,
+            SipKey secretKey) throws UnsupportedMessageIdException {
+        return new FullMessage(
+                id,
+                SET_CREDIT_TYPE_CODE,
+                hours,
+                secretKey);
+    }
+
+    /**
+     * Unlock a device.
+     *
+     * @param id        message ID
+     * @param secretKey device's decoded secret key
+     * @return message object for "unlock"
+     */
+    public static FullMessage unlock(
+            int id,
+            SipKey secretKey) throws UnsupportedMessageIdException {
+        return new FullMessage(
+                id,
+                SET_CREDIT_TYPE_CODE,
+                UNLOCK_HOUR,
                 secretKey);
     }
 }
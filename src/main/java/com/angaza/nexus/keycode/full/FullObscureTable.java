@@ -0,0 +1,227 @@
+package com.angaza.nexus.keycode.full;
+
+
+import com.github.emboss.siphash.SipHash;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Precomputed full-protocol obscuring offsets, indexed by the 6-digit decimal MAC.
+ * <p>
+ * {@link BaseFullMessage#obscure(String, int)} seeds its pseudorandom digit offsets with the
+ * message MAC, so there are exactly 10^6 possible 8-byte offset vectors. {@link #write(File)}
+ * (or {@link #main(String[])} as a build step) precomputes all of them into an 8 MB binary file.
+ * Once that file is {@link #enable(File) enabled}, it is memory-mapped read-only and obscuring
+ * becomes a single read that every thread shares through the page cache. When no table is
+ * enabled, offsets are computed on demand.
+ * <p>
+ * The file starts with the magic "NXOT", a format version and a CRC-32 of the entries, all
+ * big-endian ints. Mapping checks them and compares a sample of entries with the computed
+ * offsets, so a stale or damaged file is refused rather than producing wrong keycodes.
+ * <p>
+ * The table may also be enabled at startup by setting the {@value #TABLE_PATH_PROPERTY} system
+ * property to the path of a table file; if that file cannot be used, a warning is logged and
+ * offsets are computed on demand.
+ */
+public final class FullObscureTable {
+    public static final String TABLE_PATH_PROPERTY = "com.angaza.nexus.keycode.full.obscureTable";
+    public static final int MAC_COUNT = 1000000;
+    public static final int ENTRY_BYTES = 8;
+
+    private static final int MAGIC = 0x4e584f54; // "NXOT"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 12;
+    private static final int WRITE_CHUNK_ENTRIES = 8192;
+    private static final int VERIFY_SAMPLE_STEP = 9973;
+
+    private static final Logger LOGGER = Logger.getLogger(FullObscureTable.class.getName());
+
+    private static volatile ByteBuffer table = mapFromProperty();
+
+    private FullObscureTable() {
+    }
+
+    private static ByteBuffer mapFromProperty() {
+        String path = System.getProperty(TABLE_PATH_PROPERTY);
+        if (path == null) {
+            return null;
+        }
+        try {
+            return map(new File(path));
+        } catch (IOException e) {
+            // Keycodes stay correct without the table; only the speed-up is lost
+            LOGGER.log(Level.WARNING, "cannot use full obscure table " + path
+                    + " from " + TABLE_PATH_PROPERTY + "; computing offsets on demand", e);
+            return null;
+        }
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            if (channel.size() != HEADER_BYTES + (long) MAC_COUNT * ENTRY_BYTES) {
+                throw new IOException("unexpected obscure table size: " + channel.size());
+            }
+            // The mapping stays valid after the channel is closed
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            verify(mapped);
+            ((Buffer) mapped).position(HEADER_BYTES);
+            return mapped.slice();
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private static void verify(ByteBuffer mapped) throws IOException {
+        if (mapped.getInt(0) != MAGIC) {
+            throw new IOException("not a full obscure table");
+        }
+        if (mapped.getInt(4) != VERSION) {
+            throw new IOException("unsupported full obscure table version " + mapped.getInt(4));
+        }
+        // Reading every entry once also pages the table in
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[WRITE_CHUNK_ENTRIES * ENTRY_BYTES];
+        ByteBuffer entries = mapped.duplicate();
+        ((Buffer) entries).position(HEADER_BYTES);
+        while (entries.hasRemaining()) {
+            int length = Math.min(chunk.length, entries.remaining());
+            entries.get(chunk, 0, length);
+            crc.update(chunk, 0, length);
+        }
+        if ((int) crc.getValue() != mapped.getInt(8)) {
+            throw new IOException("full obscure table checksum mismatch");
+        }
+        // A consistent file from a different offset derivation would pass the checksum
+        for (int mac = 0; mac < MAC_COUNT; mac += VERIFY_SAMPLE_STEP) {
+            if (mapped.getLong(HEADER_BYTES + mac * ENTRY_BYTES) != computeOffsets(mac)) {
+                throw new IOException("full obscure table does not match offsets for " + mac);
+            }
+        }
+    }
+
+    /**
+     * Memory-map a table file previously produced by {@link #write(File)} and use it for all
+     * subsequent obscuring.
+     *
+     * @param file table file
+     * @return true if the table was mapped, false if the file is absent and offsets will
+     *         continue to be computed on demand
+     * @throws IOException if the file exists but cannot be mapped, or is not a valid table
+     */
+    public static boolean enable(File file) throws IOException {
+        if (!file.isFile()) {
+            return false;
+        }
+        table = map(file);
+        return true;
+    }
+
+    /**
+     * Stop using any mapped table; offsets are computed on demand again.
+     */
+    public static void disable() {
+        table = null;
+    }
+
+    public static boolean isEnabled() {
+        return table != null;
+    }
+
+    /**
+     * Pseudorandom digit offsets for the given MAC.
+     * <p>
+     * The offset for body digit {@code i} (0-7) is {@code (offsets >>> (56 - 8 * i)) & 0xff}.
+     *
+     * @param mac integer value of the 6 MAC digits
+     * @return the 8 offsets packed most significant first
+     */
+    static long offsets(int mac) {
+        ByteBuffer current = table;
+        if (current != null && mac >= 0 && mac < MAC_COUNT) {
+            return current.getLong(mac * ENTRY_BYTES);
+        }
+        return computeOffsets(mac);
+    }
+
+    /**
+     * Compute digit offsets without the table.
+     * <p>
+     * Equivalent to packing {@code repackToBufferBottom(pseudorandomBits(macBits, 64), 64)}
+     * most significant byte first, where {@code macBits} is the big-endian MAC. For 64 bits the
+     * two repacks cancel out, leaving the little-endian bytes of the first pseudorandom block.
+     *
+     * @param mac integer value of the 6 MAC digits
+     * @return the 8 offsets packed most significant first
+     */
+    static long computeOffsets(int mac) {
+        // The first block digests counter byte 0 followed by the byte-reversed seed, i.e. the
+        // little-endian MAC: 5 bytes, under the all-zero key
+        long blockInput = (mac & 0xffffffffL) << 8;
+        return Long.reverseBytes(SipHash.digest(0L, 0L, blockInput, 5));
+    }
+
+    /**
+     * Precompute the offsets for all 10^6 MACs into a table file.
+     *
+     * @param file destination; overwritten if it exists
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(File file) throws IOException {
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            FileChannel channel = output.getChannel();
+            ByteBuffer chunk = ByteBuffer.allocate(WRITE_CHUNK_ENTRIES * ENTRY_BYTES);
+            CRC32 crc = new CRC32();
+            // Entries first, then the header once their checksum is known
+            channel.position(HEADER_BYTES);
+            for (int mac = 0; mac < MAC_COUNT; mac++) {
+                chunk.putLong(computeOffsets(mac));
+                if (!chunk.hasRemaining() || mac == MAC_COUNT - 1) {
+                    crc.update(chunk.array(), 0, chunk.position());
+                    ((Buffer) chunk).flip();
+                    writeFully(channel, chunk);
+                    ((Buffer) chunk).clear();
+                }
+            }
+            chunk.putInt(MAGIC).putInt(VERSION).putInt((int) crc.getValue());
+            ((Buffer) chunk).flip();
+            channel.position(0);
+            writeFully(channel, chunk);
+        } finally {
+            output.close();
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Build step entry point: write the table to the path given as the only argument.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("usage: FullObscureTable <output file>");
+            System.exit(2);
+        }
+        File file = new File(args[0]);
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("cannot create directory " + parent);
+        }
+        write(file);
+    }
+}
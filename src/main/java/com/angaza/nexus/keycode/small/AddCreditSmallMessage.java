@@ -1,6 +1,8 @@
 package com.angaza.nexus.keycode.small;
 
 
+import com.github.emboss.siphash.SipKey;
+
 import com.angaza.nexus.keycode.exceptions.UnsupportedMessageDaysException;
 import com.angaza.nexus.keycode.exceptions.UnsupportedMessageIdException;
 import com.angaza.nexus.keycode.exceptions.UnsupportedMessageTypeException;
@@ -30,6 +32,26 @@ public class AddCreditSmallMessage extends SmallMessage {
                 secretKey);
     }
 
+    /**
+     * @param messageId id number for this message
+     * @param days      number of days of credit to add; unlock messages should use
+     *                  {@value AddCreditSmallMessage#UNLOCK_CONSTANT}
+     * @param secretKey decoded secret hash key
+     * @throws UnsupportedMessageDaysException
+     * @throws UnsupportedMessageTypeException
+     */
+    public AddCreditSmallMessage(
+            int messageId,
+            int days,
+            SipKey secretKey) throws UnsupportedMessageDaysException, UnsupportedMessageIdException,
+            UnsupportedMessageTypeException {
+        super(
+                messageId,
+                ADD_CREDIT_TYPE_CODE_CONSTANT,
+                AddCreditSmallMessage.generateBody(days),
+                secretKey);
+    }
+
     public static int generateBody(int days) throws UnsupportedMessageDaysException {
         int incrementId;
         if ((1 <= days) && (days <= 180)) {
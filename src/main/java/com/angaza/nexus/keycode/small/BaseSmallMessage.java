@@ -9,6 +9,7 @@ import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
 
+import com.angaza.nexus.keycode.KeycodeFormat;
 import com.angaza.nexus.keycode.Message;
 import com.angaza.nexus.keycode.exceptions.UnsupportedKeyMappingException;
 import com.angaza.nexus.keycode.util.BitUtils;
@@ -60,6 +61,21 @@ public class BaseSmallMessage implements Message {
         this.mac = generateMac(messageId, typeCode, body, secretKey);
     }
 
+    /**
+     * Create a message per the small keypad protocol from an already-decoded secret key.
+     *
+     * @param messageId *Expanded* message id number for this message
+     * @param typeCode  type code of this message (0-3)
+     * @param body      integer representation of 8-bit body
+     * @param secretKey decoded secret hash key
+     */
+    public BaseSmallMessage(int messageId, int typeCode, int body, SipKey secretKey) {
+        this.messageId = messageId;
+        this.body = body;
+        this.typeCode = typeCode;
+        this.mac = generateMac(messageId, typeCode, body, secretKey);
+    }
+
     /**
      * Compute the internal truncated MAC bits for this message.
      * <p>
@@ -77,15 +93,57 @@ public class BaseSmallMessage implements Message {
      * @return packed form of the MAC generated using secret_key
      */
     public static int generateMac(int messageId, int typeCode, int body, byte[] secretKey) {
-        final ByteBuffer buffer = ByteBuffer
-                .allocate(6)
-                .put((byte) (messageId & 0xFF))
-                .put((byte) ((messageId & 0x0000FF00) >> 8))
-                .put((byte) ((messageId & 0x00FF0000) >> 16))
-                .put((byte) (messageId >> 24))
-                .put((byte) typeCode)
-                .put((byte) body);
-        return (int) (SipHash.digest(new SipKey(secretKey), buffer.array()) >>> 52);
+        return generateMac(
+                messageId,
+                typeCode,
+                body,
+                SipKey.leftHalf(secretKey),
+                SipKey.rightHalf(secretKey));
+    }
+
+    /**
+     * Compute the internal truncated MAC bits for this message from decoded key words, without
+     * allocating.
+     * <p>
+     * The 6 MAC input bytes (little-endian message ID, type code, body) are packed into a single
+     * SipHash message word.
+     *
+     * @param messageId expanded (32-bit) message ID of this message
+     * @param typeCode  type code of this message (0-3)
+     * @param body      integer representation of 8-bit body
+     * @param k0        first secret key word, see {@link SipKey#leftHalf(byte[])}
+     * @param k1        second secret key word, see {@link SipKey#rightHalf(byte[])}
+     * @return packed form of the MAC generated using the secret key
+     */
+    public static int generateMac(int messageId, int typeCode, int body, long k0, long k1) {
+        return truncateMac(SipHash.digest(k0, k1, macInput(messageId, typeCode, body), 6));
+    }
+
+    /**
+     * Compute the internal truncated MAC bits for this message, starting from the key-mixed
+     * SipHash state cached in {@code secretKey}.
+     *
+     * @see #generateMac(int, int, int, long, long)
+     */
+    public static int generateMac(int messageId, int typeCode, int body, SipKey secretKey) {
+        return truncateMac(SipHash.digest(secretKey, macInput(messageId, typeCode, body), 6));
+    }
+
+    /**
+     * The 6-byte MAC input (message ID, type code, body) as a little-endian SipHash word,
+     * for computing many MACs at once with {@link com.github.emboss.siphash.SipHashLanes}.
+     */
+    public static long macInput(int messageId, int typeCode, int body) {
+        return (messageId & 0xffffffffL)
+                | ((long) (typeCode & 0xff)) << 32
+                | ((long) (body & 0xff)) << 40;
+    }
+
+    /**
+     * The 12 MAC bits kept from a SipHash digest of {@link #macInput(int, int, int)}.
+     */
+    public static int truncateMac(long hash) {
+        return (int) (hash >>> 52);
     }
 
     /**
@@ -128,26 +186,62 @@ public class BaseSmallMessage implements Message {
      * The small-protocol obscure is a bitwise operation designed to be
      * easily reversible; simply call the same function (obscure) on the
      * obscured 28-bit message to get back the original (deobscured) message.
+     * <p>
+     * The pseudorandom mask depends only on the 12-bit MAC, so it is read from a precomputed
+     * 4096-entry table rather than derived with SipHash on each call.
      *
      * @param bodyBits 16-bit portion of protocol message that represents message ID and body
      * @param macBits  12-bit portion of protocol message that represents MAC
      * @return the obscured 28-bit small protocol message
      */
     public static byte[] obscure(byte[] bodyBits, byte[] macBits) throws IOException {
-        byte[] prngBits = BitUtils.pseudorandomBits(macBits, 16);
-        byte[] xorBits = ByteBuffer
-                .allocate(2)
-                .put((byte) (bodyBits[0] ^ prngBits[0]))
-                .put((byte) (bodyBits[1] ^ prngBits[1]))
-                .array();
-        ByteBuffer outputBits = ByteBuffer.allocate(4);
-        outputBits.put(macBits[0]);
-        outputBits.put((byte) ((macBits[1] & 0x0F) | ((xorBits[0] << 4) & 0xF0)));
-        outputBits.put((byte) (((xorBits[0] & 0xF0) >> 4) | ((xorBits[1] & 0x0F) << 4)));
-        outputBits.put((byte) (((xorBits[1] & 0xF0) >> 4)));
+        byte[] xorBits;
+        if (SmallObscureMasks.isTabulated(macBits)) {
+            int mask = SmallObscureMasks.mask(SmallObscureMasks.macFromBits(macBits));
+            xorBits = new byte[]{
+                    (byte) (bodyBits[0] ^ mask),
+                    (byte) (bodyBits[1] ^ (mask >> 8))};
+        } else {
+            byte[] prngBits = BitUtils.pseudorandomBits(macBits, 16);
+            xorBits = new byte[]{
+                    (byte) (bodyBits[0] ^ prngBits[0]),
+                    (byte) (bodyBits[1] ^ prngBits[1])};
+        }
+        return new byte[]{
+                macBits[0],
+                (byte) ((macBits[1] & 0x0F) | ((xorBits[0] << 4) & 0xF0)),
+                (byte) (((xorBits[0] & 0xF0) >> 4) | ((xorBits[1] & 0x0F) << 4)),
+                (byte) (((xorBits[1] & 0xF0) >> 4))};
+    }
 
-        byte[] output = outputBits.array();
-        return output;
+    /**
+     * Obscure a small-protocol message held in packed integer form.
+     * <p>
+     * Equivalent to {@link #obscure(byte[], byte[])}, with the 4 output bytes packed
+     * little-endian into an int: bits 0-11 hold the MAC, bits 12-27 the obscured message ID,
+     * type code and body. Like the byte form, it is its own inverse.
+     *
+     * @param bodyBits 16-bit message ID and body, as packed by {@link #messageAndBodyBits()}
+     *                 read little-endian
+     * @param mac      12-bit MAC
+     * @return the obscured 28-bit small protocol message
+     */
+    public static int obscure(int bodyBits, int mac) {
+        int xorBits = (bodyBits ^ SmallObscureMasks.mask(mac)) & 0xffff;
+        return (mac & 0xfff) | (xorBits << 12);
+    }
+
+    /**
+     * Pack message ID, type code and body as {@link #messageAndBodyBits()} does, read
+     * little-endian.
+     *
+     * @param messageId expanded message ID; only its 6 LSB are transmitted
+     * @param typeCode  type code of this message (0-3)
+     * @param body      integer representation of 8-bit body
+     * @return 16-bit packed message ID, type code and body
+     */
+    public static int packBodyBits(int messageId, int typeCode, int body) {
+        return (body & 0xff) | ((((messageId & 0x3F) << 2) | (typeCode & 0x03)) << 8);
     }
 
     /**
@@ -157,49 +251,39 @@ public class BaseSmallMessage implements Message {
      * @param separator  inter-group separating character, e.g., "-"
      * @param groupLen   number of characters in each separated group
      * @param keyMapping Four element list mapping indexes [0,1,2,3] to character keys
-     * @return the rendered keycode string
+     * @return the rendered keycode string; null options render as "null"
+     * @throws IllegalArgumentException when the group length is not positive
      */
     public String toKeycode(String prefix, String separator, int groupLen, String[] keyMapping)
             throws IOException, UnsupportedKeyMappingException {
-        if (keyMapping == null) {
-            // Map 0 -> 2, 1 -> 3, 2 -> 4, 3 -> 5 to match physical device
-            keyMapping = new String[]{"2", "3", "4", "5"};
-        } else if (keyMapping.length != 4) {
-            throw new UnsupportedKeyMappingException("Key mapping required for [0, 1, 2, 3]");
-        }
-        byte[] obscuredMessageBits = BaseSmallMessage.obscure(messageAndBodyBits(), macBits());
-        ByteBuffer digits = ByteBuffer.allocate(14);
-        // Convert three bytes to 12 digits
-        for (int i = 0; i < 3; i++) {
-            byte currentByte = obscuredMessageBits[i];
-            digits.put((byte) (currentByte & 0x3));
-            digits.put((byte) ((currentByte >> 2) & 0x3));
-            digits.put((byte) ((currentByte >> 4) & 0x3));
-            digits.put((byte) ((currentByte >> 6) & 0x3));
+        return KeycodeFormat.small(
+                String.valueOf(prefix), String.valueOf(separator), groupLen,
+                nullKeysAsText(keyMapping))
+                .toKeycode(obscuredBits());
+    }
+
+    // Keys were always appended with String.valueOf, so a null key renders as "null"
+    private static String[] nullKeysAsText(String[] keyMapping) {
+        if (keyMapping == null || !Arrays.asList(keyMapping).contains(null)) {
+            return keyMapping;
         }
-        // Put the last two digits
-        byte currentByte = obscuredMessageBits[3];
-        digits.put((byte) (currentByte & 0x3));
-        digits.put((byte) ((currentByte >> 2) & 0x3));
-        byte[] digitsArray = digits.array();
-
-        StringBuilder sb = new StringBuilder();
-        sb.append(prefix);
-        Integer separatorsAdded = 0;
-        // Digits array is in reverse order
-        for (int i = digitsArray.length - 1; i >= 0; i--) {
-            if (((sb.length() - separatorsAdded) % groupLen) == 0) {
-                sb.append(separator);
-                separatorsAdded += 1;
-            }
-            String digit = String.valueOf(keyMapping[digitsArray[i]]);
-            sb.append(digit);
+        String[] keys = new String[keyMapping.length];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = String.valueOf(keyMapping[i]);
         }
-        return sb.toString();
+        return keys;
+    }
+
+    /**
+     * The obscured 28-bit message, as rendered by {@link #toKeycode()}; see
+     * {@link #obscure(int, int)}.
+     */
+    public int obscuredBits() {
+        return obscure(packBodyBits(messageId, typeCode, body), mac);
     }
 
     @Override
     public String toKeycode() throws IOException, UnsupportedKeyMappingException {
-        return toKeycode("1", " ", 3, null);
+        return KeycodeFormat.SMALL.toKeycode(obscuredBits());
     }
 }
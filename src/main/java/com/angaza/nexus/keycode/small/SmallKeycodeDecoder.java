@@ -0,0 +1,292 @@
+package com.angaza.nexus.keycode.small;
+
+
+import com.github.emboss.siphash.SipKey;
+
+import com.angaza.nexus.keycode.exceptions.InvalidKeycodeException;
+import com.angaza.nexus.keycode.exceptions.UnsupportedKeyMappingException;
+
+/**
+ * Decoder and verifier of small protocol keycodes for one device; immutable and thread-safe.
+ * <p>
+ * The entered keys are mapped back through the key mapping used by
+ * {@link BaseSmallMessage#toKeycode(String, String, int, String[])} into the 28 obscured
+ * message bits, which are deobscured (obscuring is its own inverse) into the 6 transmitted
+ * message ID bits, the type code, the body and the 12-bit MAC. As a receiver does, the full
+ * message ID is then expanded from the 6 transmitted bits by checking the MAC of each
+ * plausible ID, e.g. those near the last ID the device accepted.
+ * <p>
+ * The secret key is decoded once, so one decoder can verify many keycodes from a device, and
+ * {@link #expandMessageIds(int[], int, int, int[])} does so for a whole batch of parsed codes.
+ */
+public final class SmallKeycodeDecoder {
+    /**
+     * Message ID returned when no candidate ID matches the MAC.
+     */
+    public static final int NOT_FOUND = -1;
+
+    private static final int KEYCODE_DIGITS = 14;
+    private static final int MAX_MESSAGE_ID = 65534;
+    private static final int TRANSMITTED_ID_MODULUS = 0x40;
+
+    private final SipKey secretKey;
+    private final String prefix;
+    private final char[] keyMapping;
+
+    /**
+     * Create a decoder for keycodes rendered by {@link BaseSmallMessage#toKeycode()}.
+     *
+     * @param secretKey the secret key of the device (16 bytes)
+     */
+    public SmallKeycodeDecoder(byte[] secretKey) {
+        this(new SipKey(secretKey));
+    }
+
+    /**
+     * Create a decoder for keycodes rendered by {@link BaseSmallMessage#toKeycode()}.
+     *
+     * @param secretKey the decoded secret key of the device
+     */
+    public SmallKeycodeDecoder(SipKey secretKey) {
+        this.secretKey = secretKey;
+        this.prefix = "1";
+        this.keyMapping = new char[]{'2', '3', '4', '5'};
+    }
+
+    /**
+     * Create a decoder for keycodes rendered with a custom prefix and key mapping.
+     *
+     * @param secretKey  the decoded secret key of the device
+     * @param prefix     keycode start characters, which may be omitted when entered; no
+     *                   whitespace or dashes
+     * @param keyMapping four distinct single-character keys for [0, 1, 2, 3], neither
+     *                   whitespace nor dashes; null for the physical keypad mapping 2, 3, 4, 5
+     * @throws UnsupportedKeyMappingException when the key mapping cannot be reversed
+     * @throws IllegalArgumentException       when the prefix holds characters parsing ignores
+     */
+    public SmallKeycodeDecoder(SipKey secretKey, String prefix, String[] keyMapping)
+            throws UnsupportedKeyMappingException {
+        if (secretKey == null) {
+            throw new NullPointerException("secretKey");
+        }
+        if (prefix == null) {
+            throw new NullPointerException("prefix");
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (isIgnored(prefix.charAt(i))) {
+                throw new IllegalArgumentException("prefix must not contain whitespace or dashes");
+            }
+        }
+        this.secretKey = secretKey;
+        this.prefix = prefix;
+        if (keyMapping == null) {
+            this.keyMapping = new char[]{'2', '3', '4', '5'};
+            return;
+        }
+        if (keyMapping.length != 4) {
+            throw new UnsupportedKeyMappingException("Key mapping required for [0, 1, 2, 3]");
+        }
+        this.keyMapping = new char[4];
+        for (int i = 0; i < 4; i++) {
+            if (keyMapping[i] == null || keyMapping[i].length() != 1) {
+                throw new UnsupportedKeyMappingException("Key mapping must be single characters");
+            }
+            if (isIgnored(keyMapping[i].charAt(0))) {
+                throw new UnsupportedKeyMappingException(
+                        "Key mapping must not use whitespace or dashes");
+            }
+            this.keyMapping[i] = keyMapping[i].charAt(0);
+            for (int j = 0; j < i; j++) {
+                if (this.keyMapping[j] == this.keyMapping[i]) {
+                    throw new UnsupportedKeyMappingException("Key mapping must be distinct");
+                }
+            }
+        }
+    }
+
+    /**
+     * Parse an entered keycode into its 28 obscured message bits, ignoring whitespace and
+     * dashes, and the prefix if present.
+     *
+     * @param keycode keycode as entered, e.g. "122 425 324 553 555"
+     * @return the obscured bits, as {@link BaseSmallMessage#obscuredBits()}
+     * @throws InvalidKeycodeException when the keycode holds other characters, or not 14 keys
+     */
+    public int parse(CharSequence keycode) throws InvalidKeycodeException {
+        int keys = 0;
+        for (int i = 0; i < keycode.length(); i++) {
+            if (!isIgnored(keycode.charAt(i))) {
+                keys++;
+            }
+        }
+        // Skip the prefix when the keycode has room for it
+        int skip = keys == KEYCODE_DIGITS + prefix.length() ? prefix.length() : 0;
+        if (keys - skip != KEYCODE_DIGITS) {
+            throw new InvalidKeycodeException("keycode must have 14 keys after its prefix");
+        }
+
+        int bits = 0;
+        int prefixIndex = 0;
+        for (int i = 0; i < keycode.length(); i++) {
+            char c = keycode.charAt(i);
+            if (isIgnored(c)) {
+                continue;
+            }
+            if (prefixIndex < skip) {
+                if (c != prefix.charAt(prefixIndex++)) {
+                    throw new InvalidKeycodeException("keycode does not start with " + prefix);
+                }
+                continue;
+            }
+            // Most significant 2-bit digit first
+            bits = (bits << 2) | digitOf(c);
+        }
+        return bits;
+    }
+
+    private static boolean isIgnored(char c) {
+        return c == '-' || Character.isWhitespace(c);
+    }
+
+    private int digitOf(char key) throws InvalidKeycodeException {
+        for (int digit = 0; digit < 4; digit++) {
+            if (keyMapping[digit] == key) {
+                return digit;
+            }
+        }
+        throw new InvalidKeycodeException("unexpected key in keycode: " + key);
+    }
+
+    /**
+     * Deobscure parsed keycode bits.
+     *
+     * @param obscuredBits 28 obscured message bits, see {@link #parse(CharSequence)}
+     * @return the MAC in bits 0-11 and the packed message ID, type code and body (see
+     *         {@link BaseSmallMessage#packBodyBits(int, int, int)}) in bits 12-27
+     */
+    public static int deobscure(int obscuredBits) {
+        return BaseSmallMessage.obscure(obscuredBits >>> 12, obscuredBits & 0xfff);
+    }
+
+    /**
+     * Decode a keycode whose message ID is expected in {@code [minId, maxId]}.
+     *
+     * @param keycode keycode as entered, see {@link #parse(CharSequence)}
+     * @param minId   lowest candidate expanded message ID (inclusive)
+     * @param maxId   highest candidate expanded message ID (inclusive)
+     * @return the decoded message, or null when no candidate ID matches the MAC
+     * @throws InvalidKeycodeException when the keycode cannot be parsed
+     */
+    public Decoded decode(CharSequence keycode, int minId, int maxId)
+            throws InvalidKeycodeException {
+        int bits = deobscure(parse(keycode));
+        int messageId = expandMessageId(bits, minId, maxId);
+        if (messageId == NOT_FOUND) {
+            return null;
+        }
+        int bodyBits = bits >>> 12;
+        return new Decoded(messageId, (bodyBits >>> 8) & 0x3, bodyBits & 0xff);
+    }
+
+    /**
+     * Decode a keycode from a device whose last accepted message ID is known, trying the IDs
+     * up to {@code span} either side of it.
+     *
+     * @see #decode(CharSequence, int, int)
+     */
+    public Decoded decodeNear(CharSequence keycode, int lastAcceptedId, int span)
+            throws InvalidKeycodeException {
+        return decode(
+                keycode,
+                Math.max(0, lastAcceptedId - span),
+                Math.min(MAX_MESSAGE_ID, lastAcceptedId + span));
+    }
+
+    /**
+     * Expand the transmitted message ID of deobscured bits.
+     *
+     * @param bits  deobscured message bits, see {@link #deobscure(int)}
+     * @param minId lowest candidate expanded message ID (inclusive)
+     * @param maxId highest candidate expanded message ID (inclusive)
+     * @return the lowest candidate ID whose MAC matches, or {@link #NOT_FOUND}
+     */
+    public int expandMessageId(int bits, int minId, int maxId) {
+        checkWindow(minId, maxId);
+        int mac = bits & 0xfff;
+        int bodyBits = bits >>> 12;
+        int body = bodyBits & 0xff;
+        int typeCode = (bodyBits >>> 8) & 0x3;
+        int transmittedId = (bodyBits >>> 10) & 0x3f;
+
+        // First ID in the window with the transmitted 6 LSB, then every 64th
+        int id = minId + ((transmittedId - minId) & (TRANSMITTED_ID_MODULUS - 1));
+        for (; id <= maxId; id += TRANSMITTED_ID_MODULUS) {
+            if (BaseSmallMessage.generateMac(id, typeCode, body, secretKey) == mac) {
+                return id;
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * Expand the message IDs of many parsed keycodes from this device, without creating any
+     * per-keycode objects.
+     *
+     * @param obscuredBits parsed keycodes, see {@link #parse(CharSequence)}
+     * @param minId        lowest candidate expanded message ID (inclusive)
+     * @param maxId        highest candidate expanded message ID (inclusive)
+     * @param messageIds   receives each expanded message ID, or {@link #NOT_FOUND}
+     */
+    public void expandMessageIds(int[] obscuredBits, int minId, int maxId, int[] messageIds) {
+        checkWindow(minId, maxId);
+        if (messageIds.length < obscuredBits.length) {
+            throw new IndexOutOfBoundsException("messageIds shorter than obscuredBits");
+        }
+        for (int i = 0; i < obscuredBits.length; i++) {
+            messageIds[i] = expandMessageId(deobscure(obscuredBits[i]), minId, maxId);
+        }
+    }
+
+    private static void checkWindow(int minId, int maxId) {
+        if (minId < 0 || maxId > MAX_MESSAGE_ID || minId > maxId) {
+            throw new IllegalArgumentException(
+                    "invalid message ID window [" + minId + ", " + maxId + "]");
+        }
+    }
+
+    /**
+     * A keycode that passed MAC verification; immutable.
+     */
+    public static final class Decoded {
+        private final int messageId;
+        private final int typeCode;
+        private final int body;
+
+        Decoded(int messageId, int typeCode, int body) {
+            this.messageId = messageId;
+            this.typeCode = typeCode;
+            this.body = body;
+        }
+
+        /**
+         * @return the expanded message ID
+         */
+        public int getMessageId() {
+            return messageId;
+        }
+
+        /**
+         * @return the message type code, 0 or 2 for credit messages
+         */
+        public int getTypeCode() {
+            return typeCode;
+        }
+
+        /**
+         * @return the 8-bit message body, e.g. the add credit increment ID (255 to unlock)
+         */
+        public int getBody() {
+            return body;
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package com.angaza.nexus.keycode.small;
 
 
+import com.github.emboss.siphash.SipKey;
+
 import com.angaza.nexus.keycode.exceptions.UnsupportedMessageIdException;
 import com.angaza.nexus.keycode.exceptions.UnsupportedMessageTypeException;
 
@@ -14,6 +16,15 @@ public class SmallMessage extends BaseSmallMessage {
         super(checkMessageId(messageId), checkTypeCode(typeCode), body, secretKey);
     }
 
+    public SmallMessage(
+            int messageId,
+            int typeCode,
+            int body,
+            SipKey secretKey) throws UnsupportedMessageIdException,
+            UnsupportedMessageTypeException {
+        super(checkMessageId(messageId), checkTypeCode(typeCode), body, secretKey);
+    }
+
     private static int checkMessageId(int messageId) throws UnsupportedMessageIdException {
         if (messageId < 0 || messageId > 65534) {
             throw new UnsupportedMessageIdException("unsupported message ID");
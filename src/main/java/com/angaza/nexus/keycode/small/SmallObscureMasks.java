@@ -0,0 +1,67 @@
+package com.angaza.nexus.keycode.small;
+
+
+import com.angaza.nexus.keycode.util.BitUtils;
+import com.angaza.nexus.keycode.util.PseudorandomBitStream;
+
+/**
+ * Precomputed small-protocol obscuring masks.
+ * <p>
+ * The pseudorandom bits used to obscure a small-protocol message are seeded only by its 12-bit
+ * MAC, so there are exactly 4096 possible 16-bit masks. They are computed once on class
+ * initialization, after which obscuring a message is a single array lookup.
+ */
+final class SmallObscureMasks {
+    private static final int MAC_COUNT = 1 << 12;
+    private static final int MASK_BITS = 16;
+
+    // Indexed by MAC; low byte is pseudorandom byte 0, high byte is pseudorandom byte 1
+    private static final char[] MASKS = buildMasks();
+
+    private SmallObscureMasks() {
+    }
+
+    private static char[] buildMasks() {
+        char[] masks = new char[MAC_COUNT];
+        for (int mac = 0; mac < MAC_COUNT; mac++) {
+            byte[] prngBits = BitUtils.repackToBufferBottom(
+                    new PseudorandomBitStream(macBits(mac)).read(MASK_BITS),
+                    MASK_BITS);
+            masks[mac] = (char) ((prngBits[0] & 0xff) | ((prngBits[1] & 0xff) << 8));
+        }
+        return masks;
+    }
+
+    /**
+     * @param mac 12-bit MAC
+     * @return the 2-byte seed form of the MAC, as produced by {@link BaseSmallMessage#macBits()}
+     */
+    static byte[] macBits(int mac) {
+        return new byte[]{(byte) (mac & 0xff), (byte) ((mac >> 8) & 0x0f)};
+    }
+
+    /**
+     * @param mac 12-bit MAC
+     * @return 16-bit mask equal to {@code BitUtils.pseudorandomBits(macBits(mac), 16)}, with
+     *         byte 0 in the low 8 bits
+     */
+    static int mask(int mac) {
+        return MASKS[mac & (MAC_COUNT - 1)];
+    }
+
+    /**
+     * @param macBits candidate seed bits
+     * @return true if {@code macBits} is a 12-bit MAC in the form covered by the table
+     */
+    static boolean isTabulated(byte[] macBits) {
+        return macBits.length == 2 && (macBits[1] & 0xf0) == 0;
+    }
+
+    /**
+     * @param macBits seed bits for which {@link #isTabulated(byte[])} holds
+     * @return the 12-bit MAC encoded by {@code macBits}
+     */
+    static int macFromBits(byte[] macBits) {
+        return (macBits[0] & 0xff) | ((macBits[1] & 0x0f) << 8);
+    }
+}
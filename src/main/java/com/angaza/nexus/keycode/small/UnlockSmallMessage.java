@@ -1,6 +1,8 @@
 package com.angaza.nexus.keycode.small;
 
 
+import com.github.emboss.siphash.SipKey;
+
 import com.angaza.nexus.keycode.exceptions.UnsupportedMessageDaysException;
 import com.angaza.nexus.keycode.exceptions.UnsupportedMessageIdException;
 import com.angaza.nexus.keycode.exceptions.UnsupportedMessageTypeException;
@@ -14,6 +16,13 @@ public class UnlockSmallMessage extends AddCreditSmallMessage {
         super(messageId, UNLOCK_CONSTANT, secretKey);
     }
 
+    public UnlockSmallMessage(
+            int messageId,
+            SipKey secretKey) throws UnsupportedMessageDaysException, UnsupportedMessageIdException,
+            UnsupportedMessageTypeException {
+        super(messageId, UNLOCK_CONSTANT, secretKey);
+    }
+
     public UnlockSmallMessage(
             int messageId,
             int days,
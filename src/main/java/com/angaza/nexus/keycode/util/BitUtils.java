@@ -1,12 +1,8 @@
 package com.angaza.nexus.keycode.util;
 
 
-import com.github.emboss.siphash.SipHash;
-import com.github.emboss.siphash.SipKey;
-
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 
 public class BitUtils {
     /**
@@ -71,6 +67,9 @@ public class BitUtils {
      * crypto: we use SipHash and apply a simplified HKDF approach akin to:
      * <p>
      * http://tools.ietf.org/html/draft-krawczyk-hkdf-01
+     * <p>
+     * Only the 64-bit SipHash blocks needed to cover {@code outputLength} are computed; see
+     * {@link PseudorandomBitStream} to read the same bits incrementally.
      *
      * @param seedBits     arbitrary input bits
      * @param outputLength number of pseudorandom output bits to return
@@ -78,26 +77,7 @@ public class BitUtils {
      *         boundary
      */
     public static byte[] pseudorandomBits(byte[] seedBits, int outputLength) throws IOException {
-        byte[] fixedKey = new byte[16];
-        Integer iterations = (int) (Math.ceil(outputLength / 64.0) * 64);
-        BitOutputStream outBits = new BitOutputStream();
-        for (int i = 0; i < iterations; i++) {
-            BitOutputStream bytesToDigest = new BitOutputStream();
-            bytesToDigest.write((byte) i, Byte.SIZE);
-            // Our input seed bits are in the reverse order of what SipHash.digest expects, so here,
-            // we reverse the byte order.
-            byte[] reversedSeedBits = BitUtils.repackToBufferBottom(seedBits, seedBits.length * 8);
-            bytesToDigest.write(reversedSeedBits, reversedSeedBits.length * Byte.SIZE);
-            Long hash = SipHash.digest(new SipKey(fixedKey), bytesToDigest.toByteArray());
-            outBits.write(
-                    ByteBuffer.allocate(Long.SIZE / Byte.SIZE)
-                            .order(ByteOrder.LITTLE_ENDIAN)
-                            .putLong(hash)
-                            .array(),
-                    Long.SIZE);
-        }
-        BitInputStream result = new BitInputStream(outBits.toByteArray());
-        byte[] truncatedResult = result.read(outputLength);
+        byte[] truncatedResult = new PseudorandomBitStream(seedBits).read(outputLength);
         return BitUtils.repackToBufferBottom(truncatedResult, outputLength);
     }
 }
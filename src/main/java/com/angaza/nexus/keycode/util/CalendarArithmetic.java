@@ -0,0 +1,58 @@
+package com.angaza.nexus.keycode.util;
+
+
+import java.util.TimeZone;
+
+/**
+ * Calendar field arithmetic on epoch milliseconds, giving the same instants as
+ * {@link java.util.GregorianCalendar#add(int, int)} without creating a calendar.
+ * <p>
+ * Adding hours is exact elapsed time. Adding days keeps the local time of day across time zone
+ * offset changes (e.g. daylight saving), with the same resolution as {@code GregorianCalendar}
+ * when that local time is skipped or repeated on the target day.
+ */
+public final class CalendarArithmetic {
+    private static final long MILLIS_PER_HOUR = 60 * 60 * 1000L;
+    private static final long MILLIS_PER_DAY = 24 * MILLIS_PER_HOUR;
+
+    private CalendarArithmetic() {
+    }
+
+    /**
+     * @param millis epoch milliseconds
+     * @param hours  hours to add; may be negative
+     * @return as {@code calendar.add(Calendar.HOUR_OF_DAY, hours)}
+     */
+    public static long addHours(long millis, int hours) {
+        return millis + hours * MILLIS_PER_HOUR;
+    }
+
+    /**
+     * @param millis epoch milliseconds
+     * @param days   days to add; may be negative
+     * @param zone   time zone of the calendar, e.g. {@link TimeZone#getDefault()}
+     * @return as {@code calendar.add(Calendar.DAY_OF_MONTH, days)} for a Gregorian calendar in
+     *         {@code zone}
+     */
+    public static long addDays(long millis, int days, TimeZone zone) {
+        int offset = zone.getOffset(millis);
+        long expectedDay = localDay(millis, offset) + days;
+        long result = millis + days * MILLIS_PER_DAY;
+        int offsetChange = offset - zone.getOffset(result);
+        if (offsetChange == 0) {
+            return result;
+        }
+        // Keep the local time of day, unless that moves off the expected day
+        long adjusted = result + offsetChange;
+        if (localDay(adjusted, zone.getOffset(adjusted)) == expectedDay) {
+            return adjusted;
+        }
+        return result;
+    }
+
+    private static long localDay(long millis, int offset) {
+        long local = millis + offset;
+        long day = local / MILLIS_PER_DAY;
+        return local % MILLIS_PER_DAY < 0 ? day - 1 : day;
+    }
+}
@@ -0,0 +1,101 @@
+package com.angaza.nexus.keycode.util;
+
+
+import com.github.emboss.siphash.SipHash;
+import com.github.emboss.siphash.SipKey;
+
+/**
+ * Lazily computed source of the pseudorandom bits described in
+ * {@link BitUtils#pseudorandomBits(byte[], int)}.
+ * <p>
+ * Bits are produced one 64-bit SipHash block at a time, and a block is only computed once a
+ * read actually reaches it. Block {@code i} is the digest of the counter byte {@code i} followed
+ * by the byte-reversed seed; the reversed seed is computed once and reused for every block.
+ * Within the stream, each block contributes its little-endian bytes in order, most significant
+ * bit of each byte first.
+ * <p>
+ * Not thread-safe; each stream holds its own read position.
+ */
+public final class PseudorandomBitStream {
+    private static final SipKey FIXED_KEY = new SipKey(new byte[16]);
+
+    // Counter byte followed by the reversed seed bits
+    private final byte[] blockInput;
+    private int nextBlockIndex;
+    // Current block in stream order; the next bit to read is the most significant
+    private long streamWord;
+    private int bitsAvailable;
+
+    /**
+     * @param seedBits arbitrary input bits, in the same order accepted by
+     *                 {@link BitUtils#pseudorandomBits(byte[], int)}
+     */
+    public PseudorandomBitStream(byte[] seedBits) {
+        // Our input seed bits are in the reverse order of what SipHash.digest expects, so here,
+        // we reverse the byte order.
+        byte[] reversedSeedBits = BitUtils.repackToBufferBottom(seedBits, seedBits.length * 8);
+        this.blockInput = new byte[reversedSeedBits.length + 1];
+        System.arraycopy(reversedSeedBits, 0, blockInput, 1, reversedSeedBits.length);
+    }
+
+    /**
+     * Compute the next 64-bit block of the stream, skipping any unread bits of the current one.
+     *
+     * @return SipHash digest for the next block counter
+     */
+    public long nextBlock() {
+        blockInput[0] = (byte) nextBlockIndex++;
+        bitsAvailable = 0;
+        return SipHash.digest(FIXED_KEY, blockInput);
+    }
+
+    /**
+     * Read the next bits of the stream.
+     *
+     * @param count number of bits to read, between 0 and 64
+     * @return the bits read, right-aligned, with the first bit read as the most significant
+     */
+    public long nextBits(int count) {
+        if (count < 0 || count > Long.SIZE) {
+            throw new IllegalArgumentException("bit count must be between 0 and 64");
+        }
+        long result = 0;
+        int needed = count;
+        while (needed > 0) {
+            if (bitsAvailable == 0) {
+                streamWord = Long.reverseBytes(nextBlock());
+                bitsAvailable = Long.SIZE;
+            }
+            int take = Math.min(needed, bitsAvailable);
+            if (take == Long.SIZE) {
+                result = streamWord;
+                streamWord = 0;
+            } else {
+                result = (result << take) | (streamWord >>> (Long.SIZE - take));
+                streamWord <<= take;
+            }
+            bitsAvailable -= take;
+            needed -= take;
+        }
+        return result;
+    }
+
+    /**
+     * Read the next bits of the stream into a new byte array.
+     *
+     * @param numBits number of bits to read
+     * @return the bits read, left-aligned to the nearest byte boundary, unused bits zeroed
+     */
+    public byte[] read(int numBits) {
+        byte[] output = new byte[(numBits + 7) / 8];
+        int fullBytes = numBits / 8;
+        for (int i = 0; i < fullBytes; i++) {
+            output[i] = (byte) nextBits(8);
+        }
+        int remainingBits = numBits % 8;
+        if (remainingBits > 0) {
+            output[fullBytes] = (byte) (nextBits(remainingBits) << (8 - remainingBits));
+        }
+        return output;
+    }
+}
@@ -0,0 +1,249 @@
+package com.angaza.nexus.keycode.util;
+
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.angaza.nexus.keycode.exceptions.BaseException;
+
+/**
+ * Size-bounded, thread-safe cache with least-recently-used eviction; values are produced on a
+ * miss by a pluggable {@link Loader}.
+ * <p>
+ * Keys are spread over independently locked segments ("stripes"), each an access-ordered LRU
+ * list holding an equal share of the maximum size, so threads working on different keys rarely
+ * contend. Loading happens outside any lock; two threads missing on the same key at once may
+ * both call the loader, and the first value stored wins. A load that overlaps an
+ * {@link #invalidate(Object)} in its segment is discarded and repeated, so a value loaded
+ * before an invalidation, e.g. with a since rotated secret key, is never cached or returned.
+ * <p>
+ * Hit, miss and eviction counters are kept per segment and summed on demand.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class StripedLruCache<K, V> {
+    /**
+     * Produces the value for a key that is not cached.
+     */
+    public interface Loader<K, V> {
+        /**
+         * @param key key that missed
+         * @return value to cache and return, or null if there is none (nothing is cached)
+         */
+        V load(K key) throws IOException, BaseException;
+    }
+
+    private static final int MAXIMUM_SEGMENTS = 1 << 16;
+
+    private final Segment<K, V>[] segments;
+    private final int segmentMask;
+    private final Loader<K, V> loader;
+
+    /**
+     * @param maximumSize maximum number of entries held
+     * @param loader      loader for missing entries
+     */
+    public StripedLruCache(int maximumSize, Loader<K, V> loader) {
+        this(maximumSize, 4 * Runtime.getRuntime().availableProcessors(), loader);
+    }
+
+    /**
+     * @param maximumSize      maximum number of entries held
+     * @param concurrencyLevel expected number of concurrently accessing threads; rounded up to a
+     *                         power of two segments, and never more segments than entries
+     * @param loader           loader for missing entries
+     */
+    @SuppressWarnings("unchecked")
+    public StripedLruCache(int maximumSize, int concurrencyLevel, Loader<K, V> loader) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximum size must be positive");
+        }
+        if (loader == null) {
+            throw new NullPointerException("loader");
+        }
+        int segmentCount = 1;
+        while (segmentCount < concurrencyLevel
+                && segmentCount * 2 <= maximumSize
+                && segmentCount < MAXIMUM_SEGMENTS) {
+            segmentCount <<= 1;
+        }
+        // Distribute the maximum size so the segment capacities sum to it exactly
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            int capacity = maximumSize / segmentCount + (i < maximumSize % segmentCount ? 1 : 0);
+            segments[i] = new Segment<K, V>(capacity);
+        }
+        this.segmentMask = segmentCount - 1;
+        this.loader = loader;
+    }
+
+    private Segment<K, V> segmentFor(Object key) {
+        int h = key.hashCode();
+        // Spread high bits down so keys differing only there use different segments
+        h ^= (h >>> 16);
+        h ^= (h >>> 7);
+        return segments[h & segmentMask];
+    }
+
+    /**
+     * Return the cached value for {@code key}, loading and caching it on a miss.
+     *
+     * @param key key to look up
+     * @return cached or newly loaded value; null if the loader had none
+     */
+    public V get(K key) throws IOException, BaseException {
+        Segment<K, V> segment = segmentFor(key);
+        while (true) {
+            long generation;
+            synchronized (segment) {
+                V value = segment.lookup(key);
+                if (value != null) {
+                    return value;
+                }
+                generation = segment.generation;
+            }
+            V loaded = loader.load(key);
+            if (loaded == null) {
+                return null;
+            }
+            V stored = segment.storeLoaded(key, loaded, generation);
+            if (stored != null) {
+                return stored;
+            }
+            // Invalidated while loading; the loaded value may already be stale
+        }
+    }
+
+    /**
+     * @param key key to look up
+     * @return cached value, or null without loading; counts as a hit or miss
+     */
+    public V getIfPresent(K key) {
+        return segmentFor(key).lookup(key);
+    }
+
+    /**
+     * Cache {@code value} for {@code key}, replacing any current value.
+     */
+    public void put(K key, V value) {
+        if (value == null) {
+            throw new NullPointerException("value");
+        }
+        segmentFor(key).store(key, value, true);
+    }
+
+    /**
+     * Discard any cached value for {@code key}, e.g. after its secret key is rotated.
+     */
+    public void invalidate(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            segment.entries.remove(key);
+            segment.generation++;
+        }
+    }
+
+    public void invalidateAll() {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.entries.clear();
+                segment.generation++;
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.entries.size();
+            }
+        }
+        return size;
+    }
+
+    public long hitCount() {
+        long count = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                count += segment.hits;
+            }
+        }
+        return count;
+    }
+
+    public long missCount() {
+        long count = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                count += segment.misses;
+            }
+        }
+        return count;
+    }
+
+    public long evictionCount() {
+        long count = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                count += segment.evictions;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * One stripe: an access-ordered LRU map guarded by its own monitor.
+     */
+    private static final class Segment<K, V> {
+        private final LinkedHashMap<K, V> entries;
+        private long hits;
+        private long misses;
+        private long evictions;
+        // Bumped by every invalidation; loads started under an older generation are not cached
+        private long generation;
+
+        Segment(final int capacity) {
+            this.entries = new LinkedHashMap<K, V>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                    if (size() > capacity) {
+                        evictions++;
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        synchronized V lookup(Object key) {
+            V value = entries.get(key);
+            if (value != null) {
+                hits++;
+            } else {
+                misses++;
+            }
+            return value;
+        }
+
+        synchronized V storeLoaded(K key, V value, long loadGeneration) {
+            if (loadGeneration != generation) {
+                return null;
+            }
+            return store(key, value, false);
+        }
+
+        synchronized V store(K key, V value, boolean replace) {
+            if (!replace) {
+                V existing = entries.get(key);
+                if (existing != null) {
+                    return existing;
+                }
+            }
+            entries.put(key, value);
+            return value;
+        }
+    }
+}
@@ -5,6 +5,11 @@ package com.github.emboss.siphash;
  * @author <a href="mailto:Martin.Bosslet@googlemail.com">Martin Bosslet</a>
  */
 public class SipHash {
+    static final long V0_INIT = 0x736f6d6570736575L;
+    static final long V1_INIT = 0x646f72616e646f6dL;
+    static final long V2_INIT = 0x6c7967656e657261L;
+    static final long V3_INIT = 0x7465646279746573L;
+
     public static long digest(SipKey key, byte[] data) {
         long m;
         State s = new State(key);
@@ -21,6 +26,110 @@ public class SipHash {
         return s.digest();
     }
 
+    /**
+     * Digest a message of at most 7 bytes given as a little-endian word, without allocating.
+     *
+     * @param k0  first key word, see {@link SipKey#getLeftHalf()}
+     * @param k1  second key word, see {@link SipKey#getRightHalf()}
+     * @param m   message bytes in little-endian order; bytes beyond {@code len} are ignored
+     * @param len message length in bytes, 0 to 7
+     * @return the SipHash-2-4 digest, equal to {@link #digest(SipKey, byte[])} of the same bytes
+     */
+    public static long digest(long k0, long k1, long m, int len) {
+        if (len < 0 || len > 7) {
+            throw new IllegalArgumentException("single-word message must be 0 to 7 bytes");
+        }
+        long last = (m & ((1L << (len * 8)) - 1)) | (((long) len) << 56);
+        return digestBlocks(
+                V0_INIT ^ k0, V1_INIT ^ k1, V2_INIT ^ k0, V3_INIT ^ k1,
+                last, 0L, 1);
+    }
+
+    /**
+     * Digest a message of 8 to 15 bytes given as two little-endian words, without allocating.
+     *
+     * @param k0  first key word, see {@link SipKey#getLeftHalf()}
+     * @param k1  second key word, see {@link SipKey#getRightHalf()}
+     * @param m0  first 8 message bytes in little-endian order
+     * @param m1  remaining message bytes in little-endian order; bytes beyond {@code len - 8}
+     *            are ignored
+     * @param len message length in bytes, 8 to 15
+     * @return the SipHash-2-4 digest, equal to {@link #digest(SipKey, byte[])} of the same bytes
+     */
+    public static long digest(long k0, long k1, long m0, long m1, int len) {
+        if (len < 8 || len > 15) {
+            throw new IllegalArgumentException("two-word message must be 8 to 15 bytes");
+        }
+        long last = (m1 & ((1L << ((len - 8) * 8)) - 1)) | (((long) len) << 56);
+        return digestBlocks(
+                V0_INIT ^ k0, V1_INIT ^ k1, V2_INIT ^ k0, V3_INIT ^ k1,
+                m0, last, 2);
+    }
+
+    /**
+     * Digest a message of at most 7 bytes, starting from the key-mixed state cached in
+     * {@code key}.
+     *
+     * @see #digest(long, long, long, int)
+     */
+    public static long digest(SipKey key, long m, int len) {
+        if (len < 0 || len > 7) {
+            throw new IllegalArgumentException("single-word message must be 0 to 7 bytes");
+        }
+        long last = (m & ((1L << (len * 8)) - 1)) | (((long) len) << 56);
+        return digestBlocks(key.v0, key.v1, key.v2, key.v3, last, 0L, 1);
+    }
+
+    /**
+     * Digest a message of 8 to 15 bytes, starting from the key-mixed state cached in
+     * {@code key}.
+     *
+     * @see #digest(long, long, long, long, int)
+     */
+    public static long digest(SipKey key, long m0, long m1, int len) {
+        if (len < 8 || len > 15) {
+            throw new IllegalArgumentException("two-word message must be 8 to 15 bytes");
+        }
+        long last = (m1 & ((1L << ((len - 8) * 8)) - 1)) | (((long) len) << 56);
+        return digestBlocks(key.v0, key.v1, key.v2, key.v3, m0, last, 2);
+    }
+
+    /**
+     * Compress one or two final message blocks into a key-mixed state and finish, keeping the
+     * whole state in locals.
+     */
+    private static long digestBlocks(long v0, long v1, long v2, long v3,
+                                     long first, long second, int blocks) {
+        long m = first;
+        for (int block = 0; block < blocks; block++) {
+            v3 ^= m;
+            for (int i = 0; i < 2; i++) {
+                v0 += v1; v2 += v3;
+                v1 = Long.rotateLeft(v1, 13); v3 = Long.rotateLeft(v3, 16);
+                v1 ^= v0; v3 ^= v2;
+                v0 = Long.rotateLeft(v0, 32);
+                v2 += v1; v0 += v3;
+                v1 = Long.rotateLeft(v1, 17); v3 = Long.rotateLeft(v3, 21);
+                v1 ^= v2; v3 ^= v0;
+                v2 = Long.rotateLeft(v2, 32);
+            }
+            v0 ^= m;
+            m = second;
+        }
+        v2 ^= 0xff;
+        for (int i = 0; i < 4; i++) {
+            v0 += v1; v2 += v3;
+            v1 = Long.rotateLeft(v1, 13); v3 = Long.rotateLeft(v3, 16);
+            v1 ^= v0; v3 ^= v2;
+            v0 = Long.rotateLeft(v0, 32);
+            v2 += v1; v0 += v3;
+            v1 = Long.rotateLeft(v1, 17); v3 = Long.rotateLeft(v3, 21);
+            v1 ^= v2; v3 ^= v0;
+            v2 = Long.rotateLeft(v2, 32);
+        }
+        return v0 ^ v1 ^ v2 ^ v3;
+    }
+
     private static long lastBlock(byte[] data, int iter) {
         long last = (((long) data.length) & 0xff) << 56;
         int off = iter * 8;
@@ -54,18 +163,10 @@ public class SipHash {
         private long v3;
 
         public State(SipKey key) {
-            v0 = 0x736f6d6570736575L;
-            v1 = 0x646f72616e646f6dL;
-            v2 = 0x6c7967656e657261L;
-            v3 = 0x7465646279746573L;
-
-            long k0 = key.getLeftHalf();
-            long k1 = key.getRightHalf();
-
-            v0 ^= k0;
-            v1 ^= k1;
-            v2 ^= k0;
-            v3 ^= k1;
+            v0 = key.v0;
+            v1 = key.v1;
+            v2 = key.v2;
+            v3 = key.v3;
         }
 
         private void compress() {
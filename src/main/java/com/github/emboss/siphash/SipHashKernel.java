@@ -0,0 +1,106 @@
+package com.github.emboss.siphash;
+
+/**
+ * Digest loop behind {@link SipHashLanes}.
+ * <p>
+ * On Java 17+ the multi-release jar also carries {@code VectorSipHashKernel}, built against the
+ * Vector API. It is loaded by name, so this class links on every JVM, and is used only if it
+ * loads (the {@code jdk.incubator.vector} module is resolved) and agrees with the scalar digest
+ * for every message length. Otherwise every item is digested by {@link SipHash}.
+ */
+final class SipHashKernel {
+    /**
+     * A kernel digesting several items at once.
+     */
+    interface Vectorized {
+        /**
+         * Digest as many leading items as the kernel handles in whole vectors.
+         *
+         * @return number of items digested; the caller finishes the remainder
+         */
+        int digest(
+                long[] k0, long[] k1, int keyOffset,
+                long[] m0, long[] m1, int len,
+                long[] out, int count);
+    }
+
+    private static final String VECTOR_KERNEL = "com.github.emboss.siphash.VectorSipHashKernel";
+    // Enough items for two whole vectors of the widest (512-bit) species, plus a tail
+    private static final int SELF_TEST_ITEMS = 17;
+
+    private static final Vectorized VECTOR = loadVectorKernel();
+
+    private SipHashKernel() {
+    }
+
+    static boolean isVectorized() {
+        return VECTOR != null;
+    }
+
+    private static Vectorized loadVectorKernel() {
+        Vectorized kernel;
+        try {
+            kernel = (Vectorized) Class.forName(VECTOR_KERNEL)
+                    .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            // Not running from the multi-release jar on Java 17+
+            return null;
+        } catch (LinkageError e) {
+            // jdk.incubator.vector not resolved; run without it
+            return null;
+        }
+        return selfTest(kernel) ? kernel : null;
+    }
+
+    /**
+     * Check {@code kernel} against the scalar digest for every supported message length.
+     */
+    static boolean selfTest(Vectorized kernel) {
+        int count = SELF_TEST_ITEMS;
+        long[] k0 = new long[count];
+        long[] k1 = new long[count];
+        long[] m0 = new long[count];
+        long[] m1 = new long[count];
+        long[] out = new long[count];
+        for (int i = 0; i < count; i++) {
+            k0[i] = 0x0706050403020100L + i;
+            k1[i] = 0x0f0e0d0c0b0a0908L - i;
+            m0[i] = 0x0706050403020100L * (i + 1);
+            m1[i] = 0x0f0e0d0c0b0a0908L * (i + 1);
+        }
+        for (int len = 0; len < 16; len++) {
+            int done = kernel.digest(k0, k1, 0, m0, m1, len, out, count);
+            if (done < 0 || done > count) {
+                return false;
+            }
+            for (int i = 0; i < done; i++) {
+                long expected = len < 8
+                        ? SipHash.digest(k0[i], k1[i], m0[i], len)
+                        : SipHash.digest(k0[i], k1[i], m0[i], m1[i], len);
+                if (out[i] != expected) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    static void digest(
+            long[] k0, long[] k1, int keyOffset,
+            long[] m0, long[] m1, int len,
+            long[] out, int count) {
+        int done = VECTOR != null
+                ? VECTOR.digest(k0, k1, keyOffset, m0, m1, len, out, count)
+                : 0;
+        if (len < 8) {
+            for (int i = done; i < count; i++) {
+                out[i] = SipHash.digest(k0[keyOffset + i], k1[keyOffset + i], m0[i], len);
+            }
+        } else {
+            for (int i = done; i < count; i++) {
+                out[i] = SipHash.digest(
+                        k0[keyOffset + i], k1[keyOffset + i], m0[i], m1[i], len);
+            }
+        }
+    }
+}
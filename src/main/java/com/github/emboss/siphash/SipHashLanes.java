@@ -0,0 +1,54 @@
+package com.github.emboss.siphash;
+
+/**
+ * SipHash-2-4 over many independent short messages at once, e.g. the MACs of a batch of
+ * keycodes.
+ * <p>
+ * Item {@code i} digests the {@code len}-byte message held in {@code m0[i]} (and {@code m1[i]}
+ * when {@code len >= 8}) under the key {@code (k0[keyOffset + i], k1[keyOffset + i])}, exactly
+ * as {@link SipHash#digest(long, long, long, int)} or
+ * {@link SipHash#digest(long, long, long, long, int)} would.
+ * <p>
+ * On Java 17+ with the {@code jdk.incubator.vector} module enabled
+ * ({@code --add-modules jdk.incubator.vector}), the multi-release jar supplies a kernel that
+ * runs several digests per instruction stream using the Vector API. Otherwise, or when the
+ * classes are not loaded from the jar, the scalar digest is used.
+ */
+public final class SipHashLanes {
+    private SipHashLanes() {
+    }
+
+    /**
+     * @return true if digests run on the Vector API kernel
+     */
+    public static boolean isVectorized() {
+        return SipHashKernel.isVectorized();
+    }
+
+    /**
+     * @param k0        first key word per item
+     * @param k1        second key word per item
+     * @param keyOffset index of the first item's key words in {@code k0} and {@code k1}
+     * @param m0        first message word per item, starting at index 0
+     * @param m1        second message word per item, used only when {@code len >= 8}; may be
+     *                  null otherwise
+     * @param len       message length in bytes shared by all items, 0 to 15
+     * @param out       receives the digest per item, starting at index 0
+     * @param count     number of items
+     */
+    public static void digest(
+            long[] k0, long[] k1, int keyOffset,
+            long[] m0, long[] m1, int len,
+            long[] out, int count) {
+        if (len < 0 || len > 15) {
+            throw new IllegalArgumentException("message must be 0 to 15 bytes");
+        }
+        if (count < 0 || keyOffset < 0
+                || keyOffset + count > k0.length || keyOffset + count > k1.length
+                || count > m0.length || count > out.length
+                || (len >= 8 && count > m1.length)) {
+            throw new IndexOutOfBoundsException("arrays too short for " + count + " items");
+        }
+        SipHashKernel.digest(k0, k1, keyOffset, m0, m1, len, out, count);
+    }
+}
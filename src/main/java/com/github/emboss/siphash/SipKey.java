@@ -5,19 +5,66 @@ package com.github.emboss.siphash;
  * @author <a href="mailto:Martin.Bosslet@googlemail.com">Martin Bosslet</a>
  */
 public class SipKey {
-    private final byte[] key;
+    private final long k0;
+    private final long k1;
+
+    // Initial SipHash state, already mixed with the key words
+    final long v0;
+    final long v1;
+    final long v2;
+    final long v3;
 
     public SipKey(byte[] key) {
+        this(leftHalf(key), rightHalf(key));
+    }
+
+    /**
+     * Create a key directly from its two little-endian key words, e.g. as read from a key store.
+     *
+     * @param k0 first key word
+     * @param k1 second key word
+     */
+    public SipKey(long k0, long k1) {
+        this.k0 = k0;
+        this.k1 = k1;
+        this.v0 = SipHash.V0_INIT ^ k0;
+        this.v1 = SipHash.V1_INIT ^ k1;
+        this.v2 = SipHash.V2_INIT ^ k0;
+        this.v3 = SipHash.V3_INIT ^ k1;
+    }
+
+    private static void checkKey(byte[] key) {
         if (key == null || key.length != 16)
             throw new RuntimeException("SipHash key must be 16 bytes");
-        this.key = key;
     }
 
-    long getLeftHalf() {
+    /**
+     * @return the first key word, k0, as a little-endian 64-bit integer
+     */
+    public long getLeftHalf() {
+        return k0;
+    }
+
+    /**
+     * @return the second key word, k1, as a little-endian 64-bit integer
+     */
+    public long getRightHalf() {
+        return k1;
+    }
+
+    /**
+     * Decode k0 from a raw 16-byte key without constructing a {@code SipKey}.
+     */
+    public static long leftHalf(byte[] key) {
+        checkKey(key);
         return UnsignedInt64.binToIntOffset(key, 0);
     }
 
-    long getRightHalf() {
+    /**
+     * Decode k1 from a raw 16-byte key without constructing a {@code SipKey}.
+     */
+    public static long rightHalf(byte[] key) {
+        checkKey(key);
         return UnsignedInt64.binToIntOffset(key, 8);
     }
 }
@@ -0,0 +1,96 @@
+package com.github.emboss.siphash;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SipHash-2-4 spread across the lanes of the Vector API: each lane carries the v0..v3 state
+ * of one independent digest, and every round of {@code SipHash.State} is applied to all lanes
+ * at once. With 256-bit vectors (AVX2) that is 4 digests per instruction stream.
+ * <p>
+ * Java 17+ only: the default compile excludes this file and the {@code java17-vector} profile
+ * compiles it into {@code META-INF/versions/17}. {@link SipHashKernel} loads it by name.
+ */
+final class VectorSipHashKernel implements SipHashKernel.Vectorized {
+    private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+
+    VectorSipHashKernel() {
+    }
+
+    @Override
+    public int digest(
+            long[] k0, long[] k1, int keyOffset,
+            long[] m0, long[] m1, int len,
+            long[] out, int count) {
+        int lanes = SPECIES.length();
+        int bound = count - count % lanes;
+        long lengthTag = ((long) len) << 56;
+        long lastMask = len < 8
+                ? (1L << (len * 8)) - 1
+                : (1L << ((len - 8) * 8)) - 1;
+        LongVector[] v = new LongVector[4];
+        for (int i = 0; i < bound; i += lanes) {
+            LongVector key0 = LongVector.fromArray(SPECIES, k0, keyOffset + i);
+            LongVector key1 = LongVector.fromArray(SPECIES, k1, keyOffset + i);
+            v[0] = key0.lanewise(VectorOperators.XOR, SipHash.V0_INIT);
+            v[1] = key1.lanewise(VectorOperators.XOR, SipHash.V1_INIT);
+            v[2] = key0.lanewise(VectorOperators.XOR, SipHash.V2_INIT);
+            v[3] = key1.lanewise(VectorOperators.XOR, SipHash.V3_INIT);
+
+            LongVector first = LongVector.fromArray(SPECIES, m0, i);
+            LongVector last;
+            if (len < 8) {
+                last = first.and(lastMask).or(lengthTag);
+            } else {
+                // Full first block
+                compress(v, first);
+                last = LongVector.fromArray(SPECIES, m1, i).and(lastMask).or(lengthTag);
+            }
+            // Final (length-tagged) block
+            compress(v, last);
+
+            // Finalization
+            v[2] = v[2].lanewise(VectorOperators.XOR, 0xffL);
+            sipRounds(v, 4);
+            v[0].lanewise(VectorOperators.XOR, v[1])
+                    .lanewise(VectorOperators.XOR, v[2])
+                    .lanewise(VectorOperators.XOR, v[3])
+                    .intoArray(out, i);
+        }
+        return bound;
+    }
+
+    private static void compress(LongVector[] v, LongVector block) {
+        v[3] = v[3].lanewise(VectorOperators.XOR, block);
+        sipRounds(v, 2);
+        v[0] = v[0].lanewise(VectorOperators.XOR, block);
+    }
+
+    private static void sipRounds(LongVector[] v, int rounds) {
+        LongVector v0 = v[0];
+        LongVector v1 = v[1];
+        LongVector v2 = v[2];
+        LongVector v3 = v[3];
+        for (int r = 0; r < rounds; r++) {
+            v0 = v0.add(v1);
+            v2 = v2.add(v3);
+            v1 = v1.lanewise(VectorOperators.ROL, 13);
+            v3 = v3.lanewise(VectorOperators.ROL, 16);
+            v1 = v1.lanewise(VectorOperators.XOR, v0);
+            v3 = v3.lanewise(VectorOperators.XOR, v2);
+            v0 = v0.lanewise(VectorOperators.ROL, 32);
+            v2 = v2.add(v1);
+            v0 = v0.add(v3);
+            v1 = v1.lanewise(VectorOperators.ROL, 17);
+            v3 = v3.lanewise(VectorOperators.ROL, 21);
+            v1 = v1.lanewise(VectorOperators.XOR, v2);
+            v3 = v3.lanewise(VectorOperators.XOR, v0);
+            v2 = v2.lanewise(VectorOperators.ROL, 32);
+        }
+        v[0] = v0;
+        v[1] = v1;
+        v[2] = v2;
+        v[3] = v3;
+    }
+}
@@ -0,0 +1,111 @@
+package com.angaza.nexus.keycode;
+
+
+import com.github.emboss.siphash.SipKey;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.angaza.nexus.keycode.full.FullMessage;
+import com.angaza.nexus.keycode.small.AddCreditSmallMessage;
+import com.angaza.nexus.keycode.small.SmallMessage;
+
+import static org.junit.Assert.assertEquals;
+
+public class ColumnarKeycodeEncoderTest {
+    private static final int ITEMS = 300;
+
+    private final long[] k0 = new long[ITEMS];
+    private final long[] k1 = new long[ITEMS];
+    private final byte[][] keys = new byte[ITEMS][];
+
+    public ColumnarKeycodeEncoderTest() {
+        Random random = new Random(9);
+        for (int i = 0; i < ITEMS; i++) {
+            keys[i] = new byte[16];
+            random.nextBytes(keys[i]);
+            k0[i] = SipKey.leftHalf(keys[i]);
+            k1[i] = SipKey.rightHalf(keys[i]);
+        }
+    }
+
+    @Test
+    public void testEncodeSmall_matchesMessages() throws Exception {
+        int[] messageId = new int[ITEMS];
+        int[] typeCode = new int[ITEMS];
+        int[] body = new int[ITEMS];
+        for (int i = 0; i < ITEMS; i++) {
+            messageId[i] = i * 211;
+            body[i] = AddCreditSmallMessage.generateBody(1 + i % 180);
+        }
+        long[] out = new long[ITEMS];
+
+        ColumnarKeycodeEncoder.encodeSmall(k0, k1, messageId, typeCode, body, out);
+
+        for (int i = 0; i < ITEMS; i++) {
+            SmallMessage message = new SmallMessage(messageId[i], 0, body[i], keys[i]);
+            byte[] bits = SmallMessage.obscure(message.messageAndBodyBits(), message.macBits());
+            long expected = (bits[0] & 0xff) | (bits[1] & 0xff) << 8
+                    | (bits[2] & 0xff) << 16 | (bits[3] & 0xff) << 24;
+            assertEquals("item " + i, expected, out[i]);
+        }
+    }
+
+    @Test
+    public void testEncodeFull_matchesMessages() throws Exception {
+        int[] messageId = new int[ITEMS];
+        int[] typeCode = new int[ITEMS];
+        int[] body = new int[ITEMS];
+        for (int i = 0; i < ITEMS; i++) {
+            messageId[i] = i * 211;
+            typeCode[i] = i % 2;
+            body[i] = i * 331 % 100000;
+        }
+        long[] out = new long[ITEMS];
+
+        ColumnarKeycodeEncoder.encodeFull(k0, k1, messageId, typeCode, body, out);
+
+        for (int i = 0; i < ITEMS; i++) {
+            FullMessage message = typeCode[i] == 0
+                    ? FullMessage.addCredit(messageId[i], body[i], keys[i])
+                    : FullMessage.setCredit(messageId[i], body[i], keys[i]);
+            assertEquals(
+                    "item " + i,
+                    Long.parseLong(message.toKeycode("", "", "", 14)),
+                    out[i]);
+        }
+    }
+
+    @Test
+    public void testEncode_invalidItemsMarked() throws Exception {
+        long[] keys0 = new long[]{k0[0], k0[1], k0[2], k0[3]};
+        long[] keys1 = new long[]{k1[0], k1[1], k1[2], k1[3]};
+        int[] messageId = new int[]{65535, 1, 2, 3};
+        int[] typeCode = new int[]{0, 1, 0, 0};
+        int[] body = new int[]{1, 1, 256, 100000};
+        long[] out = new long[4];
+
+        ColumnarKeycodeEncoder.encodeSmall(keys0, keys1, messageId, typeCode, body, out);
+        assertEquals(ColumnarKeycodeEncoder.INVALID, out[0]);
+        assertEquals(ColumnarKeycodeEncoder.INVALID, out[1]);
+        assertEquals(ColumnarKeycodeEncoder.INVALID, out[2]);
+        assertEquals(ColumnarKeycodeEncoder.INVALID, out[3]);
+
+        ColumnarKeycodeEncoder.encodeFull(keys0, keys1, messageId, typeCode, body, out);
+        assertEquals(ColumnarKeycodeEncoder.INVALID, out[0]);
+        assertEquals(
+                Long.parseLong(FullMessage.setCredit(1, 1, keys[1]).toKeycode("", "", "", 14)),
+                out[1]);
+        assertEquals(
+                Long.parseLong(FullMessage.addCredit(2, 256, keys[2]).toKeycode("", "", "", 14)),
+                out[2]);
+        assertEquals(ColumnarKeycodeEncoder.INVALID, out[3]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEncode_mismatchedColumnsThrow() throws Exception {
+        ColumnarKeycodeEncoder.encodeFull(
+                new long[2], new long[2], new int[2], new int[2], new int[1], new long[2]);
+    }
+}
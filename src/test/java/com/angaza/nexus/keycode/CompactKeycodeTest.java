@@ -0,0 +1,91 @@
+package com.angaza.nexus.keycode;
+
+
+import java.util.Date;
+
+import org.junit.Test;
+
+import com.angaza.nexus.keycode.exceptions.UnsupportedMessageTypeException;
+import com.angaza.nexus.keycode.util.HexToByteArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class CompactKeycodeTest {
+    private static final byte[] SECRET_KEY =
+            new HexToByteArray().convert("deadbeefdeadbeefdeadbeefdeadbeef");
+    private static final Date NOW = new Date(1581552000000L);
+
+    private static void assertSameKeycode(KeycodeData expected, CompactKeycode actual) {
+        assertEquals(expected.getKeycode(), actual.toKeycode());
+        assertEquals(expected.getType(), actual.getType().name());
+        assertEquals(expected.getMessageId(), actual.getMessageId());
+        assertEquals(expected.getSeconds(), actual.getSeconds());
+
+        KeycodeData converted = actual.toKeycodeData();
+        assertEquals(expected.getKeycode(), converted.getKeycode());
+        assertEquals(expected.getType(), converted.getType());
+    }
+
+    @Test
+    public void testCompact_matchesKeycodeData() throws Exception {
+        for (String protocol : new String[]{KeycodeProtocol.SMALL, KeycodeProtocol.FULL}) {
+            DeviceKeycodeEncoder encoder = new DeviceKeycodeEncoder(SECRET_KEY, protocol);
+            for (int messageId = 0; messageId < 500; messageId += 13) {
+                long seconds = 3600L * 7 * (messageId + 1) + 5;
+                assertSameKeycode(
+                        encoder.addCredit(NOW, messageId, seconds).getKeycodeData(),
+                        encoder.compactAddCredit(messageId, seconds));
+                assertSameKeycode(
+                        encoder.unlock(messageId).getKeycodeData(),
+                        encoder.compactUnlock(messageId));
+                if (protocol.equals(KeycodeProtocol.FULL)) {
+                    assertSameKeycode(
+                            encoder.setCredit(NOW, messageId, seconds).getKeycodeData(),
+                            encoder.compactSetCredit(messageId, seconds));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRender_otherFormats() throws Exception {
+        CompactKeycode full = new DeviceKeycodeEncoder(SECRET_KEY, KeycodeProtocol.FULL)
+                .compactAddCredit(42, 86400);
+        KeycodeFormat dashed = KeycodeFormat.full("", "", "-", 7);
+        String expected = full.toKeycode().replaceAll("[^0-9]", "");
+        assertEquals(expected.substring(0, 7) + "-" + expected.substring(7),
+                full.toKeycode(dashed));
+
+        StringBuilder sms = new StringBuilder("code ");
+        assertEquals(20, full.render(KeycodeFormat.FULL, sms));
+        assertEquals("code " + full.toKeycode(), sms.toString());
+        assertEquals(KeycodeProtocol.FULL, full.getKeycodeProtocol());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRender_otherProtocolRejected() throws Exception {
+        new DeviceKeycodeEncoder(SECRET_KEY, KeycodeProtocol.SMALL)
+                .compactUnlock(3)
+                .toKeycode(KeycodeFormat.FULL);
+    }
+
+    @Test
+    public void testEquals_byValue() throws Exception {
+        DeviceKeycodeEncoder encoder = new DeviceKeycodeEncoder(SECRET_KEY, KeycodeProtocol.FULL);
+        assertEquals(encoder.compactUnlock(9), encoder.compactUnlock(9));
+        assertEquals(encoder.compactUnlock(9).hashCode(), encoder.compactUnlock(9).hashCode());
+        assertFalse(encoder.compactUnlock(9).equals(encoder.compactUnlock(10)));
+    }
+
+    @Test(expected = UnsupportedMessageTypeException.class)
+    public void testCompactSetCredit_smallUnsupported() throws Exception {
+        new DeviceKeycodeEncoder(SECRET_KEY, KeycodeProtocol.SMALL).compactSetCredit(1, 3600);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCompactAddCredit_fullHoursOutOfRange() throws Exception {
+        new DeviceKeycodeEncoder(SECRET_KEY, KeycodeProtocol.FULL)
+                .compactAddCredit(1, 3600L * 100000);
+    }
+}
@@ -0,0 +1,93 @@
+package com.angaza.nexus.keycode;
+
+
+import com.github.emboss.siphash.SipHash;
+import com.github.emboss.siphash.SipKey;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.angaza.nexus.keycode.util.HexToByteArray;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DeviceKeyDeriverTest {
+    private static final byte[] MASTER_KEY =
+            new HexToByteArray().convert("000102030405060708090a0b0c0d0e0f");
+
+    @Test
+    public void testDeriveKey_matchesSpecifiedMessages() {
+        long serial = 0x0123456789abcdefL;
+        SipKey key = new DeviceKeyDeriver(MASTER_KEY, 0).deriveKey(serial);
+
+        SipKey master = new SipKey(MASTER_KEY);
+        byte[] message = new byte[]{
+                (byte) 0xef, (byte) 0xcd, (byte) 0xab, (byte) 0x89, 0x67, 0x45, 0x23, 0x01, 1};
+        assertEquals(SipHash.digest(master, message), key.getLeftHalf());
+        message[8] = 2;
+        assertEquals(SipHash.digest(master, message), key.getRightHalf());
+    }
+
+    @Test
+    public void testDeriveKey_deterministicAndDistinct() {
+        DeviceKeyDeriver deriver = new DeviceKeyDeriver(MASTER_KEY, 0);
+        DeviceKeyDeriver other = new DeviceKeyDeriver(MASTER_KEY.clone(), 16);
+        Set<Long> words = new HashSet<Long>();
+        for (long serial = 0; serial < 1000; serial++) {
+            SipKey key = deriver.deriveKey(serial);
+            assertEquals(key.getLeftHalf(), other.getKey(serial).getLeftHalf());
+            assertEquals(key.getRightHalf(), other.getKey(serial).getRightHalf());
+            assertTrue(words.add(key.getLeftHalf()));
+            assertTrue(words.add(key.getRightHalf()));
+        }
+
+        byte[] otherMaster = MASTER_KEY.clone();
+        otherMaster[0] ^= 1;
+        assertTrue(deriver.deriveKey(7).getLeftHalf()
+                != new DeviceKeyDeriver(otherMaster, 0).deriveKey(7).getLeftHalf());
+    }
+
+    @Test
+    public void testDeriveKeyBytes_roundTrips() {
+        DeviceKeyDeriver deriver = new DeviceKeyDeriver(MASTER_KEY, 0);
+        byte[] raw = deriver.deriveKeyBytes(-42L);
+        SipKey key = new SipKey(raw);
+        assertEquals(deriver.deriveKey(-42L).getLeftHalf(), key.getLeftHalf());
+        assertEquals(deriver.deriveKey(-42L).getRightHalf(), key.getRightHalf());
+        assertArrayEquals(raw, deriver.deriveKeyBytes(-42L));
+    }
+
+    @Test
+    public void testGetKey_cachesDerivedKeys() {
+        DeviceKeyDeriver deriver = new DeviceKeyDeriver(MASTER_KEY, 2);
+        SipKey first = deriver.getKey(1);
+        assertSame(first, deriver.getKey(1));
+        deriver.getKey(2);
+        deriver.getKey(3);
+        assertEquals(2, deriver.getCache().size());
+        assertEquals(1, deriver.getCache().hitCount());
+        assertNull(new DeviceKeyDeriver(MASTER_KEY, 0).getCache());
+    }
+
+    @Test
+    public void testGetKey_encodesLikeRawKey() throws Exception {
+        DeviceKeyDeriver deriver = new DeviceKeyDeriver(MASTER_KEY, 8);
+        byte[] raw = deriver.deriveKeyBytes(1001);
+        assertEquals(
+                new DeviceKeycodeEncoder(raw, KeycodeProtocol.SMALL)
+                        .unlock(12).getKeycodeData().getKeycode(),
+                new DeviceKeycodeEncoder(deriver.getKey(1001), KeycodeProtocol.SMALL)
+                        .unlock(12).getKeycodeData().getKeycode());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructor_negativeCacheSizeRejected() {
+        new DeviceKeyDeriver(MASTER_KEY, -1);
+    }
+}
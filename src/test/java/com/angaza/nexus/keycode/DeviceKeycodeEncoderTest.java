@@ -0,0 +1,150 @@
+package com.angaza.nexus.keycode;
+
+
+import com.github.emboss.siphash.SipKey;
+
+import java.util.Date;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+import com.angaza.nexus.keycode.exceptions.UnsupportedMessageTypeException;
+import com.angaza.nexus.keycode.exceptions.UnsupportedProtocolException;
+import com.angaza.nexus.keycode.full.FullMessage;
+import com.angaza.nexus.keycode.small.UnlockSmallMessage;
+import com.angaza.nexus.keycode.util.HexToByteArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class DeviceKeycodeEncoderTest {
+    private final byte[] secretKey =
+            new HexToByteArray().convert("deadbeefdeadbeefdeadbeefdeadbeef");
+
+    @Test(expected = UnsupportedProtocolException.class)
+    public void testConstructor_unsupportedProtocolThrows() throws Exception {
+        new DeviceKeycodeEncoder(secretKey, "TINY");
+    }
+
+    @Test(expected = UnsupportedProtocolException.class)
+    public void testConstructor_nullProtocolThrows() throws Exception {
+        new DeviceKeycodeEncoder(secretKey, null);
+    }
+
+    @Test(expected = UnsupportedProtocolException.class)
+    public void testConstructor_badProtocolReportedBeforeBadKey() throws Exception {
+        new DeviceKeycodeEncoder(new byte[3], "TINY");
+    }
+
+    @Test
+    public void testConstructor_normalizesProtocol() throws Exception {
+        assertEquals(
+                KeycodeProtocol.SMALL,
+                new DeviceKeycodeEncoder(secretKey, "small").getKeycodeProtocol());
+    }
+
+    @Test
+    public void testCustomFormat_usedForEveryKeycode() throws Exception {
+        Date clampedTime = new Date(1581552000000L);
+        DeviceKeycodeEncoder full = new DeviceKeycodeEncoder(
+                new SipKey(secretKey), KeycodeFormat.full("#", "*", "-", 4));
+        assertEquals(KeycodeProtocol.FULL, full.getKeycodeProtocol());
+        assertEquals(
+                FullMessage.addCredit(42, 24, secretKey).toKeycode("#", "*", "-", 4),
+                full.addCredit(clampedTime, 42, 3600 * 24).getKeycodeData().getKeycode());
+        assertEquals(
+                FullMessage.unlock(43, secretKey).toKeycode("#", "*", "-", 4),
+                full.compactUnlock(43).toKeycode());
+
+        String[] keyMapping = {"a", "b", "c", "d"};
+        DeviceKeycodeEncoder small = new DeviceKeycodeEncoder(
+                new SipKey(secretKey), KeycodeFormat.small("", "-", 4, keyMapping));
+        assertEquals(
+                new UnlockSmallMessage(7, new SipKey(secretKey)).toKeycode("", "-", 4, keyMapping),
+                small.unlock(7).getKeycodeData().getKeycode());
+    }
+
+    @Test
+    public void testAddCreditMillis_matchesDateVersion() throws Exception {
+        TimeZone defaultZone = TimeZone.getDefault();
+        try {
+            // Credit crossing the start and end of daylight saving
+            TimeZone.setDefault(TimeZone.getTimeZone("America/New_York"));
+            for (String protocol : new String[]{KeycodeProtocol.SMALL, KeycodeProtocol.FULL}) {
+                DeviceKeycodeEncoder encoder = new DeviceKeycodeEncoder(secretKey, protocol);
+                for (long clamped = 1583000000000L; clamped < 1605000000000L;
+                     clamped += 86400000L * 9 + 3600000L * 5) {
+                    long seconds = 86400L * 40 + 1;
+                    KeycodeMetadata expected = encoder.addCredit(new Date(clamped), 4, seconds);
+                    CreditMetadata actual = encoder.addCredit(clamped, 4, seconds);
+                    assertEquals(expected.getNewDisabledWhen().getTime(),
+                            actual.getNewDisabledWhenMillis());
+                    assertEquals(expected.getKeycodeData().getKeycode(), actual.getKeycode());
+                    assertEquals(expected.getKeycodeData().getSeconds(), actual.getSeconds());
+                    assertEquals(4, actual.getMessageId());
+
+                    KeycodeMetadata converted = KeycodeFactory.addCredit(
+                            clamped, 4, secretKey, protocol, seconds).toKeycodeMetadata();
+                    assertEquals(expected.getNewDisabledWhen(), converted.getNewDisabledWhen());
+                    assertEquals(KeycodeData.ADD, converted.getKeycodeData().getType());
+                }
+            }
+        } finally {
+            TimeZone.setDefault(defaultZone);
+        }
+    }
+
+    @Test
+    public void testAddCredit_matchesFactory() throws Exception {
+        Date clampedTime = new Date(1581552000000L);
+        for (String protocol : new String[]{KeycodeProtocol.SMALL, KeycodeProtocol.FULL}) {
+            DeviceKeycodeEncoder encoder = new DeviceKeycodeEncoder(secretKey, protocol);
+            for (int messageId = 0; messageId < 100; messageId += 7) {
+                long seconds = 3600L * (messageId + 1) + 1;
+                KeycodeMetadata expected = KeycodeFactory.addCredit(
+                        clampedTime, messageId, secretKey, protocol, seconds);
+                KeycodeMetadata actual = encoder.addCredit(clampedTime, messageId, seconds);
+                assertEquals(expected.getNewDisabledWhen(), actual.getNewDisabledWhen());
+                assertEquals(
+                        expected.getKeycodeData().getKeycode(),
+                        actual.getKeycodeData().getKeycode());
+                assertEquals(
+                        expected.getKeycodeData().getSeconds(),
+                        actual.getKeycodeData().getSeconds());
+                assertEquals(KeycodeData.ADD, actual.getKeycodeData().getType());
+                assertEquals(messageId, actual.getKeycodeData().getMessageId());
+            }
+        }
+    }
+
+    @Test
+    public void testUnlock_matchesFactory() throws Exception {
+        for (String protocol : new String[]{KeycodeProtocol.SMALL, KeycodeProtocol.FULL}) {
+            DeviceKeycodeEncoder encoder = new DeviceKeycodeEncoder(secretKey, protocol);
+            KeycodeMetadata actual = encoder.unlock(44);
+            assertNull(actual.getNewDisabledWhen());
+            assertEquals(KeycodeData.UNLOCK, actual.getKeycodeData().getType());
+            assertEquals(
+                    KeycodeFactory.unlock(44, secretKey, protocol).getKeycodeData().getKeycode(),
+                    actual.getKeycodeData().getKeycode());
+        }
+    }
+
+    @Test
+    public void testSetCredit_full() throws Exception {
+        DeviceKeycodeEncoder encoder = new DeviceKeycodeEncoder(secretKey, KeycodeProtocol.FULL);
+        KeycodeMetadata output = encoder.setCredit(new Date(0L), 43, 14 * 24 * 60 * 60);
+        assertEquals("*272 511 292 039 01#", output.getKeycodeData().getKeycode());
+        assertEquals(
+                FullMessage.setCredit(43, 14 * 24, secretKey).toKeycode(),
+                output.getKeycodeData().getKeycode());
+        assertEquals(KeycodeData.SET, output.getKeycodeData().getType());
+        assertEquals(14 * 24 * 60 * 60, output.getKeycodeData().getSeconds());
+        assertEquals(14L * 24 * 60 * 60 * 1000, output.getNewDisabledWhen().getTime());
+    }
+
+    @Test(expected = UnsupportedMessageTypeException.class)
+    public void testSetCredit_smallThrows() throws Exception {
+        new DeviceKeycodeEncoder(secretKey, KeycodeProtocol.SMALL).setCredit(new Date(0L), 1, 3600);
+    }
+}
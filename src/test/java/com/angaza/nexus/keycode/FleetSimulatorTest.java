@@ -0,0 +1,166 @@
+package com.angaza.nexus.keycode;
+
+
+import com.github.emboss.siphash.SipKey;
+
+import java.io.File;
+import java.util.Date;
+import java.util.Random;
+
+import com.angaza.nexus.keycode.full.FullKeycodeDecoder;
+import com.angaza.nexus.keycode.small.SmallKeycodeDecoder;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FleetSimulatorTest {
+    private static final long HOUR = 60 * 60;
+    private static final long DAY = HOUR * 24;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final byte[][] keys = new byte[8][];
+
+    public FleetSimulatorTest() {
+        Random random = new Random(15);
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = new byte[16];
+            random.nextBytes(keys[i]);
+        }
+    }
+
+    private String addCredit(int messageId, int device, String protocol, long seconds)
+            throws Exception {
+        return KeycodeFactory.addCredit(new Date(), messageId, keys[device], protocol, seconds)
+                .getKeycodeData().getKeycode();
+    }
+
+    private String unlock(int messageId, int device, String protocol) throws Exception {
+        return KeycodeFactory.unlock(messageId, keys[device], protocol)
+                .getKeycodeData().getKeycode();
+    }
+
+    @Test
+    public void testFull_creditReplayAndUnlock() throws Exception {
+        FleetSimulator fleet = new FleetSimulator(KeycodeProtocol.FULL, keys.length);
+        SipKey key = new SipKey(keys[3]);
+
+        String first = addCredit(0, 3, KeycodeProtocol.FULL, 5 * HOUR);
+        assertEquals(FleetSimulator.ACCEPTED, fleet.enter(3, key, first));
+        assertEquals(5 * HOUR, fleet.getCreditSeconds(3));
+        assertEquals(FleetSimulator.DUPLICATE, fleet.enter(3, key, first));
+
+        // Out of order within the window
+        assertEquals(FleetSimulator.ACCEPTED,
+                fleet.enter(3, key, addCredit(10, 3, KeycodeProtocol.FULL, 2 * HOUR)));
+        assertEquals(FleetSimulator.ACCEPTED,
+                fleet.enter(3, key, addCredit(4, 3, KeycodeProtocol.FULL, HOUR)));
+        assertEquals(8 * HOUR, fleet.getCreditSeconds(3));
+        assertEquals(10, fleet.getHighestMessageId(3));
+
+        assertFalse(fleet.isUnlocked(3));
+        assertEquals(FleetSimulator.ACCEPTED,
+                fleet.enter(3, key, unlock(11, 3, KeycodeProtocol.FULL)));
+        assertTrue(fleet.isUnlocked(3));
+
+        // Other devices untouched
+        assertEquals(0, fleet.getCreditSeconds(2));
+        assertEquals(-1, fleet.getHighestMessageId(2));
+    }
+
+    @Test
+    public void testFull_windowAndWrongDevice() throws Exception {
+        FleetSimulator fleet = new FleetSimulator(KeycodeProtocol.FULL, keys.length);
+        SipKey key = new SipKey(keys[0]);
+
+        // Beyond the initial window
+        assertEquals(FleetSimulator.INVALID,
+                fleet.enter(0, key, addCredit(64, 0, KeycodeProtocol.FULL, HOUR)));
+        // Keycode for another device
+        assertEquals(FleetSimulator.INVALID,
+                fleet.enter(0, key, addCredit(1, 1, KeycodeProtocol.FULL, HOUR)));
+        assertEquals(FleetSimulator.INVALID, fleet.enter(0, key, "not a keycode"));
+
+        assertEquals(FleetSimulator.ACCEPTED,
+                fleet.enter(0, key, addCredit(63, 0, KeycodeProtocol.FULL, HOUR)));
+        assertEquals(FleetSimulator.ACCEPTED,
+                fleet.enter(0, key, addCredit(127, 0, KeycodeProtocol.FULL, HOUR)));
+        // Fallen below the window
+        assertEquals(FleetSimulator.INVALID,
+                fleet.enter(0, key, addCredit(63, 0, KeycodeProtocol.FULL, HOUR)));
+        assertEquals(FleetSimulator.INVALID,
+                fleet.enter(0, key, addCredit(10, 0, KeycodeProtocol.FULL, HOUR)));
+    }
+
+    @Test
+    public void testSmall_creditAndUnlock() throws Exception {
+        FleetSimulator fleet = new FleetSimulator(KeycodeProtocol.SMALL, keys.length);
+        SipKey key = new SipKey(keys[5]);
+
+        String credit = addCredit(7, 5, KeycodeProtocol.SMALL, 3 * DAY);
+        assertEquals(FleetSimulator.ACCEPTED, fleet.enter(5, key, credit));
+        assertEquals(FleetSimulator.DUPLICATE, fleet.enter(5, key, credit));
+        assertEquals(3 * DAY, fleet.getCreditSeconds(5));
+
+        fleet.consume(5, DAY);
+        assertEquals(2 * DAY, fleet.getCreditSeconds(5));
+
+        assertEquals(FleetSimulator.ACCEPTED,
+                fleet.enter(5, key, unlock(8, 5, KeycodeProtocol.SMALL)));
+        assertTrue(fleet.isUnlocked(5));
+    }
+
+    @Test
+    public void testMappedState_survivesReopen() throws Exception {
+        File stateFile = new File(folder.getRoot(), "fleet.bin");
+        SipKey key = new SipKey(keys[1]);
+        String keycode = addCredit(2, 1, KeycodeProtocol.FULL, 3 * HOUR);
+
+        FleetSimulator fleet = new FleetSimulator(KeycodeProtocol.FULL, 4, stateFile);
+        assertEquals(-1, fleet.getHighestMessageId(1));
+        assertEquals(FleetSimulator.ACCEPTED, fleet.enter(1, key, keycode));
+        fleet.flush();
+
+        // Reopen with more devices; the new ones start fresh
+        FleetSimulator reopened = new FleetSimulator(KeycodeProtocol.FULL, 6, stateFile);
+        assertEquals(3 * HOUR, reopened.getCreditSeconds(1));
+        assertEquals(2, reopened.getHighestMessageId(1));
+        assertEquals(FleetSimulator.DUPLICATE, reopened.enter(1, key, keycode));
+        assertEquals(-1, reopened.getHighestMessageId(5));
+        assertEquals(6 * FleetSimulator.RECORD_BYTES, stateFile.length());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testEnter_unknownDeviceThrows() throws Exception {
+        new FleetSimulator(KeycodeProtocol.FULL, 2).enter(2, new SipKey(keys[0]), "");
+    }
+
+    @Test
+    public void testEnter_preparedDecoders() throws Exception {
+        FleetSimulator full = new FleetSimulator(KeycodeProtocol.FULL, keys.length);
+        FullKeycodeDecoder fullDecoder = new FullKeycodeDecoder(keys[2]);
+        String fullKeycode = addCredit(3, 2, KeycodeProtocol.FULL, HOUR);
+        assertEquals(FleetSimulator.ACCEPTED, full.enter(2, fullDecoder, fullKeycode));
+        assertEquals(FleetSimulator.DUPLICATE, full.enter(2, fullDecoder, fullKeycode));
+        assertEquals(FleetSimulator.INVALID, full.enter(2, fullDecoder, "not a keycode"));
+        assertEquals(HOUR, full.getCreditSeconds(2));
+
+        FleetSimulator small = new FleetSimulator(KeycodeProtocol.SMALL, keys.length);
+        SmallKeycodeDecoder smallDecoder = new SmallKeycodeDecoder(keys[2]);
+        String smallKeycode = addCredit(3, 2, KeycodeProtocol.SMALL, DAY);
+        assertEquals(FleetSimulator.ACCEPTED, small.enter(2, smallDecoder, smallKeycode));
+        assertEquals(FleetSimulator.DUPLICATE, small.enter(2, smallDecoder, smallKeycode));
+        assertEquals(DAY, small.getCreditSeconds(2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEnter_decoderForOtherProtocolThrows() throws Exception {
+        new FleetSimulator(KeycodeProtocol.FULL, 2).enter(0, new SmallKeycodeDecoder(keys[0]), "");
+    }
+}
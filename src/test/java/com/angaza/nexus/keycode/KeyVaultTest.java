@@ -0,0 +1,152 @@
+package com.angaza.nexus.keycode;
+
+
+import com.github.emboss.siphash.SipKey;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.angaza.nexus.keycode.util.HexToByteArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class KeyVaultTest {
+    private static final byte[] VAULT_KEY =
+            new HexToByteArray().convert("00112233445566778899aabbccddeeff");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private byte[][] writeVault(File vaultFile, int count, int keysPerBlock) throws IOException {
+        Random random = new Random(18);
+        byte[][] keys = new byte[count][16];
+        KeyVault.Writer writer = KeyVault.create(vaultFile, VAULT_KEY, keysPerBlock);
+        try {
+            for (byte[] key : keys) {
+                random.nextBytes(key);
+                writer.add(key);
+            }
+        } finally {
+            writer.close();
+        }
+        return keys;
+    }
+
+    @Test
+    public void testCursor_readsKeysAcrossBlocks() throws Exception {
+        File vaultFile = folder.newFile("keys.vault");
+        byte[][] keys = writeVault(vaultFile, 1000, 64);
+
+        KeyVault vault = KeyVault.open(vaultFile, VAULT_KEY);
+        assertEquals(1000, vault.getKeyCount());
+        assertEquals(64, vault.getKeysPerBlock());
+        assertEquals(16, vault.getBlockCount());
+
+        KeyVault.Cursor cursor = vault.cursor();
+        for (int i = 999; i >= 0; i -= 37) {
+            SipKey key = cursor.getKey(i);
+            assertEquals(SipKey.leftHalf(keys[i]), key.getLeftHalf());
+            assertEquals(SipKey.rightHalf(keys[i]), key.getRightHalf());
+        }
+
+        long[] k0 = new long[1001];
+        long[] k1 = new long[1001];
+        cursor.readKeyWords(0, 1000, k0, k1, 1);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(SipKey.leftHalf(keys[i]), k0[i + 1]);
+            assertEquals(SipKey.rightHalf(keys[i]), k1[i + 1]);
+        }
+        cursor.close();
+    }
+
+    @Test
+    public void testOpen_exactAndEmptyBlocks() throws Exception {
+        File full = folder.newFile("full.vault");
+        writeVault(full, 128, 64);
+        assertEquals(128, KeyVault.open(full, VAULT_KEY).getKeyCount());
+        assertEquals(2, KeyVault.open(full, VAULT_KEY).getBlockCount());
+        KeyVault.open(full, VAULT_KEY).cursor().getKey(127);
+
+        File empty = folder.newFile("empty.vault");
+        writeVault(empty, 0, 64);
+        assertEquals(0, KeyVault.open(empty, VAULT_KEY).getKeyCount());
+        assertEquals(1, KeyVault.open(empty, VAULT_KEY).getBlockCount());
+    }
+
+    @Test
+    public void testVault_encodesLikeRawKey() throws Exception {
+        File vaultFile = folder.newFile("keys.vault");
+        byte[][] keys = writeVault(vaultFile, 10, 4);
+        SipKey key = KeyVault.open(vaultFile, VAULT_KEY).cursor().getKey(6);
+        assertEquals(
+                new DeviceKeycodeEncoder(keys[6], KeycodeProtocol.FULL)
+                        .unlock(3).getKeycodeData().getKeycode(),
+                new DeviceKeycodeEncoder(key, KeycodeProtocol.FULL)
+                        .unlock(3).getKeycodeData().getKeycode());
+    }
+
+    @Test
+    public void testCursor_wrongVaultKeyFails() throws Exception {
+        File vaultFile = folder.newFile("keys.vault");
+        writeVault(vaultFile, 10, 4);
+        byte[] wrongKey = VAULT_KEY.clone();
+        wrongKey[15] ^= 1;
+        KeyVault.Cursor cursor = KeyVault.open(vaultFile, wrongKey).cursor();
+        try {
+            cursor.getKey(0);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("authentication"));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testCursor_tamperedBlockFails() throws Exception {
+        File vaultFile = folder.newFile("keys.vault");
+        writeVault(vaultFile, 10, 4);
+        RandomAccessFile file = new RandomAccessFile(vaultFile, "rw");
+        file.seek(100);
+        int b = file.read();
+        file.seek(100);
+        file.write(b ^ 0x40);
+        file.close();
+        KeyVault.Cursor cursor = KeyVault.open(vaultFile, VAULT_KEY).cursor();
+        cursor.readKeyWords(0, 10, new long[10], new long[10], 0);
+    }
+
+    @Test(expected = IOException.class)
+    public void testCursor_droppedLastBlockFails() throws Exception {
+        File vaultFile = folder.newFile("keys.vault");
+        writeVault(vaultFile, 10, 4);
+        RandomAccessFile file = new RandomAccessFile(vaultFile, "rw");
+        // Header plus two full blocks of 4 keys
+        file.setLength(12 + 2 * (28 + 4 * 16));
+        file.close();
+        KeyVault vault = KeyVault.open(vaultFile, VAULT_KEY);
+        assertEquals(8, vault.getKeyCount());
+        vault.cursor().getKey(7);
+    }
+
+    @Test(expected = IOException.class)
+    public void testOpen_notAVaultFails() throws Exception {
+        File plain = folder.newFile("keys.bin");
+        SecretKeyStore.importHexCsv(new ByteArrayInputStream(
+                "0,abababababababababababababababab\n1,abababababababababababababababab\n"
+                        .getBytes("US-ASCII")), plain);
+        KeyVault.open(plain, VAULT_KEY);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCreate_invalidVaultKeyRejected() throws Exception {
+        KeyVault.create(folder.newFile("keys.vault"), new byte[15], 64);
+    }
+}
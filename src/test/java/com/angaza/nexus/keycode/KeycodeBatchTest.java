@@ -0,0 +1,100 @@
+package com.angaza.nexus.keycode;
+
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.angaza.nexus.keycode.exceptions.UnsupportedMessageIdException;
+import com.angaza.nexus.keycode.exceptions.UnsupportedMessageTypeException;
+import com.angaza.nexus.keycode.exceptions.UnsupportedProtocolException;
+import com.angaza.nexus.keycode.util.HexToByteArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class KeycodeBatchTest {
+    private final byte[] secretKey =
+            new HexToByteArray().convert("deadbeefdeadbeefdeadbeefdeadbeef");
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void testGenerate_matchesFactoryInInputOrder() throws Exception {
+        Date clampedTime = new Date(1581552000000L);
+        List<KeycodeBatch.Request> requests = new ArrayList<KeycodeBatch.Request>();
+        for (int i = 0; i < 500; i++) {
+            String protocol = i % 2 == 0 ? KeycodeProtocol.SMALL : KeycodeProtocol.FULL;
+            if (i % 5 == 0) {
+                requests.add(KeycodeBatch.Request.unlock(i, secretKey, protocol));
+            } else {
+                requests.add(KeycodeBatch.Request.addCredit(
+                        clampedTime, i, secretKey, protocol, 86400L * (1 + i % 30)));
+            }
+        }
+
+        List<KeycodeBatch.Result> results = new KeycodeBatch(pool, 16).generate(requests);
+
+        assertEquals(requests.size(), results.size());
+        for (int i = 0; i < requests.size(); i++) {
+            KeycodeBatch.Request request = requests.get(i);
+            KeycodeMetadata expected = KeycodeData.ADD.equals(request.getType())
+                    ? KeycodeFactory.addCredit(clampedTime, i, secretKey,
+                    request.getKeycodeProtocol(), request.getSeconds())
+                    : KeycodeFactory.unlock(i, secretKey, request.getKeycodeProtocol());
+            KeycodeBatch.Result result = results.get(i);
+            assertTrue(result.isSuccess());
+            assertNull(result.getError());
+            KeycodeMetadata actual = result.getKeycodeMetadata();
+            assertEquals(expected.getNewDisabledWhen(), actual.getNewDisabledWhen());
+            assertEquals(
+                    expected.getKeycodeData().getKeycode(),
+                    actual.getKeycodeData().getKeycode());
+            assertEquals(expected.getKeycodeData().getType(), actual.getKeycodeData().getType());
+            assertEquals(i, actual.getKeycodeData().getMessageId());
+        }
+    }
+
+    @Test
+    public void testGenerate_reportsInvalidEntriesPerItem() throws Exception {
+        Date clampedTime = new Date(0L);
+        KeycodeBatch.Request[] requests = new KeycodeBatch.Request[]{
+                KeycodeBatch.Request.unlock(1, secretKey, "TINY"),
+                KeycodeBatch.Request.addCredit(clampedTime, 65535, secretKey,
+                        KeycodeProtocol.FULL, 3600),
+                KeycodeBatch.Request.unlock(2, new byte[3], KeycodeProtocol.SMALL),
+                new KeycodeBatch.Request("REFUND", clampedTime, 3, secretKey,
+                        KeycodeProtocol.FULL, 0),
+                KeycodeBatch.Request.unlock(44, secretKey, KeycodeProtocol.FULL),
+        };
+
+        KeycodeBatch.Result[] results = new KeycodeBatch(pool).generate(requests);
+
+        assertTrue(results[0].getError() instanceof UnsupportedProtocolException);
+        assertTrue(results[1].getError() instanceof UnsupportedMessageIdException);
+        assertTrue(results[2].getError() instanceof RuntimeException);
+        assertTrue(results[3].getError() instanceof UnsupportedMessageTypeException);
+        for (int i = 0; i < 4; i++) {
+            assertFalse(results[i].isSuccess());
+            assertNull(results[i].getKeycodeMetadata());
+        }
+        assertEquals(
+                "*578 396 697 305 45#",
+                results[4].getKeycodeMetadata().getKeycodeData().getKeycode());
+    }
+
+    @Test
+    public void testGenerate_emptyBatch() throws Exception {
+        assertEquals(0, new KeycodeBatch(pool).generate(new KeycodeBatch.Request[0]).length);
+    }
+}
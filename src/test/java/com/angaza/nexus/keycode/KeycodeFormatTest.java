@@ -0,0 +1,211 @@
+package com.angaza.nexus.keycode;
+
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.angaza.nexus.keycode.exceptions.UnsupportedKeyMappingException;
+import com.angaza.nexus.keycode.full.BaseFullMessage;
+import com.angaza.nexus.keycode.full.FullMessage;
+import com.angaza.nexus.keycode.small.SmallMessage;
+import com.angaza.nexus.keycode.util.HexToByteArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class KeycodeFormatTest {
+    private static final String[] PREFIXES = {"", "1", "*", "**"};
+    private static final String[] SEPARATORS = {"", " ", "-", " - "};
+    private static final int[] GROUP_LENS = {1, 2, 3, 4, 5, 14, 20};
+
+    @Test
+    public void testSmall_matchesStringRendering() throws Exception {
+        Random random = new Random(3);
+        String[][] keyMappings = {null, {"0", "1", "2", "3"}, {"a", "bb", "c", "dd"}};
+        for (int n = 0; n < 50; n++) {
+            int keycode = random.nextInt(1 << 28);
+            for (String prefix : PREFIXES) {
+                for (String separator : SEPARATORS) {
+                    for (int groupLen : GROUP_LENS) {
+                        for (String[] keyMapping : keyMappings) {
+                            KeycodeFormat format = KeycodeFormat.small(
+                                    prefix, separator, groupLen, keyMapping);
+                            assertEquals(
+                                    smallReference(keycode, prefix, separator, groupLen,
+                                            keyMapping),
+                                    format.toKeycode(keycode));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFull_matchesStringRendering() {
+        Random random = new Random(4);
+        for (int n = 0; n < 50; n++) {
+            long keycode = (random.nextLong() >>> 1) % 100000000000000L;
+            for (String prefix : PREFIXES) {
+                for (String separator : SEPARATORS) {
+                    for (int groupLen : GROUP_LENS) {
+                        KeycodeFormat format = KeycodeFormat.full(
+                                prefix, "#", separator, groupLen);
+                        assertEquals(
+                                fullReference(keycode, prefix, "#", separator, groupLen),
+                                format.toKeycode(keycode));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDefaults_matchMessages() throws Exception {
+        byte[] secretKey = new HexToByteArray().convert("abababababababababababababababab");
+        SmallMessage small = new SmallMessage(100, 0, 10, secretKey);
+        FullMessage full = FullMessage.addCredit(1223, 993, secretKey);
+
+        assertEquals(small.toKeycode(), KeycodeFormat.SMALL.toKeycode(small.obscuredBits()));
+        assertEquals(full.toKeycode(), KeycodeFormat.FULL.toKeycode(full.obscuredDigits()));
+        assertEquals(KeycodeProtocol.SMALL, KeycodeFormat.SMALL.getKeycodeProtocol());
+        assertEquals(KeycodeProtocol.FULL, KeycodeFormat.FULL.getKeycodeProtocol());
+    }
+
+    @Test
+    public void testRender_allTargetsAgree() throws Exception {
+        long keycode = 88519055663904L;
+        String expected = "*885 190 556 639 04#";
+
+        char[] chars = new char[40];
+        int written = KeycodeFormat.FULL.render(keycode, chars, 3);
+        assertEquals(expected, new String(chars, 3, written));
+
+        CharBuffer charBuffer = CharBuffer.allocate(40);
+        charBuffer.put('x');
+        KeycodeFormat.FULL.render(keycode, charBuffer);
+        charBuffer.flip();
+        assertEquals("x" + expected, charBuffer.toString());
+
+        ByteBuffer byteBuffer = ByteBuffer.allocateDirect(40);
+        written = KeycodeFormat.FULL.render(keycode, byteBuffer);
+        byte[] bytes = new byte[written];
+        byteBuffer.flip();
+        byteBuffer.get(bytes);
+        assertEquals(expected, new String(bytes, "US-ASCII"));
+
+        StringBuilder builder = new StringBuilder("sms: ");
+        KeycodeFormat.FULL.render(keycode, builder);
+        assertEquals("sms: " + expected, builder.toString());
+    }
+
+    @Test
+    public void testRender_tightArrayFitsExactly() {
+        char[] chars = new char[20];
+        assertEquals(20, KeycodeFormat.FULL.render(88519055663904L, chars, 0));
+        assertEquals("*885 190 556 639 04#", new String(chars));
+    }
+
+    @Test
+    public void testRender_overflowWritesNothing() {
+        char[] chars = new char[10];
+        try {
+            KeycodeFormat.FULL.render(88519055663904L, chars, 0);
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+            assertEquals(0, chars[0]);
+        }
+
+        ByteBuffer bytes = ByteBuffer.allocate(10);
+        try {
+            KeycodeFormat.FULL.render(88519055663904L, bytes);
+            fail();
+        } catch (BufferOverflowException e) {
+            assertEquals(0, bytes.position());
+        }
+
+        CharBuffer charBuffer = CharBuffer.allocate(10);
+        try {
+            KeycodeFormat.FULL.render(88519055663904L, charBuffer);
+            fail();
+        } catch (BufferOverflowException e) {
+            assertEquals(0, charBuffer.position());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRender_nonAsciiBytesRejected() {
+        KeycodeFormat.full("\u2217", "#", " ", 3).render(0L, ByteBuffer.allocate(40));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testToKeycode_invalidKeycodeRejected() {
+        KeycodeFormat.FULL.toKeycode(ColumnarKeycodeEncoder.INVALID);
+    }
+
+    @Test
+    public void testFactories_reuseFormatsForRepeatedOptions() throws Exception {
+        assertSame(KeycodeFormat.FULL, KeycodeFormat.full("*", "#", " ", 3));
+        assertSame(KeycodeFormat.SMALL, KeycodeFormat.small("1", " ", 3, null));
+        assertSame(KeycodeFormat.SMALL,
+                KeycodeFormat.small("1", " ", 3, new String[]{"2", "3", "4", "5"}));
+
+        KeycodeFormat full = KeycodeFormat.full("", "", "-", 4);
+        assertSame(full, KeycodeFormat.full("", "", "-", 4));
+        String[] keyMapping = {"0", "1", "2", "3"};
+        KeycodeFormat small = KeycodeFormat.small("*", "", 1, keyMapping);
+        assertSame(small, KeycodeFormat.small("*", "", 1, keyMapping.clone()));
+        assertNotSame(small, KeycodeFormat.small("*", "", 1, new String[]{"0", "1", "2", "4"}));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFull_invalidGroupLenRejected() {
+        KeycodeFormat.full("*", "#", " ", 0);
+    }
+
+    @Test(expected = UnsupportedKeyMappingException.class)
+    public void testSmall_invalidKeyMappingRejected() throws Exception {
+        KeycodeFormat.small("1", " ", 3, new String[]{"2", "3", "4"});
+    }
+
+    // Rendering as done by BaseSmallMessage.toKeycode before KeycodeFormat
+    private static String smallReference(
+            int keycode, String prefix, String separator, int groupLen, String[] keyMapping) {
+        if (keyMapping == null) {
+            keyMapping = new String[]{"2", "3", "4", "5"};
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(prefix);
+        int separatorsAdded = 0;
+        for (int i = 13; i >= 0; i--) {
+            if (((sb.length() - separatorsAdded) % groupLen) == 0) {
+                sb.append(separator);
+                separatorsAdded += 1;
+            }
+            sb.append(keyMapping[(keycode >>> (2 * i)) & 0x3]);
+        }
+        return sb.toString();
+    }
+
+    // Rendering as done by BaseFullMessage.toKeycode before KeycodeFormat
+    private static String fullReference(
+            long keycode, String prefix, String suffix, String separator, int groupLen) {
+        String digits = String.format("%014d", keycode);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < digits.length(); i += groupLen) {
+            sb.append(digits.substring(i, Math.min(i + groupLen, digits.length())));
+            if (i < (digits.length() - groupLen)) {
+                sb.append(separator);
+            }
+        }
+        sb.insert(0, prefix);
+        sb.append(suffix);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,165 @@
+package com.angaza.nexus.keycode;
+
+
+import com.github.emboss.siphash.SipKey;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Date;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.angaza.nexus.keycode.util.HexToByteArray;
+
+import static org.junit.Assert.assertEquals;
+
+public class SecretKeyStoreTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static ByteArrayInputStream csv(String content) throws Exception {
+        return new ByteArrayInputStream(content.getBytes("US-ASCII"));
+    }
+
+    private static String hex(byte[] key) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : key) {
+            sb.append(String.format("%02x", b & 0xff));
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testImport_readsKeysByOrdinal() throws Exception {
+        Random random = new Random(16);
+        int count = 10000;
+        byte[][] keys = new byte[count][16];
+        StringBuilder content = new StringBuilder("device,secret_key\n");
+        for (int i = 0; i < count; i++) {
+            random.nextBytes(keys[i]);
+            content.append(i).append(',').append(hex(keys[i])).append('\n');
+        }
+        File storeFile = folder.newFile("keys.bin");
+        assertEquals(count, SecretKeyStore.importHexCsv(csv(content.toString()), storeFile));
+
+        SecretKeyStore store = SecretKeyStore.open(storeFile);
+        assertEquals(count, store.getKeyCount());
+        for (int i = 0; i < count; i += 97) {
+            SipKey key = store.getKey(i);
+            assertEquals(SipKey.leftHalf(keys[i]), key.getLeftHalf());
+            assertEquals(SipKey.rightHalf(keys[i]), key.getRightHalf());
+            assertEquals(SipKey.leftHalf(keys[i]), store.getLeftHalf(i));
+            assertEquals(SipKey.rightHalf(keys[i]), store.getRightHalf(i));
+        }
+
+        long[] k0 = new long[12];
+        long[] k1 = new long[12];
+        store.readKeyWords(count - 10, 10, k0, k1, 2);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(SipKey.leftHalf(keys[count - 10 + i]), k0[2 + i]);
+            assertEquals(SipKey.rightHalf(keys[count - 10 + i]), k1[2 + i]);
+        }
+    }
+
+    @Test
+    public void testImport_unorderedSparseAndLooseFormatting() throws Exception {
+        File storeFile = folder.newFile("keys.bin");
+        int imported = SecretKeyStore.importHexCsv(csv(
+                "5, ABABABABABABABABABABABABABABABAB\r\n"
+                        + "\n"
+                        + "1,00112233445566778899aabbccddeeff\n"
+                        + " 2 ,ffeeddccbbaa99887766554433221100"),
+                storeFile);
+        assertEquals(3, imported);
+
+        SecretKeyStore store = SecretKeyStore.open(storeFile);
+        assertEquals(6, store.getKeyCount());
+        HexToByteArray hex = new HexToByteArray();
+        assertEquals(SipKey.leftHalf(hex.convert("abababababababababababababababab")),
+                store.getLeftHalf(5));
+        assertEquals(SipKey.rightHalf(hex.convert("00112233445566778899aabbccddeeff")),
+                store.getRightHalf(1));
+        assertEquals(SipKey.leftHalf(hex.convert("ffeeddccbbaa99887766554433221100")),
+                store.getLeftHalf(2));
+        // Missing devices are zero
+        assertEquals(0, store.getLeftHalf(0));
+        assertEquals(0, store.getRightHalf(4));
+    }
+
+    @Test
+    public void testGetKey_encodesLikeRawKey() throws Exception {
+        byte[] raw = new HexToByteArray().convert("c4b84048cf0424a25dc5e9d3f0674036");
+        File storeFile = folder.newFile("keys.bin");
+        SecretKeyStore.importHexCsv(csv("0," + hex(raw) + "\n"), storeFile);
+        SecretKeyStore store = SecretKeyStore.open(storeFile);
+
+        Date now = new Date(1500000000000L);
+        assertEquals(
+                new DeviceKeycodeEncoder(raw, KeycodeProtocol.FULL)
+                        .addCredit(now, 42, 3600 * 24).getKeycodeData().getKeycode(),
+                new DeviceKeycodeEncoder(store.getKey(0), KeycodeProtocol.FULL)
+                        .addCredit(now, 42, 3600 * 24).getKeycodeData().getKeycode());
+    }
+
+    @Test(expected = IOException.class)
+    public void testImport_shortKeyThrows() throws Exception {
+        SecretKeyStore.importHexCsv(csv("0,abab\n"), folder.newFile("keys.bin"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testImport_missingSeparatorThrows() throws Exception {
+        SecretKeyStore.importHexCsv(
+                csv("0,abababababababababababababababab\n1 abababababababababababababababab\n"),
+                folder.newFile("keys.bin"));
+    }
+
+    @Test
+    public void testImport_skipsUtf8ByteOrderMark() throws Exception {
+        byte[] bom = {(byte) 0xef, (byte) 0xbb, (byte) 0xbf};
+        byte[] lines = "0,abababababababababababababababab\n1,cdcdcdcdcdcdcdcdcdcdcdcdcdcdcdcd\n"
+                .getBytes("US-ASCII");
+        byte[] content = new byte[bom.length + lines.length];
+        System.arraycopy(bom, 0, content, 0, bom.length);
+        System.arraycopy(lines, 0, content, bom.length, lines.length);
+        File storeFile = folder.newFile("keys.bin");
+        assertEquals(2, SecretKeyStore.importHexCsv(new ByteArrayInputStream(content), storeFile));
+        assertEquals(2, SecretKeyStore.open(storeFile).getKeyCount());
+    }
+
+    @Test(expected = IOException.class)
+    public void testImport_utf16Throws() throws Exception {
+        SecretKeyStore.importHexCsv(
+                new ByteArrayInputStream(
+                        "0,abababababababababababababababab\n".getBytes("UTF-16")),
+                folder.newFile("keys.bin"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testImport_highByteThrows() throws Exception {
+        // 0xff must not read as end of input, truncating the import
+        byte[] content = "0,abababababababababababababababab\n\n1,cd".getBytes("US-ASCII");
+        content[content.length - 4] = (byte) 0xff;
+        SecretKeyStore.importHexCsv(new ByteArrayInputStream(content), folder.newFile("keys.bin"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testOpen_partialRecordThrows() throws Exception {
+        File storeFile = folder.newFile("keys.bin");
+        FileOutputStream out = new FileOutputStream(storeFile);
+        out.write(new byte[20]);
+        out.close();
+        SecretKeyStore.open(storeFile);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testGetKey_unknownOrdinalThrows() throws Exception {
+        File storeFile = folder.newFile("keys.bin");
+        SecretKeyStore.importHexCsv(csv("0,abababababababababababababababab\n"), storeFile);
+        SecretKeyStore.open(storeFile).getKey(1);
+    }
+}
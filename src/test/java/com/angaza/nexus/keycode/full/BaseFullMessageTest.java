@@ -45,6 +45,23 @@ public class BaseFullMessageTest {
         }
     }
 
+    @Test
+    public void testObscurePacked_matchesStringAndReverses() throws Exception {
+        List<String> inputs = Arrays.asList(
+                "12345678901250",
+                "12345678901241",
+                "00000000524232",
+                "00000000445755");
+
+        for (String input : inputs) {
+            long obscured = BaseFullMessage.obscure(Long.parseLong(input), 1);
+            assertEquals(
+                    Long.parseLong(BaseFullMessage.obscure(input, 1)),
+                    obscured);
+            assertEquals(Long.parseLong(input), BaseFullMessage.obscure(obscured, -1));
+        }
+    }
+
     @Test
     public void testKeycode_valuesAndFormattingOK() throws Exception {
         BaseFullMessage message = new BaseFullMessage(
@@ -73,4 +90,62 @@ public class BaseFullMessageTest {
             assertEquals(expectedKeycodes.get(i), generatedKeycode);
         }
     }
+
+    @Test
+    public void testIntBody_matchesStringBody() throws Exception {
+        byte[] secretKey = new HexToByteArray().convert("abababababababababababababababab");
+        for (int body : new int[]{0, 7, 993, 99999}) {
+            BaseFullMessage fromInt = new BaseFullMessage(1223, 1, body, secretKey);
+            BaseFullMessage fromString = new BaseFullMessage(
+                    1223, 1, String.format("%05d", body), secretKey);
+            assertEquals(fromString.toKeycode(), fromInt.toKeycode());
+            assertEquals(fromString.obscuredDigits(), fromInt.obscuredDigits());
+            assertEquals(String.format("%05d", body), fromInt.body());
+            assertEquals("107", fromInt.header());
+        }
+    }
+
+    @Test
+    public void testIrregularMessage_keepsStringLayout() throws Exception {
+        byte[] secretKey = new HexToByteArray().convert("abababababababababababababababab");
+        // 6-digit body: 15 digits, so the first 8 are obscured and the MAC appended
+        BaseFullMessage message = new BaseFullMessage(1223, 0, 100000, secretKey);
+        assertEquals("007", message.header());
+        assertEquals("100000", message.body());
+        String raw = "007100000" + BaseFullMessage.generateMac(1223, 0, 100000, secretKey);
+        String obscured = BaseFullMessage.obscure(raw, 1);
+        assertEquals(
+                "*" + obscured.substring(0, 3) + " " + obscured.substring(3, 6) + " "
+                        + obscured.substring(6, 9) + " " + obscured.substring(9, 12) + " "
+                        + obscured.substring(12) + "#",
+                message.toKeycode());
+
+        // 2-digit type code
+        message = new BaseFullMessage(1223, 12, "00993", secretKey);
+        assertEquals("1207", message.header());
+        assertEquals("00993", message.body());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testIrregularMessage_hasNoPackedForm() throws Exception {
+        byte[] secretKey = new HexToByteArray().convert("abababababababababababababababab");
+        new BaseFullMessage(1223, 0, "993", secretKey).obscuredDigits();
+    }
+
+    @Test
+    public void testKeycode_nullOptionsRenderAsText() throws Exception {
+        BaseFullMessage message = new BaseFullMessage(
+                1223, 0, "00993",
+                new HexToByteArray().convert("abababababababababababababababab"));
+        assertEquals("null885null190null556null639null04null",
+                message.toKeycode(null, null, null, 3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testKeycode_nonPositiveGroupLenRejected() throws Exception {
+        new BaseFullMessage(
+                1223, 0, "00993",
+                new HexToByteArray().convert("abababababababababababababababab"))
+                .toKeycode("*", "#", "-", 0);
+    }
 }
@@ -0,0 +1,91 @@
+package com.angaza.nexus.keycode.full;
+
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.angaza.nexus.keycode.exceptions.InvalidKeycodeException;
+import com.angaza.nexus.keycode.util.HexToByteArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class FullKeycodeDecoderTest {
+    private static final byte[] SECRET_KEY =
+            new HexToByteArray().convert("abababababababababababababababab");
+
+    @Test
+    public void testDecode_specKeycode() throws Exception {
+        FullKeycodeDecoder decoder = new FullKeycodeDecoder(SECRET_KEY);
+        FullKeycodeDecoder.Decoded decoded = decoder.decode("*885 190 556 639 04#", 1100, 1300);
+        assertEquals(1223, decoded.getMessageId());
+        assertEquals(0, decoded.getTypeCode());
+        assertEquals(993, decoded.getBody());
+    }
+
+    @Test
+    public void testDecode_roundTripsGeneratedKeycodes() throws Exception {
+        Random random = new Random(13);
+        FullKeycodeDecoder decoder = new FullKeycodeDecoder(SECRET_KEY);
+        for (int i = 0; i < 200; i++) {
+            int id = random.nextInt(65535);
+            int hours = random.nextInt(100000);
+            FullMessage message = i % 2 == 0
+                    ? FullMessage.addCredit(id, hours, SECRET_KEY)
+                    : FullMessage.setCredit(id, hours, SECRET_KEY);
+
+            FullKeycodeDecoder.Decoded decoded = decoder.decode(
+                    message.toKeycode(), Math.max(0, id - 500), Math.min(65534, id + 500));
+            assertEquals(id, decoded.getMessageId());
+            assertEquals(i % 2, decoded.getTypeCode());
+            assertEquals(hours, decoded.getBody());
+        }
+    }
+
+    @Test
+    public void testDecode_idOutsideWindowNotFound() throws Exception {
+        FullKeycodeDecoder decoder = new FullKeycodeDecoder(SECRET_KEY);
+        assertNull(decoder.decode("*885 190 556 639 04#", 1224, 2000));
+        assertNull(decoder.decode("*885 190 556 639 04#", 0, 1222));
+        assertEquals(1223, decoder.decode("*885 190 556 639 04#", 1223, 1223).getMessageId());
+    }
+
+    @Test
+    public void testDecode_wrongKeyOrDigitNotVerified() throws Exception {
+        FullKeycodeDecoder wrongKey = new FullKeycodeDecoder(
+                new HexToByteArray().convert("abababababababababababababababac"));
+        assertNull(wrongKey.decode("*885 190 556 639 04#", 0, 65534));
+
+        FullKeycodeDecoder decoder = new FullKeycodeDecoder(SECRET_KEY);
+        assertNull(decoder.decode("*885 190 556 639 05#", 0, 65534));
+    }
+
+    @Test
+    public void testParse_toleratesDelimiters() throws Exception {
+        long expected = 88519055663904L;
+        assertEquals(expected, FullKeycodeDecoder.parse("88519055663904"));
+        assertEquals(expected, FullKeycodeDecoder.parse("*885-190-556-639-04#"));
+        assertEquals(expected, FullKeycodeDecoder.parse(" *8851 9055 6639 04# "));
+    }
+
+    @Test(expected = InvalidKeycodeException.class)
+    public void testParse_tooFewDigitsThrows() throws Exception {
+        FullKeycodeDecoder.parse("*885 190 556 639 0#");
+    }
+
+    @Test(expected = InvalidKeycodeException.class)
+    public void testParse_tooManyDigitsThrows() throws Exception {
+        FullKeycodeDecoder.parse("*885 190 556 639 041#");
+    }
+
+    @Test(expected = InvalidKeycodeException.class)
+    public void testParse_otherCharactersThrow() throws Exception {
+        FullKeycodeDecoder.parse("*885 19O 556 639 04#");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecode_invalidWindowThrows() throws Exception {
+        new FullKeycodeDecoder(SECRET_KEY).decode(88519055663904L, 10, 65535);
+    }
+}
@@ -67,11 +67,11 @@ public class FullMessageTest {
         assertEquals(message.secretKey, SECRET_KEY);
 
         // Header should start with add credit typecode
-        assertTrue(message.header.substring(0, 1).equals("0"));
-        assertEquals(message.header, "042");
+        assertTrue(message.header().substring(0, 1).equals("0"));
+        assertEquals(message.header(), "042");
 
-        assertEquals(message.body, "00168");
-        assertEquals(message.body.substring(message.body.length() - 3), "168");
+        assertEquals(message.body(), "00168");
+        assertEquals(message.body().substring(message.body().length() - 3), "168");
 
         assertEquals(keycode, "18626101219303");
     }
@@ -90,11 +90,11 @@ public class FullMessageTest {
 
         assertEquals(message.secretKey, SECRET_KEY);
 
-        assertTrue(message.header.substring(0, 1).equals("0"));
-        assertEquals(message.header, "042");
+        assertTrue(message.header().substring(0, 1).equals("0"));
+        assertEquals(message.header(), "042");
 
-        assertEquals(message.body, "00168");
-        assertEquals(message.body.substring(message.body.length() - 3), "168");
+        assertEquals(message.body(), "00168");
+        assertEquals(message.body().substring(message.body().length() - 3), "168");
 
         assertEquals(keycode, prefix + "18626101219303" + suffix);
     }
@@ -111,11 +111,11 @@ public class FullMessageTest {
         assertEquals(message.secretKey, SECRET_KEY);
 
         // Header should start with set credit typecode
-        assertTrue(message.header.substring(0, 1).equals("1"));
-        assertEquals(message.header, "150"); // LSB 242 == Dec 50
+        assertTrue(message.header().substring(0, 1).equals("1"));
+        assertEquals(message.header(), "150"); // LSB 242 == Dec 50
 
-        assertEquals(message.body, "00168");
-        assertEquals(message.body.substring(message.body.length() - 3), "168");
+        assertEquals(message.body(), "00168");
+        assertEquals(message.body().substring(message.body().length() - 3), "168");
 
         assertEquals(keycode, "84916574650252");
     }
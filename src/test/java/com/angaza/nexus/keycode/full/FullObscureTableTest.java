@@ -0,0 +1,112 @@
+package com.angaza.nexus.keycode.full;
+
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+
+import com.angaza.nexus.keycode.util.BitUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FullObscureTableTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @After
+    public void tearDown() {
+        FullObscureTable.disable();
+    }
+
+    private static long expectedOffsets(int mac) throws Exception {
+        byte[] macBits = new byte[]{
+                (byte) (mac >>> 24), (byte) (mac >>> 16), (byte) (mac >>> 8), (byte) mac};
+        byte[] randomBits = BitUtils.repackToBufferBottom(
+                BitUtils.pseudorandomBits(macBits, 64), 64);
+        long packed = 0;
+        for (byte randomBit : randomBits) {
+            packed = (packed << 8) | (randomBit & 0xff);
+        }
+        return packed;
+    }
+
+    @Test
+    public void testComputeOffsets_matchesPseudorandomBits() throws Exception {
+        for (int mac = 0; mac < FullObscureTable.MAC_COUNT; mac += 997) {
+            assertEquals(expectedOffsets(mac), FullObscureTable.computeOffsets(mac));
+        }
+        assertEquals(expectedOffsets(999999), FullObscureTable.computeOffsets(999999));
+    }
+
+    @Test
+    public void testEnable_missingFileKeepsComputing() throws Exception {
+        assertFalse(FullObscureTable.enable(new File(folder.getRoot(), "missing.bin")));
+        assertFalse(FullObscureTable.isEnabled());
+        assertEquals(expectedOffsets(1250), FullObscureTable.offsets(1250));
+    }
+
+    @Test
+    public void testEnable_mappedTableMatchesComputedOffsets() throws Exception {
+        File file = folder.newFile("full-obscure-table.bin");
+        FullObscureTable.write(file);
+        assertEquals(12 + (long) FullObscureTable.MAC_COUNT * FullObscureTable.ENTRY_BYTES,
+                file.length());
+
+        assertTrue(FullObscureTable.enable(file));
+        assertTrue(FullObscureTable.isEnabled());
+        for (int mac = 0; mac < FullObscureTable.MAC_COUNT; mac += 1009) {
+            assertEquals(FullObscureTable.computeOffsets(mac), FullObscureTable.offsets(mac));
+        }
+        assertEquals(FullObscureTable.computeOffsets(999999), FullObscureTable.offsets(999999));
+
+        List<String> inputs = Arrays.asList(
+                "12345678901250",
+                "00000000524232");
+        List<String> expected = Arrays.asList(
+                "57458927901250",
+                "57396884524232");
+        for (int i = 0; i < inputs.size(); i++) {
+            assertEquals(expected.get(i), BaseFullMessage.obscure(inputs.get(i), 1));
+        }
+    }
+
+    @Test
+    public void testEnable_damagedOrStaleTableRejected() throws Exception {
+        File file = folder.newFile("full-obscure-table.bin");
+        FullObscureTable.write(file);
+        // One flipped bit in one entry
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(12 + 123456L * FullObscureTable.ENTRY_BYTES);
+            int b = raf.read();
+            raf.seek(12 + 123456L * FullObscureTable.ENTRY_BYTES);
+            raf.write(b ^ 1);
+        }
+        assertRejected(file);
+
+        // Right size, but not a table
+        File stale = folder.newFile("stale.bin");
+        try (RandomAccessFile raf = new RandomAccessFile(stale, "rw")) {
+            raf.setLength(12 + (long) FullObscureTable.MAC_COUNT * FullObscureTable.ENTRY_BYTES);
+        }
+        assertRejected(stale);
+    }
+
+    private static void assertRejected(File file) {
+        try {
+            FullObscureTable.enable(file);
+            fail();
+        } catch (IOException e) {
+            assertFalse(FullObscureTable.isEnabled());
+        }
+    }
+}
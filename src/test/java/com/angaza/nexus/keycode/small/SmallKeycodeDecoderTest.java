@@ -0,0 +1,121 @@
+package com.angaza.nexus.keycode.small;
+
+
+import com.github.emboss.siphash.SipKey;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.angaza.nexus.keycode.exceptions.InvalidKeycodeException;
+import com.angaza.nexus.keycode.exceptions.UnsupportedKeyMappingException;
+import com.angaza.nexus.keycode.util.HexToByteArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SmallKeycodeDecoderTest {
+    private static final byte[] SECRET_KEY =
+            new HexToByteArray().convert("abababababababababababababababab");
+
+    @Test
+    public void testDecode_roundTripsGeneratedKeycodes() throws Exception {
+        Random random = new Random(14);
+        SmallKeycodeDecoder decoder = new SmallKeycodeDecoder(SECRET_KEY);
+        for (int i = 0; i < 200; i++) {
+            int id = random.nextInt(65535);
+            int typeCode = i % 2 == 0 ? 0 : 2;
+            int body = random.nextInt(256);
+            SmallMessage message = new SmallMessage(id, typeCode, body, SECRET_KEY);
+
+            SmallKeycodeDecoder.Decoded decoded = decoder.decodeNear(message.toKeycode(), id, 40);
+            assertEquals(id, decoded.getMessageId());
+            assertEquals(typeCode, decoded.getTypeCode());
+            assertEquals(body, decoded.getBody());
+        }
+    }
+
+    @Test
+    public void testParse_inverseOfRendering() throws Exception {
+        SmallMessage message = new SmallMessage(100, 0, 10, SECRET_KEY);
+        SmallKeycodeDecoder decoder = new SmallKeycodeDecoder(SECRET_KEY);
+        int expected = message.obscuredBits();
+        assertEquals(expected, decoder.parse(message.toKeycode()));
+        assertEquals(expected, decoder.parse(message.toKeycode("1", "-", 3, null)));
+        // Prefix omitted
+        assertEquals(expected, decoder.parse(message.toKeycode("", " ", 4, null)));
+
+        String[] keyMapping = new String[]{"0", "1", "2", "3"};
+        SmallKeycodeDecoder custom = new SmallKeycodeDecoder(
+                new SipKey(SECRET_KEY), "*", keyMapping);
+        assertEquals(expected, custom.parse(message.toKeycode("*", "", 1, keyMapping)));
+    }
+
+    @Test
+    public void testDeobscure_recoversMessageBits() throws Exception {
+        SmallMessage message = new SmallMessage(100, 2, 10, SECRET_KEY);
+        int bits = SmallKeycodeDecoder.deobscure(message.obscuredBits());
+        assertEquals(BaseSmallMessage.packBodyBits(100, 2, 10), bits >>> 12);
+        assertEquals(BaseSmallMessage.generateMac(100, 2, 10, SECRET_KEY), bits & 0xfff);
+    }
+
+    @Test
+    public void testDecode_idOutsideWindowOrWrongKeyNotFound() throws Exception {
+        String keycode = new SmallMessage(1000, 0, 10, SECRET_KEY).toKeycode();
+        SmallKeycodeDecoder decoder = new SmallKeycodeDecoder(SECRET_KEY);
+        assertNull(decoder.decode(keycode, 1001, 2000));
+        assertEquals(1000, decoder.decode(keycode, 1000, 1000).getMessageId());
+
+        SmallKeycodeDecoder wrongKey = new SmallKeycodeDecoder(
+                new HexToByteArray().convert("abababababababababababababababac"));
+        assertNull(wrongKey.decode(keycode, 990, 1010));
+    }
+
+    @Test
+    public void testExpandMessageIds_batch() throws Exception {
+        SmallKeycodeDecoder decoder = new SmallKeycodeDecoder(SECRET_KEY);
+        int[] ids = {5, 17, 30, 64, 100};
+        int[] parsed = new int[ids.length + 1];
+        for (int i = 0; i < ids.length; i++) {
+            parsed[i] = decoder.parse(
+                    new AddCreditSmallMessage(ids[i], 3, SECRET_KEY).toKeycode());
+        }
+        // Not from this device's key
+        parsed[ids.length] = new SmallKeycodeDecoder(SECRET_KEY).parse(
+                new AddCreditSmallMessage(50, 3,
+                        new HexToByteArray().convert("00000000000000000000000000000000"))
+                        .toKeycode());
+
+        int[] expanded = new int[parsed.length];
+        decoder.expandMessageIds(parsed, 0, 127, expanded);
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(ids[i], expanded[i]);
+        }
+        assertEquals(SmallKeycodeDecoder.NOT_FOUND, expanded[ids.length]);
+    }
+
+    @Test(expected = InvalidKeycodeException.class)
+    public void testParse_unmappedKeyThrows() throws Exception {
+        new SmallKeycodeDecoder(SECRET_KEY).parse("122 425 324 553 565");
+    }
+
+    @Test(expected = InvalidKeycodeException.class)
+    public void testParse_wrongLengthThrows() throws Exception {
+        new SmallKeycodeDecoder(SECRET_KEY).parse("122 425 324 553 55");
+    }
+
+    @Test(expected = UnsupportedKeyMappingException.class)
+    public void testConstructor_ambiguousKeyMappingThrows() throws Exception {
+        new SmallKeycodeDecoder(new SipKey(SECRET_KEY), "1", new String[]{"2", "3", "3", "5"});
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testConstructor_nullPrefixThrows() throws Exception {
+        new SmallKeycodeDecoder(new SipKey(SECRET_KEY), null, null);
+    }
+
+    @Test(expected = UnsupportedKeyMappingException.class)
+    public void testConstructor_ignoredKeyThrows() throws Exception {
+        new SmallKeycodeDecoder(new SipKey(SECRET_KEY), "1", new String[]{"2", "3", "-", "5"});
+    }
+}
@@ -93,4 +93,19 @@ public class SmallMessageTest {
             assertEquals(expectedKeycodes.get(i), generatedKeycode);
         }
     }
+
+    @Test
+    public void testToKeycode_nullOptionsRenderAsText() throws Exception {
+        SmallMessage message = new SmallMessage(
+                1, 0, 179, new HexToByteArray().convert("abababababababababababababababab"));
+        String[] keyMapping = new String[]{"0", null, "2", "3"};
+        assertEquals("null00203null0233null333", message.toKeycode(null, "", 1, keyMapping));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testToKeycode_nonPositiveGroupLenRejected() throws Exception {
+        SmallMessage message = new SmallMessage(
+                1, 0, 179, new HexToByteArray().convert("abababababababababababababababab"));
+        message.toKeycode("1", " ", 0, null);
+    }
 }
@@ -0,0 +1,38 @@
+package com.angaza.nexus.keycode.small;
+
+
+import org.junit.Test;
+
+import com.angaza.nexus.keycode.util.BitUtils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class SmallObscureMasksTest {
+
+    @Test
+    public void testMask_matchesPseudorandomBitsForAllMacs() throws Exception {
+        for (int mac = 0; mac < 4096; mac++) {
+            byte[] prngBits = BitUtils.pseudorandomBits(SmallObscureMasks.macBits(mac), 16);
+            int mask = SmallObscureMasks.mask(mac);
+            assertEquals("MAC " + mac, prngBits[0], (byte) mask);
+            assertEquals("MAC " + mac, prngBits[1], (byte) (mask >> 8));
+        }
+    }
+
+    @Test
+    public void testObscure_untabulatedSeedFallsBackToPseudorandomBits() throws Exception {
+        byte[] bodyBits = new byte[]{(byte) 0xb3, (byte) 0x04};
+        byte[] macBits = new byte[]{(byte) 0x0f, (byte) 0xf9};
+        byte[] prngBits = BitUtils.pseudorandomBits(macBits, 16);
+        byte xor0 = (byte) (bodyBits[0] ^ prngBits[0]);
+        byte xor1 = (byte) (bodyBits[1] ^ prngBits[1]);
+
+        byte[] expected = new byte[]{
+                macBits[0],
+                (byte) ((macBits[1] & 0x0F) | ((xor0 << 4) & 0xF0)),
+                (byte) (((xor0 & 0xF0) >> 4) | ((xor1 & 0x0F) << 4)),
+                (byte) ((xor1 & 0xF0) >> 4)};
+        assertArrayEquals(expected, BaseSmallMessage.obscure(bodyBits, macBits));
+    }
+}
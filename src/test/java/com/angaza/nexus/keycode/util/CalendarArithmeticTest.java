@@ -0,0 +1,64 @@
+package com.angaza.nexus.keycode.util;
+
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class CalendarArithmeticTest {
+    private static final String[] ZONES = {
+            "UTC", "Africa/Nairobi", "America/New_York", "Europe/London", "Australia/Lord_Howe",
+            "America/Santiago", "Pacific/Apia", "Asia/Kolkata"};
+    private static final long HALF_HOUR = 30 * 60 * 1000L;
+
+    @Test
+    public void testAddDays_matchesCalendarAroundOffsetChanges() {
+        Random random = new Random(19);
+        for (String id : ZONES) {
+            TimeZone zone = TimeZone.getTimeZone(id);
+            GregorianCalendar calendar = new GregorianCalendar(zone);
+            // Every half hour across 2011-2012 (Apia skipped 2011-12-30), random day counts
+            long start = 1293840000000L;
+            for (long millis = start; millis < start + 731 * 48 * HALF_HOUR; millis += HALF_HOUR) {
+                long time = millis + random.nextInt(1000 * 60 * 30);
+                int days = random.nextInt(1000) - 10;
+                calendar.setTimeInMillis(time);
+                calendar.add(Calendar.DAY_OF_MONTH, days);
+                assertEquals(id + " " + time + " + " + days + "d",
+                        calendar.getTimeInMillis(),
+                        CalendarArithmetic.addDays(time, days, zone));
+            }
+        }
+    }
+
+    @Test
+    public void testAddDays_matchesCalendarBeforeEpoch() {
+        TimeZone zone = TimeZone.getTimeZone("America/New_York");
+        GregorianCalendar calendar = new GregorianCalendar(zone);
+        Random random = new Random(20);
+        for (int i = 0; i < 10000; i++) {
+            long time = -(random.nextLong() >>> 24);
+            int days = random.nextInt(400);
+            calendar.setTimeInMillis(time);
+            calendar.add(Calendar.DAY_OF_MONTH, days);
+            assertEquals(calendar.getTimeInMillis(), CalendarArithmetic.addDays(time, days, zone));
+        }
+    }
+
+    @Test
+    public void testAddHours_matchesCalendar() {
+        TimeZone zone = TimeZone.getTimeZone("Europe/London");
+        GregorianCalendar calendar = new GregorianCalendar(zone);
+        long time = 1301187600000L; // 2011-03-27 01:00 UTC, clocks go forward
+        for (int hours = -30; hours < 30; hours++) {
+            calendar.setTimeInMillis(time);
+            calendar.add(Calendar.HOUR_OF_DAY, hours);
+            assertEquals(calendar.getTimeInMillis(), CalendarArithmetic.addHours(time, hours));
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.angaza.nexus.keycode.util;
+
+import com.github.emboss.siphash.SipHash;
+import com.github.emboss.siphash.SipKey;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class PseudorandomBitStreamTest {
+
+    /**
+     * Original eager implementation of {@link BitUtils#pseudorandomBits}, minus the final repack,
+     * which computed ceil(outputLength / 64) * 64 blocks.
+     */
+    private static byte[] referenceBits(byte[] seedBits, int outputLength) throws Exception {
+        byte[] fixedKey = new byte[16];
+        int iterations = (int) (Math.ceil(outputLength / 64.0) * 64);
+        BitOutputStream outBits = new BitOutputStream();
+        for (int i = 0; i < iterations; i++) {
+            BitOutputStream bytesToDigest = new BitOutputStream();
+            bytesToDigest.write((byte) i, Byte.SIZE);
+            byte[] reversedSeedBits = BitUtils.repackToBufferBottom(seedBits, seedBits.length * 8);
+            bytesToDigest.write(reversedSeedBits, reversedSeedBits.length * Byte.SIZE);
+            long hash = SipHash.digest(new SipKey(fixedKey), bytesToDigest.toByteArray());
+            outBits.write(
+                    ByteBuffer.allocate(Long.SIZE / Byte.SIZE)
+                            .order(ByteOrder.LITTLE_ENDIAN)
+                            .putLong(hash)
+                            .array(),
+                    Long.SIZE);
+        }
+        return new BitInputStream(outBits.toByteArray()).read(outputLength);
+    }
+
+    @Test
+    public void testRead_matchesReferenceForVariedSeedsAndLengths() throws Exception {
+        Random random = new Random(42);
+        for (int seedLength = 0; seedLength <= 4; seedLength++) {
+            byte[] seed = new byte[seedLength];
+            random.nextBytes(seed);
+            for (int outputLength = 0; outputLength <= 200; outputLength++) {
+                assertArrayEquals(
+                        String.format("seed length %d, output length %d", seedLength, outputLength),
+                        referenceBits(seed, outputLength),
+                        new PseudorandomBitStream(seed).read(outputLength));
+            }
+        }
+    }
+
+    @Test
+    public void testPseudorandomBits_matchesReference() throws Exception {
+        byte[] seed = new byte[]{(byte) 0x12, (byte) 0x0f};
+        for (int outputLength : new int[]{15, 16, 64, 65}) {
+            assertArrayEquals(
+                    BitUtils.repackToBufferBottom(referenceBits(seed, outputLength), outputLength),
+                    BitUtils.pseudorandomBits(seed, outputLength));
+        }
+    }
+
+    @Test
+    public void testNextBits_unalignedReadsSpanBlocks() throws Exception {
+        byte[] seed = new byte[]{(byte) 0xab, (byte) 0xcd, (byte) 0xef};
+        byte[] expected = new PseudorandomBitStream(seed).read(192);
+
+        PseudorandomBitStream stream = new PseudorandomBitStream(seed);
+        BitOutputStream actual = new BitOutputStream();
+        int[] counts = new int[]{3, 61, 7, 64, 1, 56};
+        for (int count : counts) {
+            long bits = stream.nextBits(count);
+            for (int i = count - 1; i >= 0; i--) {
+                actual.write((byte) (((bits >>> i) & 1) << 7), 1);
+            }
+        }
+        assertArrayEquals(expected, actual.toByteArray());
+    }
+
+    @Test
+    public void testNextBlock_returnsRawDigest() throws Exception {
+        PseudorandomBitStream stream = new PseudorandomBitStream(new byte[]{(byte) 0x07});
+        long first = stream.nextBlock();
+        assertEquals(
+                SipHash.digest(new SipKey(new byte[16]), new byte[]{0, 0x07}),
+                first);
+    }
+}
@@ -0,0 +1,162 @@
+package com.angaza.nexus.keycode.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class StripedLruCacheTest {
+
+    private static class CountingLoader implements StripedLruCache.Loader<Integer, String> {
+        final AtomicInteger loads = new AtomicInteger();
+
+        @Override
+        public String load(Integer key) {
+            loads.incrementAndGet();
+            return key < 0 ? null : "value-" + key;
+        }
+    }
+
+    @Test
+    public void testGet_loadsOnceThenHits() throws Exception {
+        CountingLoader loader = new CountingLoader();
+        StripedLruCache<Integer, String> cache = new StripedLruCache<Integer, String>(10, loader);
+
+        String first = cache.get(1);
+        assertEquals("value-1", first);
+        assertSame(first, cache.get(1));
+        assertEquals(1, loader.loads.get());
+        assertEquals(1, cache.hitCount());
+        assertEquals(1, cache.missCount());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testGet_nullFromLoaderIsNotCached() throws Exception {
+        CountingLoader loader = new CountingLoader();
+        StripedLruCache<Integer, String> cache = new StripedLruCache<Integer, String>(10, loader);
+
+        assertNull(cache.get(-1));
+        assertNull(cache.get(-1));
+        assertEquals(2, loader.loads.get());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testGet_evictsLeastRecentlyUsed() throws Exception {
+        StripedLruCache<Integer, String> cache =
+                new StripedLruCache<Integer, String>(2, 1, new CountingLoader());
+
+        cache.get(1);
+        cache.get(2);
+        cache.get(1);
+        cache.get(3);
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.evictionCount());
+        assertEquals("value-1", cache.getIfPresent(1));
+        assertNull(cache.getIfPresent(2));
+        assertEquals("value-3", cache.getIfPresent(3));
+    }
+
+    @Test
+    public void testPutAndInvalidate() throws Exception {
+        StripedLruCache<Integer, String> cache =
+                new StripedLruCache<Integer, String>(8, new CountingLoader());
+
+        cache.put(5, "five");
+        assertEquals("five", cache.get(5));
+        cache.invalidate(5);
+        assertEquals("value-5", cache.get(5));
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testInvalidate_duringLoadDiscardsStaleValue() throws Exception {
+        final AtomicReference<String> currentKey = new AtomicReference<String>("old-key");
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch rotated = new CountDownLatch(1);
+        final StripedLruCache<Integer, String> cache = new StripedLruCache<Integer, String>(
+                10, new StripedLruCache.Loader<Integer, String>() {
+                    @Override
+                    public String load(Integer key) {
+                        String value = currentKey.get();
+                        if (loading.getCount() > 0) {
+                            // First load: read the old key, then stall until it is rotated
+                            loading.countDown();
+                            try {
+                                rotated.await(10, TimeUnit.SECONDS);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                        }
+                        return value;
+                    }
+                });
+        final AtomicReference<String> loaded = new AtomicReference<String>();
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    loaded.set(cache.get(1));
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        reader.start();
+        assertTrue(loading.await(10, TimeUnit.SECONDS));
+        currentKey.set("new-key");
+        cache.invalidate(1);
+        rotated.countDown();
+        reader.join();
+
+        assertEquals("new-key", loaded.get());
+        assertEquals("new-key", cache.getIfPresent(1));
+    }
+
+    @Test
+    public void testGet_concurrentAccessStaysBounded() throws Exception {
+        final int maximumSize = 64;
+        final StripedLruCache<Integer, String> cache =
+                new StripedLruCache<Integer, String>(maximumSize, 8, new CountingLoader());
+        List<Thread> threads = new ArrayList<Thread>();
+        final AtomicInteger failures = new AtomicInteger();
+        for (int t = 0; t < 8; t++) {
+            final int offset = t;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 10000; i++) {
+                            int key = (i * 31 + offset) % 256;
+                            if (!("value-" + key).equals(cache.get(key))) {
+                                failures.incrementAndGet();
+                            }
+                        }
+                    } catch (Exception e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, failures.get());
+        assertTrue(cache.size() <= maximumSize);
+        assertEquals(80000, cache.hitCount() + cache.missCount());
+    }
+}
@@ -0,0 +1,75 @@
+package com.github.emboss.siphash;
+
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SipHashLanesTest {
+
+    @Test
+    public void isVectorized_matchesBuild() {
+        // Set by the java17-vector profile's test run, which loads the multi-release classes
+        assertEquals(Boolean.getBoolean("siphash.expectVectorized"), SipHashLanes.isVectorized());
+    }
+
+    @Test
+    public void digest_matchesScalarForEveryLength() {
+        Random random = new Random(42);
+        // Odd count so any vector kernel also leaves a scalar tail
+        int count = 37;
+        int keyOffset = 5;
+        long[] k0 = new long[keyOffset + count];
+        long[] k1 = new long[keyOffset + count];
+        long[] m0 = new long[count];
+        long[] m1 = new long[count];
+        long[] out = new long[count];
+        for (int i = 0; i < k0.length; i++) {
+            k0[i] = random.nextLong();
+            k1[i] = random.nextLong();
+        }
+        for (int i = 0; i < count; i++) {
+            m0[i] = random.nextLong();
+            m1[i] = random.nextLong();
+        }
+
+        for (int len = 0; len < 16; len++) {
+            SipHashLanes.digest(k0, k1, keyOffset, m0, m1, len, out, count);
+            for (int i = 0; i < count; i++) {
+                long expected = len < 8
+                        ? SipHash.digest(k0[keyOffset + i], k1[keyOffset + i], m0[i], len)
+                        : SipHash.digest(k0[keyOffset + i], k1[keyOffset + i], m0[i], m1[i], len);
+                assertEquals("len " + len + " item " + i, expected, out[i]);
+            }
+        }
+    }
+
+    @Test
+    public void digest_matchesSpecVector() {
+        long[] k0 = {0x0706050403020100L};
+        long[] k1 = {0x0f0e0d0c0b0a0908L};
+        long[] m0 = {0x0706050403020100L};
+        long[] m1 = {0x000e0d0c0b0a0908L};
+        long[] out = new long[1];
+        SipHashLanes.digest(k0, k1, 0, m0, m1, 15, out, 1);
+        assertEquals(0xa129ca6149be45e5L, out[0]);
+    }
+
+    @Test
+    public void digest_shortMessagesIgnoreSecondWord() {
+        long[] out = new long[1];
+        SipHashLanes.digest(new long[]{1L}, new long[]{2L}, 0, new long[]{3L}, null, 7, out, 1);
+        assertEquals(SipHash.digest(1L, 2L, 3L, 7), out[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void digest_rejectsLongMessages() {
+        SipHashLanes.digest(new long[1], new long[1], 0, new long[1], new long[1], 16,
+                new long[1], 1);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void digest_rejectsShortArrays() {
+        SipHashLanes.digest(new long[2], new long[2], 1, new long[2], null, 4, new long[2], 2);
+    }
+}
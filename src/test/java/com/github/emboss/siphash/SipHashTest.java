@@ -63,5 +63,44 @@ public class SipHashTest {
         long digest = SipHash.digest(SPEC_KEY, Utils.byteTimes(0, 1000000));
         assertEquals(0x28205108397aa742L, digest);
     }
-}
 
+    @Test
+    public void wordDigestsMatchByteDigests() {
+        long k0 = SPEC_KEY.getLeftHalf();
+        long k1 = SPEC_KEY.getRightHalf();
+        for (int len = 0; len <= 15; len++) {
+            byte[] msg = new byte[len];
+            System.arraycopy(SPEC_MSG, 0, msg, 0, len);
+            byte[] padded = new byte[16];
+            System.arraycopy(msg, 0, padded, 0, len);
+            long m0 = UnsignedInt64.binToIntOffset(padded, 0);
+            long m1 = UnsignedInt64.binToIntOffset(padded, 8);
+            long expected = SipHash.digest(SPEC_KEY, msg);
+            if (len < 8) {
+                assertEquals("length " + len, expected, SipHash.digest(k0, k1, m0, len));
+            } else {
+                assertEquals("length " + len, expected, SipHash.digest(k0, k1, m0, m1, len));
+            }
+        }
+    }
+
+    @Test
+    public void wordDigestIgnoresBytesBeyondLength() {
+        long k0 = SPEC_KEY.getLeftHalf();
+        long k1 = SPEC_KEY.getRightHalf();
+        assertEquals(
+                SipHash.digest(SPEC_KEY, "abcdef".getBytes()),
+                SipHash.digest(k0, k1, 0x7fab000000000000L | 0x666564636261L, 6));
+    }
+
+    @Test
+    public void keyHalvesMatchInstance() {
+        byte[] key = Utils.bytesOf(
+                0xf0, 0xe1, 0xd2, 0xc3, 0xb4, 0xa5, 0x96, 0x87,
+                0x78, 0x69, 0x5a, 0x4b, 0x3c, 0x2d, 0x1e, 0x0f);
+        assertEquals(0x8796a5b4c3d2e1f0L, SipKey.leftHalf(key));
+        assertEquals(0x0f1e2d3c4b5a6978L, SipKey.rightHalf(key));
+        assertEquals(SipKey.leftHalf(key), new SipKey(key).getLeftHalf());
+        assertEquals(SipKey.rightHalf(key), new SipKey(key).getRightHalf());
+    }
+}